@@ -37,6 +37,8 @@ import java.util.UUID;
 
 /**
  * Runs actions after the project has started up and the index is up to date.
+ * <p>
+ * The steps and their timings are tracked by {@link StartupSteps}.
  *
  * @see ProjectOpenActivity for actions that run earlier.
  * @see io.flutter.project.FlutterProjectOpenProcessor for additional actions that
@@ -108,53 +110,76 @@ public class FlutterInitializer implements StartupActivity {
 
   @Override
   public void runActivity(@NotNull Project project) {
-    // Convert all modules of deprecated type FlutterModuleType.
-    if (FlutterModuleUtils.convertFromDeprecatedModuleType(project)) {
-      // If any modules were converted over, create a notification
-      FlutterMessages.showInfo(FlutterBundle.message("flutter.initializer.module.converted.title"),
-                               FlutterBundle.message("flutter.initializer.module.converted.content"));
-    }
+    final StartupSteps steps = StartupSteps.start(project);
+
+    // These need to be in place before the user can do anything with the project.
+    steps.now("convert module types", () -> {
+      // Convert all modules of deprecated type FlutterModuleType.
+      if (FlutterModuleUtils.convertFromDeprecatedModuleType(project)) {
+        // If any modules were converted over, create a notification
+        FlutterMessages.showInfo(FlutterBundle.message("flutter.initializer.module.converted.title"),
+                                 FlutterBundle.message("flutter.initializer.module.converted.content"));
+      }
+    });
+
+    steps.now("watch debug sessions", () -> {
+      // Start watching for Flutter debug active events.
+      FlutterViewFactory.init(project);
+      FlutterRunNotifications.init(project);
+    });
+
+    // Watch save actions.
+    steps.now("watch saves", () -> FlutterReloadManager.init(project));
+
+    // These are independent of each other, so they run concurrently.
 
     // Start watching for devices.
-    DeviceService.getInstance(project);
+    steps.inBackground("start device service", () -> DeviceService.getInstance(project));
 
-    // Start watching for Flutter debug active events.
-    FlutterViewFactory.init(project);
+    // Start watching for project structure and .packages file changes.
+    steps.inBackground("watch plugins library", () -> new FlutterPluginsLibraryManager(project).startWatching());
 
     // If the project declares a Flutter dependency, do some extra initialization.
-    final PubRoot root = PubRoot.singleForProjectWithRefresh(project);
-    if (root != null && root.declaresFlutter()) {
-      // Set Android SDK.
-      if (root.hasAndroidModule(project)) {
-        ensureAndroidSdk(project);
+    steps.inBackground("refresh pub root", () -> {
+      final PubRoot root = PubRoot.singleForProjectWithRefresh(project);
+      if (root != null && root.declaresFlutter()) {
+        steps.onUiThread("set up flutter project", () -> initFlutterProject(project, root));
       }
+    });
 
-      // Setup a default run configuration for 'main.dart' (if it exists).
-      FlutterModuleUtils.autoCreateRunConfig(project, root);
+    // These can wait until the IDE is idle.
 
-      // If there are no open editors, show main.
-      final FileEditorManager editorManager = FileEditorManager.getInstance(project);
-      if (editorManager.getOpenFiles().length == 0) {
-        FlutterModuleUtils.autoShowMain(project, root);
+    // Do a one-time set for the default value of the whole file dartfmt setting.
+    steps.whenIdle("dartfmt setting", () -> {
+      if (DartfmtSettings.dartPluginHasSetting()) {
+        if (!DartfmtSettings.hasBeenOneTimeSet()) {
+          DartfmtSettings.setDartfmtValue();
+        }
       }
-    }
+    });
 
-    FlutterRunNotifications.init(project);
+    steps.whenIdle("analytics", () -> initAnalytics(project));
 
-    // Watch save actions.
-    FlutterReloadManager.init(project);
+    steps.allScheduled();
+  }
 
-    // Do a one-time set for the default value of the whole file dartfmt setting.
-    if (DartfmtSettings.dartPluginHasSetting()) {
-      if (!DartfmtSettings.hasBeenOneTimeSet()) {
-        DartfmtSettings.setDartfmtValue();
-      }
+  private void initFlutterProject(@NotNull Project project, @NotNull PubRoot root) {
+    // Set Android SDK.
+    if (root.hasAndroidModule(project)) {
+      ensureAndroidSdk(project);
     }
 
-    // Start watching for project structure and .packages file changes.
-    final FlutterPluginsLibraryManager libraryManager = new FlutterPluginsLibraryManager(project);
-    libraryManager.startWatching();
+    // Setup a default run configuration for 'main.dart' (if it exists).
+    FlutterModuleUtils.autoCreateRunConfig(project, root);
+
+    // If there are no open editors, show main.
+    final FileEditorManager editorManager = FileEditorManager.getInstance(project);
+    if (editorManager.getOpenFiles().length == 0) {
+      FlutterModuleUtils.autoShowMain(project, root);
+    }
+  }
 
+  private void initAnalytics(@NotNull Project project) {
     // Initialize the analytics notification group.
     NotificationsConfiguration.getNotificationsConfiguration().register(
       Analytics.GROUP_DISPLAY_ID,
@@ -17,6 +17,7 @@ import com.intellij.openapi.startup.StartupActivity;
 import com.intellij.openapi.ui.Messages;
 import icons.FlutterIcons;
 import io.flutter.pub.PubRoot;
+import io.flutter.sdk.FlutterCommandStartResult;
 import io.flutter.sdk.FlutterSdk;
 import io.flutter.utils.FlutterModuleUtils;
 import org.jetbrains.annotations.NotNull;
@@ -44,6 +45,12 @@ public class ProjectOpenActivity implements StartupActivity, DumbAware {
       return;
     }
 
+    // Load the 'flutter config' values in the background, so that later lookups don't wait for the flutter tool.
+    final FlutterSdk sdk = FlutterSdk.getFlutterSdk(project);
+    if (sdk != null) {
+      sdk.getConfigCache().prefetch();
+    }
+
     root = root.refresh();
     if (root != null && !root.hasUpToDatePackages()) {
       Notifications.Bus.notify(new PackagesOutOfDateNotification(project));
@@ -69,11 +76,13 @@ public class ProjectOpenActivity implements StartupActivity, DumbAware {
     if (root.getPackages() == null) {
       // Get packages; as a side effect this will also download the Dart SDK if needed.
       try {
-        final Process process = sdk.startPackagesGet(root, project);
+        final FlutterCommandStartResult result = sdk.startPackagesGet(root, project);
+        final Process process = result.process;
         if (process != null) {
           process.waitFor();
           return process.exitValue() == 0;
         }
+        // If queued behind other flutter commands, it runs later and shows its own console.
       }
       catch (InterruptedException e) {
         FlutterMessages.showError("Error opening", e.getMessage());
@@ -123,9 +132,9 @@ public class ProjectOpenActivity implements StartupActivity, DumbAware {
             return;
           }
 
-          if (sdk.startPackagesGet(root, project) == null) {
-            Messages.showErrorDialog("Unable to run 'flutter packages get'", "Error");
-          }
+          // If another command is running, this is queued and the console appears later.
+          // (Failures to start are reported by FlutterCommand.)
+          sdk.startPackagesGet(root, project);
         }
       });
     }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the steps that set up the plugin for a project, and records how long each one took.
+ * <p>
+ * Steps that must finish before the user can do anything run right away on the UI thread. Independent steps
+ * run concurrently on pooled threads, and steps that aren't needed right away run on the UI thread once the
+ * IDE is idle and not indexing. When all steps have finished, the timings are logged; they can also be viewed
+ * with the "Show Startup Timings" action.
+ */
+public class StartupSteps {
+  private static final Logger LOG = Logger.getInstance(StartupSteps.class);
+
+  private static final Key<StartupSteps> KEY = Key.create("io.flutter.StartupSteps");
+
+  @NotNull private final Project project;
+  private final long startNanos = System.nanoTime();
+
+  private final List<Timing> timings = Collections.synchronizedList(new ArrayList<>());
+
+  /**
+   * The number of steps that haven't finished, plus one until all steps are scheduled.
+   */
+  private final AtomicInteger unfinished = new AtomicInteger(1);
+
+  private StartupSteps(@NotNull Project project) {
+    this.project = project;
+  }
+
+  /**
+   * Starts recording the startup of a project, replacing any previous recording.
+   */
+  @NotNull
+  static StartupSteps start(@NotNull Project project) {
+    final StartupSteps steps = new StartupSteps(project);
+    project.putUserData(KEY, steps);
+    return steps;
+  }
+
+  /**
+   * Returns the startup steps recorded for a project, or null if it hasn't started up yet.
+   */
+  @Nullable
+  public static StartupSteps forProject(@NotNull Project project) {
+    return project.getUserData(KEY);
+  }
+
+  /**
+   * Runs a step on the current thread.
+   */
+  void now(@NotNull String name, @NotNull Runnable step) {
+    unfinished.incrementAndGet();
+    run(name, ApplicationManager.getApplication().isDispatchThread() ? Where.UI : Where.BACKGROUND, step);
+  }
+
+  /**
+   * Runs a step on a pooled thread, concurrently with other steps.
+   */
+  void inBackground(@NotNull String name, @NotNull Runnable step) {
+    unfinished.incrementAndGet();
+    ApplicationManager.getApplication().executeOnPooledThread(() -> run(name, Where.BACKGROUND, step));
+  }
+
+  /**
+   * Runs a step on the UI thread soon. (For background steps that have UI work to do afterwards.)
+   */
+  void onUiThread(@NotNull String name, @NotNull Runnable step) {
+    unfinished.incrementAndGet();
+    ApplicationManager.getApplication().invokeLater(() -> run(name, Where.UI, step));
+  }
+
+  /**
+   * Runs a step on the UI thread once the project is out of dumb mode and earlier UI events are done.
+   */
+  void whenIdle(@NotNull String name, @NotNull Runnable step) {
+    unfinished.incrementAndGet();
+    DumbService.getInstance(project).smartInvokeLater(() -> run(name, Where.DEFERRED, step));
+  }
+
+  /**
+   * Called after the last step is scheduled, so that the timings are logged once they have all finished.
+   */
+  void allScheduled() {
+    finished();
+  }
+
+  private void run(@NotNull String name, @NotNull Where where, @NotNull Runnable step) {
+    final long start = System.nanoTime();
+    try {
+      if (!project.isDisposed()) {
+        step.run();
+      }
+    }
+    catch (Exception e) {
+      LOG.error("Flutter startup step '" + name + "' failed", e);
+    }
+    finally {
+      timings.add(new Timing(name, where, start - startNanos, System.nanoTime() - start));
+      finished();
+    }
+  }
+
+  private void finished() {
+    if (unfinished.decrementAndGet() == 0) {
+      LOG.info(getReport());
+    }
+  }
+
+  /**
+   * Returns a table of the steps that have finished, in the order they started.
+   */
+  @NotNull
+  public String getReport() {
+    final List<Timing> sorted;
+    synchronized (timings) {
+      sorted = new ArrayList<>(timings);
+    }
+    sorted.sort((a, b) -> Long.compare(a.offsetNanos, b.offsetNanos));
+
+    long uiNanos = 0;
+    long endNanos = 0;
+    final StringBuilder out = new StringBuilder();
+    out.append(String.format("%8s %8s  %-10s %s\n", "start", "took", "thread", "step"));
+    for (Timing timing : sorted) {
+      out.append(String.format("%5d ms %5d ms  %-10s %s\n", toMillis(timing.offsetNanos), toMillis(timing.durationNanos),
+                               timing.where.label, timing.name));
+      if (timing.where != Where.BACKGROUND) {
+        uiNanos += timing.durationNanos;
+      }
+      endNanos = Math.max(endNanos, timing.offsetNanos + timing.durationNanos);
+    }
+
+    final String status = unfinished.get() > 0 ? "still running" : "done";
+    return String.format("Flutter startup for '%s' (%s): %d steps, %d ms on the UI thread, %d ms in total\n",
+                         project.getName(), status, sorted.size(), toMillis(uiNanos), toMillis(endNanos)) + out;
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private enum Where {
+    UI("ui"), BACKGROUND("background"), DEFERRED("deferred");
+
+    @NotNull final String label;
+
+    Where(@NotNull String label) {
+      this.label = label;
+    }
+  }
+
+  private static class Timing {
+    @NotNull final String name;
+    @NotNull final Where where;
+
+    /**
+     * When the step started, relative to the start of startup.
+     */
+    final long offsetNanos;
+    final long durationNanos;
+
+    Timing(@NotNull String name, @NotNull Where where, long offsetNanos, long durationNanos) {
+      this.name = name;
+      this.where = where;
+      this.offsetNanos = offsetNanos;
+      this.durationNanos = durationNanos;
+    }
+  }
+}
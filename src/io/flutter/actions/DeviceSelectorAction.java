@@ -15,6 +15,7 @@ import com.intellij.openapi.util.SystemInfo;
 import icons.FlutterIcons;
 import io.flutter.FlutterBundle;
 import io.flutter.FlutterUtils;
+import io.flutter.android.AndroidEmulatorInventory;
 import io.flutter.run.daemon.DeviceService;
 import io.flutter.run.daemon.FlutterDevice;
 import org.jetbrains.annotations.NotNull;
@@ -63,6 +64,16 @@ public class DeviceSelectorAction extends ComboBoxAction implements DumbAware {
       Disposer.register(project, () -> knownProjects.remove(project));
 
       DeviceService.getInstance(project).addListener(() -> update(project, e.getPresentation()));
+
+      // The emulator list is read in the background; show it once it arrives.
+      final Runnable emulatorListener = () -> {
+        if (!project.isDisposed()) {
+          update(project, e.getPresentation());
+        }
+      };
+      AndroidEmulatorInventory.getInstance().subscribe(emulatorListener);
+      Disposer.register(project, () -> AndroidEmulatorInventory.getInstance().unsubscribe(emulatorListener));
+
       update(project, e.getPresentation());
     }
   }
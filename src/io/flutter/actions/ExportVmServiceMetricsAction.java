@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.actions;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import io.flutter.FlutterMessages;
+import io.flutter.vmService.VmServiceMetrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Saves the recorded VM service request timings as a trace file that can be opened in chrome://tracing.
+ */
+public class ExportVmServiceMetricsAction extends AnAction implements DumbAware {
+  private static final Logger LOG = Logger.getInstance(ExportVmServiceMetricsAction.class);
+
+  @Override
+  public void update(AnActionEvent event) {
+    event.getPresentation().setEnabled(VmServiceMetrics.getInstance().hasSamples());
+  }
+
+  @Override
+  public void actionPerformed(AnActionEvent event) {
+    final FileSaverDescriptor descriptor =
+      new FileSaverDescriptor("Export VM Service Timings", "Save the recorded timings as a Chrome trace file", "json");
+    final VirtualFileWrapper target =
+      FileChooserFactory.getInstance().createSaveFileDialog(descriptor, event.getProject()).save(null, "vm_service_trace.json");
+    if (target == null) {
+      return;
+    }
+
+    try {
+      Files.write(target.getFile().toPath(), VmServiceMetrics.getInstance().toTraceJson().getBytes(StandardCharsets.UTF_8));
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+      FlutterMessages.showError("Error Exporting Timings", e.toString());
+    }
+  }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.actions;
+
+import com.intellij.openapi.project.Project;
+import io.flutter.pub.PubRoot;
+import io.flutter.sdk.FlutterPackagesPipeline;
+import io.flutter.sdk.FlutterSdk;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Runs 'flutter packages get' in every pub root of the project.
+ */
+public class FlutterPackagesGetAllAction extends FlutterSdkAction {
+  @Override
+  public void startCommand(@NotNull Project project, @NotNull FlutterSdk sdk, @Nullable PubRoot root) {
+    FlutterPackagesPipeline.startGet(sdk, project);
+  }
+}
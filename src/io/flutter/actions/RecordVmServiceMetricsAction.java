@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.actions;
+
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import com.intellij.openapi.project.DumbAware;
+import io.flutter.vmService.VmServiceMetrics;
+
+/**
+ * Turns recording of VM service request timings on or off.
+ */
+public class RecordVmServiceMetricsAction extends ToggleAction implements DumbAware {
+  @Override
+  public boolean isSelected(AnActionEvent event) {
+    return VmServiceMetrics.getInstance().isEnabled();
+  }
+
+  @Override
+  public void setSelected(AnActionEvent event, boolean state) {
+    final VmServiceMetrics metrics = VmServiceMetrics.getInstance();
+    if (state) {
+      metrics.clear();
+    }
+    metrics.setEnabled(state);
+  }
+}
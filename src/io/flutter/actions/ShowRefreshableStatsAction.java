@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.actions;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.ui.Messages;
+import io.flutter.utils.RefreshableStats;
+
+import java.util.List;
+
+/**
+ * Shows how often each Refreshable has refreshed and how long its callbacks took.
+ *
+ * <p>The stats are also written to the log, so they can be attached to a bug report.
+ */
+public class ShowRefreshableStatsAction extends AnAction implements DumbAware {
+  private static final Logger LOG = Logger.getInstance(ShowRefreshableStatsAction.class);
+
+  @Override
+  public void actionPerformed(AnActionEvent event) {
+    final List<RefreshableStats> all = RefreshableStats.getAll();
+
+    final StringBuilder text = new StringBuilder();
+    for (RefreshableStats stats : all) {
+      text.append(stats).append("\n\n");
+    }
+    if (all.isEmpty()) {
+      text.append("No Refreshables are active.");
+    }
+
+    LOG.info("Refreshable stats:\n" + text);
+    Messages.showInfoMessage(event.getProject(), text.toString().trim(), "Flutter Refresh Statistics");
+  }
+}
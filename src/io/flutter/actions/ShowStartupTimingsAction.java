@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.actions;
+
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import io.flutter.FlutterInitializer;
+import io.flutter.StartupSteps;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Shows how long each step of setting up the Flutter plugin took when the project was opened.
+ */
+public class ShowStartupTimingsAction extends DumbAwareAction {
+  @Override
+  public void update(@NotNull AnActionEvent e) {
+    e.getPresentation().setEnabled(e.getProject() != null);
+  }
+
+  @Override
+  public void actionPerformed(@NotNull AnActionEvent e) {
+    final Project project = e.getProject();
+    if (project == null) return;
+
+    FlutterInitializer.sendAnalyticsAction(this);
+
+    final StartupSteps steps = StartupSteps.forProject(project);
+    final String report = steps == null ? "No startup steps were recorded for this project." : steps.getReport();
+    Messages.showInfoMessage(project, report, "Flutter Startup Timings");
+  }
+}
@@ -5,22 +5,17 @@
  */
 package io.flutter.analytics;
 
-import com.intellij.openapi.util.SystemInfo;
-import com.intellij.util.concurrency.QueueProcessor;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -35,6 +30,11 @@ public class Analytics {
 
   private static final int maxExceptionLength = 512;
 
+  /**
+   * How long to wait for more hits before sending a batch.
+   */
+  private static final long FLUSH_DELAY_MILLIS = 5000;
+
   @NotNull
   private final String clientId;
   @NotNull
@@ -44,10 +44,17 @@ public class Analytics {
   @NotNull
   private final String platformVersion;
 
-  private Transport transport = new HttpTransport();
+  /**
+   * Created on first use, so that tests can substitute their own.
+   */
+  @Nullable
+  private Transport transport;
   private final ThrottlingBucket bucket = new ThrottlingBucket(20);
   private boolean myCanSend = false;
 
+  @Nullable
+  private Map<String, String> commonArgs;
+
   public Analytics(@NotNull String clientId, @NotNull String pluginVersion, @NotNull String platformName, @NotNull String platformVersion) {
     this.clientId = clientId;
     this.pluginVersion = pluginVersion;
@@ -61,6 +68,8 @@ public class Analytics {
 
   public void setCanSend(boolean value) {
     this.myCanSend = value;
+    // When opting out, this also drops hits that haven't been sent, including those saved by earlier sessions.
+    getTransport().setEnabled(value);
   }
 
   /**
@@ -70,6 +79,48 @@ public class Analytics {
     this.transport = transport;
   }
 
+  @NotNull
+  private synchronized Transport getTransport() {
+    if (transport == null) {
+      final File queueFile = new File(PathManager.getSystemPath(), "flutter/analytics-queue.txt");
+      transport = new BatchingTransport(queueFile, AppExecutorUtil.getAppScheduledExecutorService(), FLUSH_DELAY_MILLIS);
+    }
+    return transport;
+  }
+
+  /**
+   * Returns the parameters that are the same for every hit.
+   */
+  @NotNull
+  private synchronized Map<String, String> getCommonArgs() {
+    if (commonArgs == null) {
+      final Map<String, String> args = new HashMap<>();
+      args.put("v", "1"); // protocol version
+      args.put("ds", "app"); // specify an 'app' data source
+
+      args.put("an", applicationName);
+      args.put("av", pluginVersion);
+
+      args.put("aiid", platformName); // Record the platform name as the application installer ID
+      args.put("cd1", platformVersion); // Record the Open API version as a custom dimension
+
+      args.put("tid", trackingId);
+      args.put("cid", clientId);
+
+      if (!GraphicsEnvironment.isHeadless()) {
+        final Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+        args.put("sr", screenSize.width + "x" + screenSize.height);
+      }
+
+      final String language = System.getProperty("user.language");
+      if (language != null) {
+        args.put("ul", language);
+      }
+      commonArgs = Collections.unmodifiableMap(args);
+    }
+    return commonArgs;
+  }
+
   public void sendScreenView(@NotNull String viewName) {
     final Map<String, String> args = new HashMap<>();
     args.put("cd", viewName);
@@ -126,87 +177,20 @@ public class Analytics {
       return;
     }
 
-    args.put("v", "1"); // protocol version
-    args.put("ds", "app"); // specify an 'app' data source
-
-    args.put("an", applicationName);
-    args.put("av", pluginVersion);
-
-    args.put("aiid", platformName); // Record the platform name as the application installer ID
-    args.put("cd1", platformVersion); // Record the Open API version as a custom dimension
-
-    args.put("tid", trackingId);
-    args.put("cid", clientId);
+    args.putAll(getCommonArgs());
     args.put("t", hitType);
 
-    final Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
-    args.put("sr", screenSize.width + "x" + screenSize.height);
-
-    final String language = System.getProperty("user.language");
-    if (language != null) {
-      args.put("ul", language);
-    }
-
-    transport.send(analyticsUrl, args);
+    getTransport().send(analyticsUrl, args);
   }
 
   public interface Transport {
     void send(String url, Map<String, String> values);
-  }
-
-  private static class HttpTransport implements Transport {
-    private final QueueProcessor<Runnable> sendingQueue = QueueProcessor.createRunnableQueueProcessor();
-
-    @Nullable
-    private static String createUserAgent() {
-      final String locale = Locale.getDefault().toString();
-
-      if (SystemInfo.isWindows) {
-        return "Mozilla/5.0 (Windows; Windows; Windows; " + locale + ")";
-      }
-      else if (SystemInfo.isMac) {
-        return "Mozilla/5.0 (Macintosh; Intel Mac OS X; Macintosh; " + locale + ")";
-      }
-      else if (SystemInfo.isLinux) {
-        return "Mozilla/5.0 (Linux; Linux; Linux; " + locale + ")";
-      }
-
-      return null;
-    }
 
-    @Override
-    public void send(String url, Map<String, String> values) {
-      sendingQueue.add(() -> {
-        try {
-          final StringBuilder postData = new StringBuilder();
-          for (Map.Entry<String, String> param : values.entrySet()) {
-            if (postData.length() != 0) {
-              postData.append('&');
-            }
-            postData.append(URLEncoder.encode(param.getKey(), "UTF-8"));
-            postData.append('=');
-            postData.append(URLEncoder.encode(param.getValue(), "UTF-8"));
-          }
-          final byte[] postDataBytes = postData.toString().getBytes(StandardCharsets.UTF_8);
-          final HttpURLConnection conn = (HttpURLConnection)new URL(url).openConnection();
-          conn.setRequestMethod("POST");
-          conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-          conn.setRequestProperty("Content-Length", String.valueOf(postDataBytes.length));
-          final String userAgent = createUserAgent();
-          if (userAgent != null) {
-            conn.setRequestProperty("User-Agent", createUserAgent());
-          }
-          conn.setDoOutput(true);
-          conn.getOutputStream().write(postDataBytes);
-
-          final InputStream in = conn.getInputStream();
-          //noinspection ResultOfMethodCallIgnored
-          in.read();
-          in.close();
-        }
-        catch (IOException ignore) {
-        }
-      });
+    /**
+     * Called when the user opts in or out. While disabled, a transport should drop any hits it hasn't sent
+     * yet (including any saved for later) and send nothing.
+     */
+    default void setEnabled(boolean enabled) {
     }
   }
 }
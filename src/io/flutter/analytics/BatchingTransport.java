@@ -0,0 +1,385 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.analytics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends analytics hits in batches, using the Measurement Protocol's batch endpoint.
+ * <p>
+ * Hits are queued and sent a few seconds after the first one arrives, up to 20 per request. Hits that
+ * can't be sent (for example, while offline) stay queued and are retried later; the queue is saved to a
+ * file so that they survive a restart. Hits older than four hours are dropped, since Google Analytics
+ * won't accept them.
+ * <p>
+ * When disabled (the user opted out), queued and saved hits are thrown away and nothing more is sent.
+ */
+class BatchingTransport implements Analytics.Transport {
+  private static final Logger LOG = Logger.getInstance(BatchingTransport.class);
+
+  // Limits from the Measurement Protocol.
+  @VisibleForTesting
+  static final int MAX_HITS_PER_BATCH = 20;
+  private static final int MAX_BATCH_BYTES = 16 * 1024;
+  private static final int MAX_HIT_BYTES = 8 * 1024;
+  private static final long MAX_HIT_AGE_MILLIS = TimeUnit.HOURS.toMillis(4);
+
+  private static final int MAX_QUEUED_HITS = 1000;
+  private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  @Nullable
+  private static final String userAgent = createUserAgent();
+
+  @Nullable private final File queueFile;
+  @NotNull private final ScheduledExecutorService executor;
+  private final long flushDelayMillis;
+
+  /**
+   * Hits waiting to be sent, oldest first.
+   * <p>
+   * Access should be synchronized on this transport, like the fields below.
+   */
+  private final Deque<Hit> queue = new ArrayDeque<>();
+
+  /**
+   * True once the hits saved by a previous session have been read.
+   */
+  private boolean loaded;
+
+  private boolean enabled = true;
+
+  /**
+   * The next flush, or null if none is scheduled.
+   */
+  @Nullable private ScheduledFuture<?> scheduledFlush;
+
+  /**
+   * Held while sending, so that only one flush talks to the server at a time.
+   */
+  private final Object sendLock = new Object();
+
+  BatchingTransport(@Nullable File queueFile, @NotNull ScheduledExecutorService executor, long flushDelayMillis) {
+    this.queueFile = queueFile;
+    this.executor = executor;
+    this.flushDelayMillis = flushDelayMillis;
+
+    final Application app = ApplicationManager.getApplication();
+    if (app != null) {
+      // Keep hits that haven't been sent yet for the next session.
+      Disposer.register(app, this::save);
+    }
+  }
+
+  @Override
+  public void send(String url, Map<String, String> values) {
+    final String payload = encode(values);
+    if (payload == null || payload.length() > MAX_HIT_BYTES) {
+      return;
+    }
+
+    synchronized (this) {
+      if (!enabled) return;
+      queue.add(new Hit(url, payload, System.currentTimeMillis()));
+      while (queue.size() > MAX_QUEUED_HITS) {
+        queue.removeFirst();
+      }
+      scheduleFlush(flushDelayMillis);
+    }
+  }
+
+  /**
+   * Starts or stops sending hits.
+   * <p>
+   * Disabling drops the queue, cancels any retry, and deletes the saved hits without reading them.
+   */
+  @Override
+  public synchronized void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (enabled) return;
+
+    queue.clear();
+    // Saved hits are deleted below, so there is nothing left to read.
+    loaded = true;
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    save();
+  }
+
+  /**
+   * Sends all queued hits that can be sent. If the server can't be reached, schedules a retry.
+   */
+  @VisibleForTesting
+  void flush() {
+    synchronized (sendLock) {
+      synchronized (this) {
+        scheduledFlush = null;
+        if (!enabled) return;
+        load();
+        dropExpiredHits();
+      }
+
+      while (true) {
+        final List<Hit> batch;
+        synchronized (this) {
+          batch = takeBatch();
+        }
+        if (batch.isEmpty()) {
+          break;
+        }
+
+        final boolean sent = post(batch);
+        synchronized (this) {
+          if (!sent) {
+            save();
+            scheduleFlush(RETRY_DELAY_MILLIS);
+            return;
+          }
+          for (Hit hit : batch) {
+            queue.remove(hit);
+          }
+        }
+      }
+
+      synchronized (this) {
+        save();
+      }
+    }
+  }
+
+  private synchronized void scheduleFlush(long delayMillis) {
+    if (enabled && scheduledFlush == null) {
+      scheduledFlush = executor.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Returns the oldest hits that can be sent in one request, without removing them from the queue.
+   */
+  @NotNull
+  private List<Hit> takeBatch() {
+    final List<Hit> batch = new ArrayList<>();
+    int bytes = 0;
+    for (Hit hit : queue) {
+      if (!batch.isEmpty() && !hit.url.equals(batch.get(0).url)) continue;
+
+      final int size = hit.payload.length() + 32; // Allow for the queue time and newline.
+      if (batch.size() == MAX_HITS_PER_BATCH || bytes + size > MAX_BATCH_BYTES) break;
+      batch.add(hit);
+      bytes += size;
+    }
+    return batch;
+  }
+
+  private void dropExpiredHits() {
+    final long oldest = System.currentTimeMillis() - MAX_HIT_AGE_MILLIS;
+    queue.removeIf((hit) -> hit.queuedMillis < oldest);
+  }
+
+  /**
+   * Posts a batch of hits for the same URL. Returns true if the server accepted them.
+   */
+  private boolean post(@NotNull List<Hit> batch) {
+    final long now = System.currentTimeMillis();
+    final StringBuilder body = new StringBuilder();
+    for (Hit hit : batch) {
+      if (body.length() > 0) {
+        body.append('\n');
+      }
+      // The queue time tells the server when the hit actually happened.
+      body.append(hit.payload).append("&qt=").append(Math.max(0, now - hit.queuedMillis));
+    }
+    final byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+
+    try {
+      final HttpURLConnection conn = (HttpURLConnection)new URL(toBatchUrl(batch.get(0).url)).openConnection();
+      conn.setRequestMethod("POST");
+      conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+      conn.setRequestProperty("Content-Length", String.valueOf(bytes.length));
+      if (userAgent != null) {
+        conn.setRequestProperty("User-Agent", userAgent);
+      }
+      conn.setDoOutput(true);
+      try (OutputStream out = conn.getOutputStream()) {
+        out.write(bytes);
+      }
+
+      final int code = conn.getResponseCode();
+      // Read the whole response so that the connection can be reused.
+      try (InputStream in = code < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+        if (in != null) {
+          final byte[] buffer = new byte[1024];
+          //noinspection StatementWithEmptyBody
+          while (in.read(buffer) != -1) {
+          }
+        }
+      }
+      // The server can't do anything with a hit it rejected, so only retry on server errors.
+      return code < 500;
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Reads hits saved by a previous session, if not done already.
+   */
+  private void load() {
+    if (loaded) return;
+    loaded = true;
+    if (queueFile == null || !queueFile.isFile()) return;
+
+    try {
+      final List<Hit> saved = new ArrayList<>();
+      for (String line : Files.readAllLines(queueFile.toPath(), StandardCharsets.UTF_8)) {
+        final Hit hit = Hit.parse(line);
+        if (hit != null) {
+          saved.add(hit);
+        }
+      }
+      // Saved hits are older than anything queued in this session.
+      for (int i = saved.size() - 1; i >= 0; i--) {
+        queue.addFirst(saved.get(i));
+      }
+      while (queue.size() > MAX_QUEUED_HITS) {
+        queue.removeFirst();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Unable to read queued analytics hits", e);
+    }
+  }
+
+  /**
+   * Saves the queue to disk, or deletes the file if there is nothing to save.
+   */
+  private synchronized void save() {
+    if (queueFile == null) return;
+    // If the previous session's hits were never read, they are still in the file.
+    if (!loaded) load();
+
+    try {
+      if (queue.isEmpty()) {
+        Files.deleteIfExists(queueFile.toPath());
+        return;
+      }
+      final StringBuilder out = new StringBuilder();
+      for (Hit hit : queue) {
+        out.append(hit.toLine()).append('\n');
+      }
+      FileUtil.writeToFile(queueFile, out.toString());
+    }
+    catch (IOException e) {
+      LOG.info("Unable to save queued analytics hits", e);
+    }
+  }
+
+  @NotNull
+  private static String toBatchUrl(@NotNull String collectUrl) {
+    if (collectUrl.endsWith("/collect")) {
+      return collectUrl.substring(0, collectUrl.length() - "/collect".length()) + "/batch";
+    }
+    return collectUrl;
+  }
+
+  @Nullable
+  private static String encode(@NotNull Map<String, String> values) {
+    try {
+      final StringBuilder postData = new StringBuilder();
+      for (Map.Entry<String, String> param : values.entrySet()) {
+        if (postData.length() != 0) {
+          postData.append('&');
+        }
+        postData.append(URLEncoder.encode(param.getKey(), "UTF-8"));
+        postData.append('=');
+        postData.append(URLEncoder.encode(param.getValue(), "UTF-8"));
+      }
+      return postData.toString();
+    }
+    catch (UnsupportedEncodingException e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  private static String createUserAgent() {
+    final String locale = Locale.getDefault().toString();
+
+    if (SystemInfo.isWindows) {
+      return "Mozilla/5.0 (Windows; Windows; Windows; " + locale + ")";
+    }
+    else if (SystemInfo.isMac) {
+      return "Mozilla/5.0 (Macintosh; Intel Mac OS X; Macintosh; " + locale + ")";
+    }
+    else if (SystemInfo.isLinux) {
+      return "Mozilla/5.0 (Linux; Linux; Linux; " + locale + ")";
+    }
+
+    return null;
+  }
+
+  /**
+   * One URL-encoded hit and when it was queued.
+   */
+  private static class Hit {
+    @NotNull final String url;
+    @NotNull final String payload;
+    final long queuedMillis;
+
+    Hit(@NotNull String url, @NotNull String payload, long queuedMillis) {
+      this.url = url;
+      this.payload = payload;
+      this.queuedMillis = queuedMillis;
+    }
+
+    /**
+     * Returns the hit as a line of text. (URL-encoded payloads don't contain tabs or newlines.)
+     */
+    @NotNull
+    String toLine() {
+      return queuedMillis + "\t" + url + "\t" + payload;
+    }
+
+    @Nullable
+    static Hit parse(@NotNull String line) {
+      final String[] parts = line.split("\t", 3);
+      if (parts.length != 3 || parts[1].isEmpty() || parts[2].isEmpty()) {
+        return null;
+      }
+      try {
+        return new Hit(parts[1], parts[2], Long.parseLong(parts[0]));
+      }
+      catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -5,6 +5,8 @@
  */
 package io.flutter.analytics;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A throttling algorithm.
  * <p/>
@@ -13,37 +15,38 @@ package io.flutter.analytics;
  * the operation is performed. If not the operation is skipped. This algorithm lets operations
  * be peformed in bursts without throttling, but holds the overall average rate of operations to 1
  * per second.
+ * <p/>
+ * Thread-safe without locking: the bucket is stored as the time when it was (or will be) empty,
+ * so that each drop is taken with a single compare-and-set.
  */
 public class ThrottlingBucket {
+  private static final long MILLIS_PER_DROP = 1000L;
+
   private final int startingCount;
-  private int drops;
-  private long lastReplenish;
+
+  /**
+   * The time when the bucket would have been empty, given the drops it holds now.
+   */
+  private final AtomicLong emptyAt;
 
   public ThrottlingBucket(final int startingCount) {
     this.startingCount = startingCount;
-    this.drops = startingCount;
-    this.lastReplenish = System.currentTimeMillis();
+    this.emptyAt = new AtomicLong(System.currentTimeMillis() - startingCount * MILLIS_PER_DROP);
   }
 
   public boolean removeDrop() {
-    checkReplenish();
-
-    if (drops <= 0) {
-      return false;
-    }
-    else {
-      drops--;
-      return true;
-    }
-  }
-
-  private void checkReplenish() {
     final long now = System.currentTimeMillis();
+    while (true) {
+      final long current = emptyAt.get();
 
-    if (lastReplenish + 1000L >= now) {
-      final int inc = ((int)(now - lastReplenish)) / 1000;
-      drops = Math.min(drops + inc, startingCount);
-      lastReplenish += (1000L * inc);
+      // The bucket never holds more than it started with.
+      final long start = Math.max(current, now - startingCount * MILLIS_PER_DROP);
+      if (start + MILLIS_PER_DROP > now) {
+        return false;
+      }
+      if (emptyAt.compareAndSet(current, start + MILLIS_PER_DROP)) {
+        return true;
+      }
     }
   }
 }
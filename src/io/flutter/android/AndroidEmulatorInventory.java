@@ -0,0 +1,276 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.android;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.EnvironmentUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import io.flutter.utils.FileWatch;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * The Android emulators (AVDs) that can be started, as last seen.
+ * <p>
+ * Lookups never block. The AVDs are read in the background from the AVD home directory (usually ~/.android/avd),
+ * which is watched for changes. Only when that directory doesn't exist is 'emulator -list-avds' run instead.
+ * Subscribers are notified whenever the list changes, including after the first read.
+ */
+public class AndroidEmulatorInventory {
+  private static final Logger LOG = Logger.getInstance(AndroidEmulatorInventory.class);
+
+  private static final AndroidEmulatorInventory instance = new AndroidEmulatorInventory();
+
+  /**
+   * The AVD names last read for each Android SDK, by home path.
+   */
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * The Android SDK home paths with a read in progress.
+   */
+  private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+  private final Set<Runnable> listeners = new CopyOnWriteArraySet<>();
+
+  /**
+   * The AVD home directory being watched, or null if not watching yet.
+   * <p>
+   * Access should be synchronized on this object.
+   */
+  @Nullable private String watchedPath;
+  @Nullable private FileWatch watch;
+
+  private AndroidEmulatorInventory() {
+  }
+
+  @NotNull
+  public static AndroidEmulatorInventory getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the emulators for the given Android SDK, sorted by name.
+   * <p>
+   * Returns an empty list if they haven't been read yet; subscribers will be notified when they are.
+   */
+  @NotNull
+  public List<AndroidEmulator> getEmulators(@NotNull AndroidSdk sdk) {
+    final Entry entry = entries.get(sdk.getHome().getPath());
+    if (entry == null) {
+      scheduleRefresh(sdk);
+      return new ArrayList<>();
+    }
+
+    final List<AndroidEmulator> result = new ArrayList<>();
+    for (String name : entry.names) {
+      result.add(new AndroidEmulator(sdk, name));
+    }
+    return result;
+  }
+
+  /**
+   * Subscribes to changes in the list of emulators.
+   * <p>
+   * The callback runs on a background thread.
+   */
+  public void subscribe(@NotNull Runnable callback) {
+    listeners.add(callback);
+  }
+
+  public void unsubscribe(@NotNull Runnable callback) {
+    listeners.remove(callback);
+  }
+
+  private void scheduleRefresh(@NotNull AndroidSdk sdk) {
+    if (refreshing.add(sdk.getHome().getPath())) {
+      AppExecutorUtil.getAppExecutorService().submit(() -> refresh(sdk));
+    }
+  }
+
+  private void refreshAll() {
+    for (Entry entry : entries.values()) {
+      scheduleRefresh(entry.sdk);
+    }
+  }
+
+  private void refresh(@NotNull AndroidSdk sdk) {
+    final String key = sdk.getHome().getPath();
+    try {
+      final File avdHome = getAvdHome();
+      watch(avdHome);
+
+      List<String> names = readAvdNames(avdHome);
+      if (names == null) {
+        // The AVDs aren't where we expected; ask the emulator tool.
+        names = sdk.listAvds();
+        names.sort(String::compareToIgnoreCase);
+      }
+
+      final Entry old = entries.put(key, new Entry(sdk, ImmutableList.copyOf(names)));
+      if (old == null || !old.names.equals(names)) {
+        fireChanged();
+      }
+    }
+    catch (Exception e) {
+      LOG.warn("Error listing android emulators", e);
+    }
+    finally {
+      refreshing.remove(key);
+    }
+  }
+
+  /**
+   * Starts watching the AVD home directory and the .ini files and .avd directories inside it.
+   */
+  private synchronized void watch(@NotNull File avdHome) {
+    final String path = avdHome.getPath();
+    if (Objects.equals(path, watchedPath)) {
+      return;
+    }
+
+    // The watch is relative to the nearest directory that exists, so that we see the AVD home being created.
+    File base = avdHome.getParentFile();
+    while (base != null && !base.isDirectory()) {
+      base = base.getParentFile();
+    }
+    if (base == null) return;
+    final VirtualFile baseFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(base);
+    if (baseFile == null) return;
+    final String relativePath = FileUtil.getRelativePath(base, avdHome);
+    if (relativePath == null) return;
+
+    if (watch != null) {
+      watch.unsubscribe();
+    }
+    watch = FileWatch.subscribeToChildren(baseFile, FileUtil.toSystemIndependentName(relativePath), this::refreshAll);
+    watchedPath = path;
+
+    // Changes made outside the IDE are only reported for directories that are watched and loaded.
+    LocalFileSystem.getInstance().addRootToWatch(FileUtil.toSystemIndependentName(path), false);
+    final VirtualFile dir = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(avdHome);
+    if (dir != null) {
+      dir.getChildren();
+    }
+  }
+
+  private void fireChanged() {
+    for (Runnable listener : listeners) {
+      try {
+        listener.run();
+      }
+      catch (Exception e) {
+        LOG.error("Uncaught exception in emulator listener", e);
+      }
+    }
+  }
+
+  /**
+   * Returns where the Android tools keep AVD definitions.
+   */
+  @NotNull
+  private static File getAvdHome() {
+    final String avdHome = EnvironmentUtil.getValue("ANDROID_AVD_HOME");
+    if (avdHome != null && !avdHome.isEmpty()) {
+      return new File(avdHome);
+    }
+    String androidUserHome = EnvironmentUtil.getValue("ANDROID_SDK_HOME");
+    if (androidUserHome == null || androidUserHome.isEmpty()) {
+      androidUserHome = System.getProperty("user.home");
+    }
+    return new File(new File(androidUserHome, ".android"), "avd");
+  }
+
+  /**
+   * Returns the names of the AVDs defined in an AVD home directory, sorted, or null if the directory doesn't exist.
+   * <p>
+   * Each AVD has a '[name].ini' file whose 'path' (or 'path.rel') entry points to its '[name].avd' directory.
+   * Like 'emulator -list-avds', AVDs whose directory is missing are left out.
+   */
+  @VisibleForTesting
+  @Nullable
+  static List<String> readAvdNames(@NotNull File avdHome) {
+    final File[] files = avdHome.listFiles();
+    if (files == null) {
+      return null;
+    }
+
+    final List<String> names = new ArrayList<>();
+    for (File file : files) {
+      final String fileName = file.getName();
+      if (!fileName.endsWith(".ini") || !file.isFile()) continue;
+
+      final String name = fileName.substring(0, fileName.length() - ".ini".length());
+      if (name.isEmpty()) continue;
+
+      final File avdDir = findAvdDir(avdHome, file, name);
+      if (avdDir != null) {
+        names.add(name);
+      }
+    }
+    names.sort(String::compareToIgnoreCase);
+    return names;
+  }
+
+  @Nullable
+  private static File findAvdDir(@NotNull File avdHome, @NotNull File iniFile, @NotNull String name) {
+    final List<File> candidates = new ArrayList<>();
+    try {
+      for (String line : Files.readAllLines(iniFile.toPath(), StandardCharsets.UTF_8)) {
+        final int equals = line.indexOf('=');
+        if (equals < 0) continue;
+        final String key = line.substring(0, equals).trim();
+        final String value = line.substring(equals + 1).trim();
+        if (value.isEmpty()) continue;
+
+        if (key.equals("path")) {
+          candidates.add(new File(value));
+        }
+        else if (key.equals("path.rel") && avdHome.getParentFile() != null) {
+          candidates.add(new File(avdHome.getParentFile(), value));
+        }
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Unable to read " + iniFile, e);
+    }
+    candidates.add(new File(avdHome, name + ".avd"));
+
+    for (File candidate : candidates) {
+      if (candidate.isDirectory()) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private static class Entry {
+    @NotNull final AndroidSdk sdk;
+    @NotNull final ImmutableList<String> names;
+
+    Entry(@NotNull AndroidSdk sdk, @NotNull ImmutableList<String> names) {
+      this.sdk = sdk;
+      this.names = names;
+    }
+  }
+}
@@ -21,7 +21,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -64,12 +63,27 @@ public class AndroidSdk {
     return home.findFileByRelativePath("tools/" + (SystemInfo.isWindows ? "emulator.exe" : "emulator"));
   }
 
+  /**
+   * Returns the emulators for this SDK, as last seen by {@link AndroidEmulatorInventory}.
+   * <p>
+   * Doesn't block; the list may be empty until the AVDs have been read.
+   */
   @NotNull
   public List<AndroidEmulator> getEmulators() {
+    return AndroidEmulatorInventory.getInstance().getEmulators(this);
+  }
+
+  /**
+   * Returns the names of the AVDs reported by 'emulator -list-avds'.
+   * <p>
+   * Blocks while the emulator tool runs, so this shouldn't be called on the UI thread.
+   */
+  @NotNull
+  List<String> listAvds() {
     // Execute $ANDROID_HOME/tools/emulator -list-avds and parse the results.
     final VirtualFile emulator = getEmulatorToolExecutable();
     if (emulator == null) {
-      return Collections.emptyList();
+      return new ArrayList<>();
     }
 
     final String emulatorPath = emulator.getCanonicalPath();
@@ -96,30 +110,30 @@ public class AndroidSdk {
 
       // We wait a maximum of 2000ms.
       if (!process.waitFor(2000)) {
-        return Collections.emptyList();
+        return new ArrayList<>();
       }
 
       final Integer exitCode = process.getExitCode();
       if (exitCode == null || process.getExitCode() != 0) {
-        return Collections.emptyList();
+        return new ArrayList<>();
       }
 
       // 'emulator -list-avds' results are in the form "foo\nbar\nbaz\n".
-      final List<AndroidEmulator> emulators = new ArrayList<>();
+      final List<String> names = new ArrayList<>();
 
       for (String str : stringBuilder.toString().split("\n")) {
         str = str.trim();
         if (str.isEmpty()) {
           continue;
         }
-        emulators.add(new AndroidEmulator(this, str));
+        names.add(str);
       }
 
-      return emulators;
+      return names;
     }
     catch (ExecutionException | RuntimeException e) {
       LOG.warn("Error listing android emulators", e);
-      return Collections.emptyList();
+      return new ArrayList<>();
     }
   }
 }
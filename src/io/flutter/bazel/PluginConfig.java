@@ -28,12 +28,25 @@ import java.util.regex.PatternSyntaxException;
  * An in-memory snapshot of the flutter.json file from a Bazel workspace.
  */
 class PluginConfig {
+  /**
+   * Matches a backreference, which would refer to the wrong group after patterns are combined.
+   */
+  private static final Pattern BACKREFERENCE = Pattern.compile("\\\\([1-9]|k<)");
+
   private final @NotNull Fields fields;
   private final @Nullable List<Pattern> directoryPatterns;
 
+  /**
+   * All the directory patterns as a single alternation, so that a path is scanned once.
+   * <p>
+   * Null if unconfigured or if some pattern can't be combined.
+   */
+  private final @Nullable Pattern combinedPattern;
+
   private PluginConfig(@NotNull Fields fields, @Nullable List<Pattern> patterns) {
     this.fields = fields;
     this.directoryPatterns = patterns;
+    this.combinedPattern = combinePatterns(patterns);
   }
 
   /**
@@ -47,6 +60,10 @@ class PluginConfig {
       return path.contains("flutter");
     }
 
+    if (combinedPattern != null) {
+      return combinedPattern.matcher(path).find();
+    }
+
     for (Pattern p : directoryPatterns) {
       if (p.matcher(path).find()) return true;
     }
@@ -115,6 +132,25 @@ class PluginConfig {
     return result.build();
   }
 
+  @Nullable
+  private static Pattern combinePatterns(@Nullable List<Pattern> patterns) {
+    if (patterns == null || patterns.isEmpty()) return null;
+    if (patterns.size() == 1) return patterns.get(0);
+
+    final StringBuilder combined = new StringBuilder();
+    for (Pattern p : patterns) {
+      if (BACKREFERENCE.matcher(p.pattern()).find()) return null;
+      if (combined.length() > 0) combined.append('|');
+      combined.append("(?:").append(p.pattern()).append(')');
+    }
+    try {
+      return Pattern.compile(combined.toString());
+    }
+    catch (PatternSyntaxException e) {
+      return null;
+    }
+  }
+
   /**
    * The JSON fields in a PluginConfig, as loaded from disk.
    */
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.bazel;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.VirtualFile;
+import io.flutter.utils.FileWatch;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Holds the loaded Bazel workspaces for all open projects, keyed by workspace root.
+ * <p>
+ * Several projects opened on the same monorepo share one loaded {@link Workspace}
+ * (and its parsed flutter.json) and one {@link FileWatch} on its config files.
+ * When the files change, the workspace is reloaded once and every subscribed project
+ * is notified.
+ */
+class SharedWorkspaceCache {
+  private static final SharedWorkspaceCache instance = new SharedWorkspaceCache();
+
+  /**
+   * The entry for each workspace root, by path.
+   * <p>
+   * Access should be synchronized on the field.
+   */
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  @VisibleForTesting
+  SharedWorkspaceCache() {
+  }
+
+  @NotNull
+  static SharedWorkspaceCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the workspace at the given root, loading it only if it isn't cached or has changed.
+   * <p>
+   * Workspaces are only cached while some project is subscribed to them, since that's what keeps
+   * the files watched. Otherwise the workspace is loaded without caching it.
+   */
+  @NotNull
+  Workspace get(@NotNull VirtualFile root) {
+    final Entry entry;
+    synchronized (entries) {
+      entry = findEntry(root);
+    }
+    return entry == null ? Workspace.load(root) : entry.get();
+  }
+
+  /**
+   * Calls the callback whenever the workspace at the given root needs to be reloaded.
+   * <p>
+   * The workspace the subscriber loaded from {@link #get} is kept if the root isn't cached yet,
+   * so that the next project to open it doesn't load it again.
+   *
+   * @return a Runnable that unsubscribes.
+   */
+  @NotNull
+  Runnable subscribe(@NotNull VirtualFile root, @NotNull Workspace loaded, @NotNull Runnable callback) {
+    final Entry entry;
+    synchronized (entries) {
+      Entry existing = findEntry(root);
+      if (existing == null) {
+        existing = new Entry(root);
+        existing.setLoaded(loaded);
+        entries.put(root.getPath(), existing);
+      }
+      entry = existing;
+      // Added under the lock so that a concurrent unsubscribe can't drop the entry in between.
+      entry.listeners.add(callback);
+    }
+    return () -> unsubscribe(entry, callback);
+  }
+
+  private void unsubscribe(@NotNull Entry entry, @NotNull Runnable callback) {
+    synchronized (entries) {
+      if (!entry.listeners.remove(callback) || !entry.listeners.isEmpty()) return;
+      // No project uses this workspace anymore.
+      if (entries.get(entry.root.getPath()) == entry) {
+        entries.remove(entry.root.getPath());
+      }
+    }
+    entry.watch.unsubscribe();
+  }
+
+  /**
+   * Returns the entry for a root, or null if there isn't one.
+   * <p>
+   * Should be called while synchronized on {@link #entries}.
+   */
+  @Nullable
+  private Entry findEntry(@NotNull VirtualFile root) {
+    final Entry entry = entries.get(root.getPath());
+    return entry == null || !entry.root.equals(root) ? null : entry;
+  }
+
+  private static class Entry {
+    @NotNull final VirtualFile root;
+    @NotNull final FileWatch watch;
+    final Set<Runnable> listeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * The loaded workspace, or null if it needs to be (re)loaded.
+     * <p>
+     * Access should be synchronized on this entry.
+     */
+    @Nullable private Workspace workspace;
+
+    Entry(@NotNull VirtualFile root) {
+      this.root = root;
+      this.watch = FileWatch.subscribe(root, Workspace.DEPENDENCIES, this::changed);
+    }
+
+    synchronized void setLoaded(@NotNull Workspace loaded) {
+      if (workspace == null) {
+        workspace = loaded;
+      }
+    }
+
+    @NotNull
+    synchronized Workspace get() {
+      if (workspace == null) {
+        workspace = Workspace.load(root);
+      }
+      return workspace;
+    }
+
+    private void changed() {
+      synchronized (this) {
+        workspace = null;
+      }
+      for (Runnable listener : listeners) {
+        try {
+          listener.run();
+        }
+        catch (Exception e) {
+          LOG.error("Uncaught exception in workspace listener", e);
+        }
+      }
+    }
+  }
+
+  private static final Logger LOG = Logger.getInstance(SharedWorkspaceCache.class);
+}
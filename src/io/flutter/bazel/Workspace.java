@@ -5,7 +5,6 @@
  */
 package io.flutter.bazel;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableSet;
 import com.intellij.openapi.application.ApplicationManager;
@@ -16,6 +15,7 @@ import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -31,11 +31,21 @@ import java.util.*;
 public class Workspace {
   private static final String PLUGIN_CONFIG_PATH = "dart/config/intellij-plugins/flutter.json";
 
+  /**
+   * Relative paths to the files that a workspace depends on.
+   */
+  static final ImmutableSet<String> DEPENDENCIES = ImmutableSet.of("WORKSPACE", PLUGIN_CONFIG_PATH);
+
   @NotNull private final VirtualFile root;
   @Nullable private final PluginConfig config;
   @Nullable private final String daemonScript;
   @Nullable private final String doctorScript;
 
+  /**
+   * Whether each module uses flutter, as of the given project root modification count.
+   */
+  private final Map<Module, Classification> classifications = ContainerUtil.createConcurrentWeakMap();
+
   private Workspace(@NotNull VirtualFile root,
                     @Nullable PluginConfig config,
                     @Nullable String daemonScript,
@@ -54,10 +64,23 @@ public class Workspace {
    * using the 'directoryPatterns' variable in flutter.json.
    */
   public boolean usesFlutter(@NotNull final Module module) {
+    // Content roots can only change along with the project's roots.
+    // (A config reload creates a new Workspace.)
+    final long stamp = ProjectRootManager.getInstance(module.getProject()).getModificationCount();
+    final Classification cached = classifications.get(module);
+    if (cached != null && cached.rootsModificationCount == stamp) {
+      return cached.usesFlutter;
+    }
+
+    boolean usesFlutter = false;
     for (String path : getContentPaths(module)) {
-      if (withinFlutterDirectory(path)) return true;
+      if (withinFlutterDirectory(path)) {
+        usesFlutter = true;
+        break;
+      }
     }
-    return false;
+    classifications.put(module, new Classification(stamp, usesFlutter));
+    return usesFlutter;
   }
 
   /**
@@ -86,19 +109,15 @@ public class Workspace {
    */
   @Nullable
   public String getRelativePath(@Nullable VirtualFile file) {
-    final List<String> path = new ArrayList<>();
-    while (file != null) {
-      if (file.equals(root)) {
-        if (path.isEmpty()) {
-          return null; // This is the root.
-        }
-        Collections.reverse(path);
-        return Joiner.on('/').join(path);
-      }
-      path.add(file.getName());
-      file = file.getParent();
+    if (file == null) return null;
+
+    final String rootPath = root.getPath();
+    final String prefix = rootPath.endsWith("/") ? rootPath : rootPath + "/";
+    final String path = file.getPath();
+    if (path.length() <= prefix.length() || !path.startsWith(prefix)) {
+      return null; // The root itself, or outside the workspace.
     }
-    return null;
+    return path.substring(prefix.length());
   }
 
   /**
@@ -160,7 +179,7 @@ public class Workspace {
    */
   @NotNull
   public Set<String> getDependencies() {
-    return ImmutableSet.of("WORKSPACE", PLUGIN_CONFIG_PATH);
+    return DEPENDENCIES;
   }
 
   @Override
@@ -186,10 +205,25 @@ public class Workspace {
    */
   @Nullable
   public static Workspace load(@NotNull Project project) {
+    final VirtualFile root = findRoot(project);
+    if (root == null) return null;
+    return load(root);
+  }
+
+  /**
+   * Returns the directory containing the Bazel WORKSPACE file for a Project, or null if not using Bazel.
+   */
+  @Nullable
+  static VirtualFile findRoot(@NotNull Project project) {
     final VirtualFile workspaceFile = findWorkspaceFile(project);
-    if (workspaceFile == null) return null;
+    return workspaceFile == null ? null : workspaceFile.getParent();
+  }
 
-    final VirtualFile root = workspaceFile.getParent();
+  /**
+   * Loads the Bazel workspace with the given root directory, including flutter.json if present.
+   */
+  @NotNull
+  static Workspace load(@NotNull VirtualFile root) {
     final String readonlyPath = "../READONLY/" + root.getName();
     final VirtualFile readonlyRoot = root.findFileByRelativePath(readonlyPath);
     VirtualFile configFile = root.findFileByRelativePath(PLUGIN_CONFIG_PATH);
@@ -275,5 +309,15 @@ public class Workspace {
     return null;
   }
 
+  private static class Classification {
+    final long rootsModificationCount;
+    final boolean usesFlutter;
+
+    Classification(long rootsModificationCount, boolean usesFlutter) {
+      this.rootsModificationCount = rootsModificationCount;
+      this.usesFlutter = usesFlutter;
+    }
+  }
+
   private static final Logger LOG = Logger.getInstance(Workspace.class);
 }
@@ -8,8 +8,9 @@ package io.flutter.bazel;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFile;
 import io.flutter.project.ProjectWatch;
-import io.flutter.utils.FileWatch;
 import io.flutter.utils.Refreshable;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -28,24 +29,30 @@ public class WorkspaceCache {
   private WorkspaceCache(@NotNull final Project project) {
     this.project = project;
 
-    cache = new Refreshable<>();
+    cache = new Refreshable<>("WorkspaceCache", null);
     cache.setDisposeParent(project);
+    // A bulk root change or branch switch sends many events; reload once.
+    cache.setDebounceMillis(100);
 
     // Trigger a reload when file dependencies change.
-    final AtomicReference<FileWatch> fileWatch = new AtomicReference<>();
+    // (The file watch is shared with other projects using the same workspace.)
+    final AtomicReference<Runnable> unwatch = new AtomicReference<>();
     cache.subscribe(() -> {
       if (project.isDisposed()) return;
 
       final Workspace next = cache.getNow();
 
-      FileWatch nextWatch = null;
+      Runnable nextUnwatch = null;
       if (next != null) {
-        nextWatch = FileWatch.subscribe(next.getRoot(), next.getDependencies(), this::refreshAsync);
-        nextWatch.setDisposeParent(project);
+        nextUnwatch = SharedWorkspaceCache.getInstance().subscribe(next.getRoot(), next, this::refreshAsync);
       }
 
-      final FileWatch prevWatch = fileWatch.getAndSet(nextWatch);
-      if (prevWatch != null) prevWatch.unsubscribe();
+      final Runnable prevUnwatch = unwatch.getAndSet(nextUnwatch);
+      if (prevUnwatch != null) prevUnwatch.run();
+    });
+    Disposer.register(project, () -> {
+      final Runnable prevUnwatch = unwatch.getAndSet(null);
+      if (prevUnwatch != null) prevUnwatch.run();
     });
 
     ProjectWatch.subscribe(project, this::refreshAsync); // Detect module root changes.
@@ -102,7 +109,10 @@ public class WorkspaceCache {
    * If a refresh is already in progress, schedules another one.
    */
   private void refreshAsync() {
-    cache.refresh(() -> Workspace.load(project));
+    cache.refresh(() -> {
+      final VirtualFile root = Workspace.findRoot(project);
+      return root == null ? null : SharedWorkspaceCache.getInstance().get(root);
+    });
   }
 
   private static final Logger LOG = Logger.getInstance(WorkspaceCache.class);
@@ -68,12 +68,7 @@ class FlutterConsole {
    * Starts displaying the output of a different process.
    */
   void watchProcess(@NotNull OSProcessHandler process) {
-    if (cancelProcessSubscription != null) {
-      cancelProcessSubscription.run();
-      cancelProcessSubscription = null;
-    }
-
-    view.clear();
+    reset();
     view.attachToProcess(process);
 
     // Print exit code.
@@ -89,6 +84,18 @@ class FlutterConsole {
     cancelProcessSubscription = () -> process.removeProcessListener(listener);
   }
 
+  /**
+   * Stops displaying output from the previous process and clears the console.
+   */
+  void reset() {
+    if (cancelProcessSubscription != null) {
+      cancelProcessSubscription.run();
+      cancelProcessSubscription = null;
+    }
+
+    view.clear();
+  }
+
   /**
    * Moves this console to the end of the tool window's tab list, selects it, and shows the tool window.
    */
@@ -5,6 +5,7 @@
  */
 package io.flutter.console;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.intellij.execution.ExecutionException;
 import com.intellij.execution.configurations.GeneralCommandLine;
 import com.intellij.execution.filters.Filter;
@@ -13,19 +14,38 @@ import com.intellij.execution.filters.OpenFileHyperlinkInfo;
 import com.intellij.execution.process.OSProcessHandler;
 import com.intellij.execution.process.ProcessAdapter;
 import com.intellij.execution.process.ProcessEvent;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.ui.Messages;
-import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
 import io.flutter.FlutterMessages;
 import io.flutter.FlutterUtils;
 import io.flutter.sdk.FlutterSdk;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Links console lines that name a file in the module (such as "Launching lib/main.dart") to that file,
+ * and "flutter doctor" to running it.
+ * <p>
+ * This runs on every line of output, so most lines are rejected by looking at their characters. Candidate
+ * paths are looked up through an index of the names at the top of each content root, and the results are
+ * cached until the project's roots change or files are added, removed, or renamed under the module's content roots.
+ */
 public class FlutterConsoleFilter implements Filter {
 
   private static class OpenExternalFileHyperlink implements HyperlinkInfo {
@@ -61,10 +81,40 @@ public class FlutterConsoleFilter implements Filter {
 
   private static final Logger LOG = Logger.getInstance(FlutterConsoleFilter.class);
 
+  /**
+   * Longer lines are never treated as paths.
+   */
+  private static final int MAX_PATH_LENGTH = 1024;
+
+  private static final int MAX_CACHED_LOOKUPS = 500;
+
   private final @NotNull Module module;
 
+  /**
+   * The content roots by the names of their children, or null if they need to be indexed again.
+   * <p>
+   * Access should be synchronized on this filter, like the fields below.
+   */
+  private @Nullable Map<String, List<VirtualFile>> rootsByChildName;
+
+  /**
+   * The most recent lookups, including those that found nothing.
+   */
+  private final Map<String, Lookup> lookups = new LinkedHashMap<String, Lookup>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Lookup> eldest) {
+      return size() > MAX_CACHED_LOOKUPS;
+    }
+  };
+
+  private long rootsModificationCount = -1;
+  private long contentModificationCount = -1;
+
+  @NotNull private final ContentRootChanges contentRootChanges;
+
   public FlutterConsoleFilter(@NotNull Module module) {
     this.module = module;
+    this.contentRootChanges = ContentRootChanges.forModule(module);
   }
 
   @Nullable
@@ -96,22 +146,180 @@ public class FlutterConsoleFilter implements Filter {
       }
     }
 
-    final VirtualFile[] roots = ModuleRootManager.getInstance(module).getContentRoots();
+    if (!isPathCandidate(pathPart)) {
+      return null;
+    }
+
+    final VirtualFile file = findInContentRoots(pathPart);
+    if (file == null) {
+      return null;
+    }
+
+    final int lineStart = entireLength - line.length() + line.indexOf(pathPart);
+    final HyperlinkInfo hyperlinkInfo =
+      openAsExternalFile ? new OpenExternalFileHyperlink(file) : new OpenFileHyperlinkInfo(module.getProject(), file, 0, 0);
+    return new Result(lineStart, lineStart + pathPart.length(), hyperlinkInfo);
+  }
+
+  /**
+   * Returns false for text that can't be a relative path to a file in the project.
+   */
+  @VisibleForTesting
+  static boolean isPathCandidate(@NotNull String text) {
+    final int length = text.length();
+    if (length == 0 || length > MAX_PATH_LENGTH) {
+      return false;
+    }
+
+    final char first = text.charAt(0);
+    if (first == '/' || first == '\\' || Character.isWhitespace(first)) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      final char c = text.charAt(i);
+      if (c < ' ' || c == 0x7f) {
+        return false;
+      }
+      switch (c) {
+        case '<':
+        case '>':
+        case ':':
+        case '"':
+        case '|':
+        case '?':
+        case '*':
+          return false;
+        default:
+          break;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the file at the given path relative to one of the module's content roots, or null if there isn't one.
+   */
+  @Nullable
+  private synchronized VirtualFile findInContentRoots(@NotNull String pathPart) {
+    final long rootsCount = ProjectRootManager.getInstance(module.getProject()).getModificationCount();
+    final long contentCount = contentRootChanges.getModificationCount();
+    if (rootsCount != rootsModificationCount || contentCount != contentModificationCount) {
+      rootsByChildName = null;
+      lookups.clear();
+      rootsModificationCount = rootsCount;
+      contentModificationCount = contentCount;
+    }
+
+    final Lookup cached = lookups.get(pathPart);
+    if (cached != null && (cached.file == null || cached.file.isValid())) {
+      return cached.file;
+    }
+
+    if (rootsByChildName == null) {
+      rootsByChildName = indexContentRoots(ModuleRootManager.getInstance(module).getContentRoots());
+    }
+
+    String relativePath = pathPart.replace('\\', '/');
+    while (relativePath.startsWith("./")) {
+      relativePath = relativePath.substring(2);
+    }
+    final int slash = relativePath.indexOf('/');
+    final String firstName = slash < 0 ? relativePath : relativePath.substring(0, slash);
+
+    VirtualFile found = null;
+    for (VirtualFile root : rootsByChildName.getOrDefault(firstName, Collections.emptyList())) {
+      final VirtualFile file = root.findFileByRelativePath(relativePath);
+      if (file != null && file.exists()) {
+        found = file;
+        break;
+      }
+    }
+    lookups.put(pathPart, new Lookup(found));
+    return found;
+  }
+
+  @NotNull
+  private static Map<String, List<VirtualFile>> indexContentRoots(@NotNull VirtualFile[] roots) {
+    final Map<String, List<VirtualFile>> index = new HashMap<>();
     for (VirtualFile root : roots) {
-      final String baseDirPath = root.getPath();
-      final String path = baseDirPath + "/" + pathPart;
+      if (!root.isValid()) continue;
+      for (VirtualFile child : root.getChildren()) {
+        index.computeIfAbsent(child.getName(), (name) -> new ArrayList<>()).add(root);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Counts the VFS events that add, remove, or move files under a module's content roots.
+   * <p>
+   * One per module, shared by all of its consoles, and unsubscribed when the module is disposed.
+   */
+  private static class ContentRootChanges implements BulkFileListener {
+    private static final Key<ContentRootChanges> KEY = Key.create("io.flutter.console.ContentRootChanges");
+
+    @NotNull private final Module module;
+    private final AtomicLong modificationCount = new AtomicLong();
+
+    private ContentRootChanges(@NotNull Module module) {
+      this.module = module;
+    }
+
+    @NotNull
+    static ContentRootChanges forModule(@NotNull Module module) {
+      synchronized (KEY) {
+        ContentRootChanges changes = module.getUserData(KEY);
+        if (changes == null) {
+          changes = new ContentRootChanges(module);
+          module.putUserData(KEY, changes);
+          ApplicationManager.getApplication().getMessageBus().connect(module).subscribe(VirtualFileManager.VFS_CHANGES, changes);
+        }
+        return changes;
+      }
+    }
 
-      final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
-      if (!pathPart.isEmpty() && file != null && file.exists()) {
-        final int lineStart = entireLength - line.length() + line.indexOf(pathPart);
+    long getModificationCount() {
+      return modificationCount.get();
+    }
+
+    @Override
+    public void before(@NotNull List<? extends VFileEvent> events) {
+    }
+
+    @Override
+    public void after(@NotNull List<? extends VFileEvent> events) {
+      if (module.isDisposed()) return;
+
+      final VirtualFile[] roots = ModuleRootManager.getInstance(module).getContentRoots();
+      for (VFileEvent event : events) {
+        // Edits don't change which paths exist.
+        if (event instanceof VFileContentChangeEvent) continue;
+
+        if (isUnder(roots, event.getPath()) ||
+            (event instanceof VFileMoveEvent && isUnder(roots, ((VFileMoveEvent)event).getNewParent().getPath()))) {
+          modificationCount.incrementAndGet();
+          return;
+        }
+      }
+    }
 
-        final HyperlinkInfo hyperlinkInfo =
-          openAsExternalFile ? new OpenExternalFileHyperlink(file) : new OpenFileHyperlinkInfo(module.getProject(), file, 0, 0);
-        return new Result(lineStart, lineStart + pathPart.length(), hyperlinkInfo);
+    private static boolean isUnder(@NotNull VirtualFile[] roots, @NotNull String path) {
+      for (VirtualFile root : roots) {
+        if (FileUtil.isAncestor(root.getPath(), path, false)) {
+          return true;
+        }
       }
+      return false;
     }
+  }
+
+  private static class Lookup {
+    final @Nullable VirtualFile file;
 
-    return null;
+    Lookup(@Nullable VirtualFile file) {
+      this.file = file;
+    }
   }
 
   private Result getFlutterDoctorResult(final String line, final int lineStart) {
@@ -130,9 +338,9 @@ public class FlutterConsoleFilter implements Filter {
         Messages.showErrorDialog(project, "Flutter SDK not found", "Error");
         return;
       }
-      if (sdk.flutterDoctor().startInConsole(project) == null) {
-        Messages.showErrorDialog(project, "Failed to start 'flutter doctor'", "Error");
-      }
+      // If another command is running, this is queued and the console appears later.
+      // (Failures to start are reported by FlutterCommand.)
+      sdk.flutterDoctor().startInConsole(project);
     }
   }
 }
@@ -5,15 +5,14 @@
  */
 package io.flutter.console;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.intellij.execution.ConsoleFolding;
-import com.intellij.openapi.util.text.StringUtil;
 import io.flutter.FlutterConstants;
 import io.flutter.sdk.FlutterSdkUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * Fold lines like
@@ -23,9 +22,6 @@ public class FlutterConsoleFolding extends ConsoleFolding {
   private static final String flutterMarker =
     FlutterConstants.INDEPENDENT_PATH_SEPARATOR + FlutterSdkUtil.flutterScriptName() + " --no-color ";
 
-  // CoreSimulatorBridge: Requesting launch of ... with options: {
-  private static final Pattern iosPattern = Pattern.compile("^\\w+: .* \\{$");
-
   //     [x86_64] libnetcore-856.20.4
   // 0   libsystem_network.dylib             0x0000000111918682 __nw_create_backtrace_string + 123
   // 1   libnetwork.dylib                    0x0000000111ab2932 nw_socket_add_input_handler + 3100
@@ -48,8 +44,17 @@ public class FlutterConsoleFolding extends ConsoleFolding {
   //     Within boot leeway: YES
   private static final String launchSequencePrefix = "CoreSimulatorBridge: Beginning launch sequence for bundle";
 
+  /**
+   * True while inside an iOS block whose lines (indented with tabs) should be folded.
+   */
   private boolean isFolding = false;
 
+  /**
+   * Classifies each line in one pass, without regular expressions or copying.
+   * <p>
+   * Lines containing a flutter command line are folded. A line that starts an iOS block is left
+   * visible, and the tab-indented lines after it are folded.
+   */
   @Override
   public boolean shouldFoldLine(@NotNull String line) {
     if (line.contains(flutterMarker)) {
@@ -57,45 +62,107 @@ public class FlutterConsoleFolding extends ConsoleFolding {
       return true;
     }
 
-    if (iosPattern.matcher(line).matches() || line.startsWith(iosCrashFormat1) || line.startsWith(launchSequencePrefix)) {
-      isFolding = true;
+    if (line.isEmpty()) {
+      isFolding = false;
       return false;
     }
 
-    if (line.equals(iosCrashFormat2)) {
-      isFolding = true;
-      return true;
+    final char first = line.charAt(0);
+    if (first == '\t') {
+      if (line.startsWith(iosCrashFormat1)) {
+        isFolding = true;
+        return false;
+      }
+      if (line.equals(iosCrashFormat2)) {
+        isFolding = true;
+        return true;
+      }
+      return isFolding;
     }
 
-    if (isFolding && line.startsWith(("\t"))) {
-      return true;
+    isFolding = isWordChar(first) && (startsIosBlock(line) || line.startsWith(launchSequencePrefix));
+    return false;
+  }
+
+  /**
+   * Returns true for lines like "CoreSimulatorBridge: Requesting launch of ... with options: {".
+   * <p>
+   * That is, a word, a colon and a space, then anything ending with " {".
+   */
+  @VisibleForTesting
+  static boolean startsIosBlock(@NotNull String line) {
+    final int length = line.length();
+    if (length < 5 || line.charAt(length - 1) != '{' || line.charAt(length - 2) != ' ') {
+      return false;
     }
-    else {
-      isFolding = false;
+
+    int i = 0;
+    while (i < length && isWordChar(line.charAt(i))) {
+      i++;
+    }
+    if (i == 0 || i + 1 >= length || line.charAt(i) != ':' || line.charAt(i + 1) != ' ') {
       return false;
     }
+
+    // Whatever is between ": " and " {" can't span lines.
+    final int end = length - 2;
+    if (i + 2 > end) {
+      return false;
+    }
+    for (int j = i + 2; j < end; j++) {
+      final char c = line.charAt(j);
+      if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWordChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
   }
 
+  /**
+   * Describes a folded region using only its first and last lines, so large regions cost no more than small ones.
+   */
   @Nullable
   @Override
   public String getPlaceholderText(@NotNull List<String> lines) {
-    final String fullText = StringUtil.join(lines, "\n");
-    final int index = fullText.indexOf(flutterMarker);
-    if (index == -1) {
-      final String trimmed = fullText.trim();
+    if (lines.isEmpty()) {
+      return " ...";
+    }
+    final String first = lines.get(0);
+    final String last = lines.get(lines.size() - 1);
 
-      if (trimmed.startsWith("(") && trimmed.endsWith(")")) {
-        return " ( ... )";
-      }
-      else if (lines.stream().anyMatch((s) -> s.endsWith("}"))) {
-        return " ... }";
-      }
-      else {
-        return " ...";
-      }
+    final String command = getFlutterCommand(first);
+    if (command != null) {
+      return command;
+    }
+    final String lastCommand = getFlutterCommand(last);
+    if (lastCommand != null) {
+      return lastCommand;
+    }
+
+    if (first.trim().startsWith("(") && last.trim().endsWith(")")) {
+      return " ( ... )";
+    }
+    else if (last.endsWith("}")) {
+      return " ... }";
     }
     else {
-      return "flutter " + fullText.substring(index + flutterMarker.length());
+      return " ...";
+    }
+  }
+
+  /**
+   * Returns "flutter" and the arguments, if the line contains a flutter command line.
+   */
+  @Nullable
+  private static String getFlutterCommand(@NotNull String line) {
+    final int index = line.indexOf(flutterMarker);
+    if (index == -1) {
+      return null;
     }
+    return "flutter " + line.substring(index + flutterMarker.length());
   }
 }
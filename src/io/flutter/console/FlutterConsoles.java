@@ -6,6 +6,7 @@
 package io.flutter.console;
 
 import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.ui.ConsoleView;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
@@ -15,6 +16,8 @@ import com.intellij.ui.content.MessageView;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.function.Consumer;
+
 /**
  * Methods that use the appropriate Flutter console.
  * <p>
@@ -51,6 +54,30 @@ public class FlutterConsoles {
     });
   }
 
+  /**
+   * Clears the appropriate console and shows it, then calls onReady with its view. (Asynchronous.)
+   * <p>
+   * Used for output that doesn't come from a single process, such as a command run in several directories.
+   *
+   * @param module if not null, show in this module's console.
+   */
+  public static void displayLater(@NotNull Project project, @Nullable Module module, @NotNull Consumer<ConsoleView> onReady) {
+    // Getting a MessageView has to happen on the UI thread.
+    ApplicationManager.getApplication().invokeLater(() -> {
+      final MessageView messageView = MessageView.SERVICE.getInstance(project);
+      messageView.runWhenInitialized(() -> {
+        FlutterConsole console = find(project, module);
+        if (console == null) {
+          console = FlutterConsole.create(project, module);
+          console.content.putUserData(FlutterConsoles.KEY, console);
+        }
+        console.reset();
+        console.bringToFront();
+        onReady.accept(console.view);
+      });
+    });
+  }
+
   @Nullable
   static FlutterConsole find(@NotNull Project project, @Nullable Module module) {
     for (Content content : MessageView.SERVICE.getInstance(project).getContentManager().getContents()) {
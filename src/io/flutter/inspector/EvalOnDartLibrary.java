@@ -5,7 +5,6 @@
  */
 package io.flutter.inspector;
 
-import com.google.common.collect.Iterables;
 import com.google.gson.JsonObject;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.diagnostic.Logger;
@@ -13,24 +12,30 @@ import com.intellij.util.Alarm;
 import com.intellij.util.ReflectionUtil;
 import com.jetbrains.lang.dart.ide.runner.server.vmService.IsolatesInfo;
 import io.flutter.run.FlutterDebugProcess;
+import io.flutter.vmService.VmServiceMetrics;
 import org.dartlang.vm.service.VmService;
 import org.dartlang.vm.service.consumer.Consumer;
 import org.dartlang.vm.service.consumer.EvaluateConsumer;
 import org.dartlang.vm.service.consumer.GetIsolateConsumer;
 import org.dartlang.vm.service.consumer.GetObjectConsumer;
 import org.dartlang.vm.service.element.*;
+import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Collection;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 
 /**
  * Invoke methods from a specified Dart library using the observatory protocol.
  */
 public class EvalOnDartLibrary implements Disposable {
-  private final IsolatesInfo.IsolateInfo isolateInfo;
+  /**
+   * The isolate where the library was found.
+   * <p>
+   * Set before {@link #libraryRef} completes.
+   */
+  private volatile String isolateId;
   private final VmService vmService;
   private final String libraryName;
   final CompletableFuture<LibraryRef> libraryRef;
@@ -40,17 +45,23 @@ public class EvalOnDartLibrary implements Disposable {
 
   public EvalOnDartLibrary(String libraryName, FlutterDebugProcess debugProcess, VmService vmService) {
     this.vmService = vmService;
-    final Collection<IsolatesInfo.IsolateInfo> isolates = debugProcess.getIsolateInfos();
-    assert (isolates.size() == 1);
-    isolateInfo = Iterables.get(isolates, 0);
     this.libraryName = libraryName;
     this.myRequestsScheduler = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
     libraryRef = new CompletableFuture<>();
-    initialize();
+
+    // Apps may run background isolates (for example, using compute()) alongside the main one.
+    // Try the main isolate first, since that's normally where the library is loaded.
+    final String mainIsolateId = debugProcess.getMainIsolateId();
+    final List<IsolatesInfo.IsolateInfo> isolates = new ArrayList<>(debugProcess.getIsolateInfos());
+    isolates.sort(Comparator.comparing((IsolatesInfo.IsolateInfo info) -> !info.getIsolateId().equals(mainIsolateId)));
+    findLibrary(isolates.iterator());
   }
 
+  /**
+   * Returns the id of the isolate the library was found in, or null if not found yet.
+   */
   public String getIsolateId() {
-    return isolateInfo.getIsolateId();
+    return isolateId;
   }
 
   public void dispose() {
@@ -80,12 +91,16 @@ public class EvalOnDartLibrary implements Disposable {
 
   public CompletableFuture<InstanceRef> eval(String expression, Map<String, String> scope) {
     final CompletableFuture<InstanceRef> future = new CompletableFuture<>();
+    // Time the whole evaluation, including the wait in the request queue.
+    final VmServiceMetrics metrics = VmServiceMetrics.getInstance();
+    final long start = metrics.start();
+    future.whenComplete((ref, error) -> metrics.record(VmServiceMetrics.Kind.REQUEST, "eval", isolateId, expression.length(), start));
     //noinspection CodeBlock2Expr
     myRequestsScheduler.addRequest(() -> {
       //noinspection CodeBlock2Expr
       libraryRef.thenAcceptAsync((LibraryRef ref) -> {
         evaluateHelper(
-          isolateInfo.getIsolateId(), ref.getId(), expression, scope,
+          isolateId, ref.getId(), expression, scope,
           new EvaluateConsumer() {
             @Override
             public void onError(RPCError error) {
@@ -120,7 +135,7 @@ public class EvalOnDartLibrary implements Disposable {
     //noinspection CodeBlock2Expr
     myRequestsScheduler.addRequest(() -> {
       vmService.getObject(
-        isolateInfo.getIsolateId(), instance.getId(), new GetObjectConsumer() {
+        isolateId, instance.getId(), new GetObjectConsumer() {
           @Override
           public void onError(RPCError error) {
             future.completeExceptionally(new RuntimeException(error.toString()));
@@ -162,28 +177,40 @@ public class EvalOnDartLibrary implements Disposable {
     return obj;
   }
 
-  private void initialize() {
-    vmService.getIsolate(isolateInfo.getIsolateId(), new GetIsolateConsumer() {
+  /**
+   * Looks for the library in each isolate in turn, stopping at the first one that has it.
+   */
+  private void findLibrary(@NotNull Iterator<IsolatesInfo.IsolateInfo> isolates) {
+    if (!isolates.hasNext()) {
+      libraryRef.completeExceptionally(new RuntimeException("Library " + libraryName + " not found."));
+      return;
+    }
+    final String candidateId = isolates.next().getIsolateId();
+
+    vmService.getIsolate(candidateId, new GetIsolateConsumer() {
 
       @Override
       public void received(Isolate response) {
         for (LibraryRef library : response.getLibraries()) {
           if (library.getUri().equals(libraryName)) {
+            isolateId = candidateId;
             libraryRef.complete(library);
             return;
           }
         }
-        libraryRef.completeExceptionally(new RuntimeException("Library " + libraryName + " not found."));
+        findLibrary(isolates);
       }
 
       @Override
       public void received(Sentinel response) {
-        libraryRef.completeExceptionally(new RuntimeException(response.toString()));
+        // The isolate exited; try the next one.
+        findLibrary(isolates);
       }
 
       @Override
       public void onError(RPCError error) {
-        libraryRef.completeExceptionally(new RuntimeException(error.toString()));
+        LOG.info("unable to get isolate " + candidateId + ": " + error);
+        findLibrary(isolates);
       }
     });
   }
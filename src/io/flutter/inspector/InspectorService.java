@@ -10,16 +10,17 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
-import com.jetbrains.lang.dart.ide.runner.server.vmService.VmServiceConsumers;
+import com.intellij.openapi.util.Disposer;
 import com.jetbrains.lang.dart.ide.runner.server.vmService.frame.DartVmServiceValue;
 import io.flutter.run.FlutterDebugProcess;
 import io.flutter.utils.VmServiceListenerAdapter;
+import io.flutter.vmService.VmServiceConnection;
 import org.dartlang.vm.service.VmService;
-import org.dartlang.vm.service.VmServiceListener;
 import org.dartlang.vm.service.element.Event;
 import org.dartlang.vm.service.element.EventKind;
 import org.dartlang.vm.service.element.Instance;
 import org.dartlang.vm.service.element.InstanceRef;
+import org.dartlang.vm.service.element.IsolateRef;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -41,16 +42,17 @@ public class InspectorService implements Disposable {
   private final FlutterDebugProcess debugProcess;
   private final VmService vmService;
   private final Set<InspectorServiceClient> clients;
+  private final Disposable subscription;
   private EvalOnDartLibrary inspectorLibrary;
 
-  public InspectorService(FlutterDebugProcess debugProcess, VmService vmService) {
+  public InspectorService(FlutterDebugProcess debugProcess, VmServiceConnection connection) {
     clients = new HashSet<>();
     groupName = "intellij_inspector_" + nextGroupId;
     nextGroupId++;
-    this.vmService = vmService;
+    this.vmService = connection.getVmService();
     this.debugProcess = debugProcess;
 
-    vmService.addVmServiceListener(new VmServiceListenerAdapter() {
+    subscription = connection.listen(new VmServiceListenerAdapter() {
       @Override
       public void received(String streamId, Event event) {
         onVmServiceReceived(streamId, event);
@@ -60,9 +62,7 @@ public class InspectorService implements Disposable {
       public void connectionClosed() {
         // TODO(jacobr): dispose?
       }
-    });
-
-    vmService.streamListen("Extension", VmServiceConsumers.EMPTY_SUCCESS_CONSUMER);
+    }, VmService.ISOLATE_STREAM_ID, VmService.DEBUG_STREAM_ID, VmService.EXTENSION_STREAM_ID);
   }
 
   public CompletableFuture<DiagnosticsNode> getRoot(FlutterTreeType type) {
@@ -242,7 +242,7 @@ public class InspectorService implements Disposable {
 
   @Override
   public void dispose() {
-    vmService.streamCancel("Extension", VmServiceConsumers.EMPTY_SUCCESS_CONSUMER);
+    Disposer.dispose(subscription);
     // TODO(jacobr): dispose everything that needs to be disposed of.
   }
 
@@ -253,13 +253,20 @@ public class InspectorService implements Disposable {
     }
   }
 
+  private boolean isInspectorIsolate(IsolateRef isolate) {
+    final EvalOnDartLibrary library = inspectorLibrary;
+    if (library == null) return false;
+    final String id = library.getIsolateId();
+    // If the library wasn't found yet, we don't know which isolate it's in.
+    return id == null || isolate == null || id.equals(isolate.getId());
+  }
+
   private void onVmServiceReceived(String streamId, Event event) {
     switch (streamId) {
       case VmService.ISOLATE_STREAM_ID:
-        if (event.getKind() == EventKind.IsolateStart) {
-          maybeDisposeInspectorLibrary();
-        }
-        else if (event.getKind() == EventKind.IsolateExit) {
+        // Background isolates (for example, from compute()) come and go; only the
+        // isolate that the inspector library was found in matters.
+        if (event.getKind() == EventKind.IsolateExit && isInspectorIsolate(event.getIsolate())) {
           maybeDisposeInspectorLibrary();
           ApplicationManager.getApplication().invokeLater(() -> {
             for (InspectorServiceClient client : clients) {
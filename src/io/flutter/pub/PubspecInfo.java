@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.pub;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.representer.Representer;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable summary of a pubspec.yaml file.
+ * <p>
+ * Each version of a pubspec is parsed once; {@link #forFile} returns the cached summary
+ * until the file's modification stamp changes or the VFS reports an event for it.
+ */
+public class PubspecInfo {
+  /**
+   * The most recent summary for each pubspec file.
+   */
+  private static final Map<VirtualFile, PubspecInfo> cache = ContainerUtil.createConcurrentWeakMap();
+
+  private static volatile boolean listening;
+
+  private final long modificationStamp;
+
+  @Nullable
+  private final String name;
+
+  @NotNull
+  private final ImmutableSet<String> dependencies;
+
+  private final boolean flutterPlugin;
+
+  @NotNull
+  private final ImmutableList<String> assets;
+
+  private PubspecInfo(long modificationStamp,
+                      @Nullable String name,
+                      @NotNull ImmutableSet<String> dependencies,
+                      boolean flutterPlugin,
+                      @NotNull ImmutableList<String> assets) {
+    this.modificationStamp = modificationStamp;
+    this.name = name;
+    this.dependencies = dependencies;
+    this.flutterPlugin = flutterPlugin;
+    this.assets = assets;
+  }
+
+  /**
+   * Returns the summary of a pubspec file, parsing it only if it changed since the last call.
+   * <p>
+   * If the file can't be read or parsed, returns a summary with no name and no dependencies.
+   */
+  @NotNull
+  public static PubspecInfo forFile(@NotNull VirtualFile pubspec) {
+    if (!listening) {
+      listenForChanges();
+    }
+
+    final long stamp = pubspec.getModificationStamp();
+    final PubspecInfo cached = cache.get(pubspec);
+    if (cached != null && cached.modificationStamp == stamp) {
+      return cached;
+    }
+
+    PubspecInfo info;
+    try {
+      info = parse(new String(pubspec.contentsToByteArray(true /* cache contents */), StandardCharsets.UTF_8), stamp);
+    }
+    catch (IOException e) {
+      info = new PubspecInfo(stamp, null, ImmutableSet.of(), false, ImmutableList.of());
+    }
+    cache.put(pubspec, info);
+    return info;
+  }
+
+  @Nullable
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the names of the packages listed under 'dependencies'.
+   */
+  @NotNull
+  public ImmutableSet<String> getDependencies() {
+    return dependencies;
+  }
+
+  /**
+   * Returns true if the pubspec declares a flutter dependency (or is the flutter package itself).
+   */
+  public boolean declaresFlutter() {
+    // Special case the 'flutter' package itself - this allows us to run their unit tests from IntelliJ.
+    return "flutter".equals(name) || dependencies.contains("flutter");
+  }
+
+  /**
+   * Returns true if the pubspec indicates that it is a Flutter plugin.
+   */
+  public boolean isFlutterPlugin() {
+    return flutterPlugin;
+  }
+
+  /**
+   * Returns the entries listed under 'flutter: assets:'.
+   */
+  @NotNull
+  public ImmutableList<String> getAssets() {
+    return assets;
+  }
+
+  @VisibleForTesting
+  @NotNull
+  static PubspecInfo parse(@NotNull String contents, long modificationStamp) {
+    final Map<String, Object> yaml = loadYaml(contents);
+    if (yaml == null) {
+      return new PubspecInfo(modificationStamp, null, ImmutableSet.of(), false, ImmutableList.of());
+    }
+
+    final Object name = yaml.get("name");
+
+    // It uses Flutter if it contains:
+    // dependencies:
+    //   flutter:
+    final ImmutableSet.Builder<String> dependencies = ImmutableSet.builder();
+    final Object deps = yaml.get("dependencies");
+    if (deps instanceof Map) {
+      for (Object key : ((Map)deps).keySet()) {
+        if (key != null) {
+          dependencies.add(key.toString());
+        }
+      }
+    }
+
+    // It's a plugin if it contains:
+    // flutter:
+    //   plugin:
+    boolean plugin = false;
+    final ImmutableList.Builder<String> assets = ImmutableList.builder();
+    final Object flutterEntry = yaml.get("flutter");
+    if (flutterEntry instanceof Map) {
+      plugin = ((Map)flutterEntry).containsKey("plugin");
+      final Object assetList = ((Map)flutterEntry).get("assets");
+      if (assetList instanceof List) {
+        for (Object asset : (List)assetList) {
+          if (asset != null) {
+            assets.add(asset.toString());
+          }
+        }
+      }
+    }
+
+    return new PubspecInfo(modificationStamp, name instanceof String ? (String)name : null, dependencies.build(), plugin, assets.build());
+  }
+
+  @Nullable
+  private static Map<String, Object> loadYaml(@NotNull String yamlContents) {
+    final Yaml yaml = new Yaml(new SafeConstructor(), new Representer(), new DumperOptions(), new Resolver() {
+      @Override
+      protected void addImplicitResolvers() {
+        this.addImplicitResolver(Tag.BOOL, BOOL, "yYnNtTfFoO");
+        this.addImplicitResolver(Tag.NULL, NULL, "~nN\u0000");
+        this.addImplicitResolver(Tag.NULL, EMPTY, null);
+        this.addImplicitResolver(new Tag("tag:yaml.org,2002:value"), VALUE, "=");
+        this.addImplicitResolver(Tag.MERGE, MERGE, "<");
+      }
+    });
+
+    try {
+      final Object result = yaml.load(yamlContents);
+      //noinspection unchecked
+      return result instanceof Map ? (Map<String, Object>)result : null;
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Drops cached summaries when the VFS reports a change to a pubspec.
+   * <p>
+   * (The modification stamp check catches most changes; this also releases entries for deleted files.)
+   */
+  private static synchronized void listenForChanges() {
+    if (listening || ApplicationManager.getApplication() == null) return;
+    listening = true;
+
+    ApplicationManager.getApplication().getMessageBus().connect().subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+      @Override
+      public void before(@NotNull List<? extends VFileEvent> events) {
+      }
+
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+          final VirtualFile file = event.getFile();
+          if (file != null && !cache.isEmpty()) {
+            cache.remove(file);
+          }
+        }
+      }
+    });
+  }
+}
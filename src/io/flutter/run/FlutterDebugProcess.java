@@ -23,7 +23,7 @@ import io.flutter.run.daemon.FlutterApp;
 import io.flutter.run.daemon.RunMode;
 import io.flutter.view.FlutterViewMessages;
 import io.flutter.view.OpenFlutterViewAction;
-import org.dartlang.vm.service.VmService;
+import io.flutter.vmService.VmServiceConnection;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -54,9 +54,9 @@ public class FlutterDebugProcess extends DartVmServiceDebugProcessZ {
   }
 
   @Override
-  protected void onVmConnected(@NotNull VmService vmService) {
+  protected void onVmConnected(@NotNull VmServiceConnection connection) {
     app.setFlutterDebugProcess(this);
-    FlutterViewMessages.sendDebugActive(getSession().getProject(), app, vmService);
+    FlutterViewMessages.sendDebugActive(getSession().getProject(), app, connection);
   }
 
   @Override
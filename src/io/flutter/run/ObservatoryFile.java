@@ -5,15 +5,19 @@
  */
 package io.flutter.run;
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.pom.Navigatable;
 import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.util.PathUtil;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.xdebugger.XDebuggerUtil;
 import com.intellij.xdebugger.XSourcePosition;
 import com.jetbrains.lang.dart.DartFileType;
 import com.jetbrains.lang.dart.ide.runner.server.vmService.DartVmServiceDebugProcessZ;
-import gnu.trove.THashMap;
 import gnu.trove.TIntObjectHashMap;
+import io.flutter.vmService.VmServiceMetrics;
 import org.dartlang.vm.service.element.Script;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -21,6 +25,10 @@ import org.jetbrains.annotations.Nullable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * A specific version of a Dart file, as downloaded from Observatory.
@@ -39,41 +47,173 @@ class ObservatoryFile {
   private final TIntObjectHashMap<Position> positionMap;
 
   /**
-   * User-visible source code downloaded from Observatory.
+   * The key of the user-visible source code in the {@link SourceSnapshotStore}.
    * <p>
-   * The LightVirtualFile has no parent directory so its name will be something like /foo.dart.
-   * Since it has no location, breakpoints can't be set in this file.
-   * <p>
-   * This will be null if not requested when the ObservatoryFile was constructed.
+   * This will be null if a snapshot was not requested when the ObservatoryFile was constructed.
    */
   @Nullable
-  private final LightVirtualFile snapshot;
+  private final String snapshotKey;
+
+  @NotNull
+  private final String filename;
+
+  /**
+   * Downloads the source again, in case the store dropped it before it was needed.
+   * <p>
+   * This blocks on the VM service, so it's only called on a pooled thread.
+   */
+  @NotNull
+  private final Supplier<String> reloadSource;
 
-  ObservatoryFile(@NotNull Script script, boolean wantSnapshot) {
+  private final AtomicBoolean reloading = new AtomicBoolean();
+
+  ObservatoryFile(@NotNull Script script, boolean wantSnapshot, @NotNull Supplier<String> reloadSource) {
     positionMap = createPositionMap(script.getTokenPosTable());
-    snapshot = !wantSnapshot ? null : createSnapshot(script);
+    // LightVirtualFiles have no parent directory, so just use the filename.
+    // TODO(skybrian) maybe add more of the path anyway, for display?
+    filename = PathUtil.getFileName(script.getUri());
+    snapshotKey = !wantSnapshot || script.getSource() == null ? null : SourceSnapshotStore.getInstance().put(script.getSource());
+    this.reloadSource = reloadSource;
   }
 
   boolean hasSnapshot() {
-    return snapshot != null;
+    return snapshotKey != null;
   }
 
   /**
    * Given a token id, returns the source position to display to the user.
    * <p>
    * If no local file was provided, uses the snapshot if available. (However, in that
-   * case, breakpoints won't work.)
+   * case, breakpoints won't work.) The snapshot's file isn't created until the position
+   * is actually displayed. If the store dropped the source, it's downloaded again in the
+   * background.
    */
   @Nullable
   XSourcePosition createPosition(@Nullable VirtualFile local, int tokenPos) {
-    final VirtualFile fileToUse = local == null ? snapshot : local;
-    if (fileToUse == null) return null;
+    if (local == null && snapshotKey == null) return null;
 
     final Position pos = positionMap.get(tokenPos);
-    if (pos == null) {
-      return XDebuggerUtil.getInstance().createPositionByOffset(fileToUse, 0);
+    final Function<VirtualFile, XSourcePosition> factory = (file) -> {
+      if (pos == null) {
+        return XDebuggerUtil.getInstance().createPositionByOffset(file, 0);
+      }
+      return XDebuggerUtil.getInstance().createPosition(file, pos.line, pos.column);
+    };
+
+    if (local != null) {
+      return factory.apply(local);
+    }
+    if (!snapshotFiles.containsKey(getSnapshotFileKey()) && !SourceSnapshotStore.getInstance().contains(snapshotKey)) {
+      reloadSourceLater();
+    }
+    return new SnapshotPosition(pos == null ? 0 : pos.line, factory);
+  }
+
+  /**
+   * Returns the snapshot as a read-only file, creating it if needed.
+   * <p>
+   * ObservatoryFiles with the same source share the same file. Returns null if the source isn't
+   * available right now; it's then downloaded again in the background.
+   */
+  @Nullable
+  private LightVirtualFile findSnapshotFile() {
+    final String fileKey = getSnapshotFileKey();
+    final LightVirtualFile existing = snapshotFiles.get(fileKey);
+    if (existing != null) {
+      return existing;
+    }
+
+    assert snapshotKey != null;
+    final String source = SourceSnapshotStore.getInstance().get(snapshotKey);
+    if (source == null) {
+      reloadSourceLater();
+      return null;
+    }
+    return snapshotFiles.computeIfAbsent(fileKey, (key) -> createReadOnlyFile(source));
+  }
+
+  @NotNull
+  private String getSnapshotFileKey() {
+    return snapshotKey + "/" + filename;
+  }
+
+  /**
+   * Downloads the source on a pooled thread and puts it back in the store.
+   */
+  private void reloadSourceLater() {
+    if (!reloading.compareAndSet(false, true)) return;
+    ApplicationManager.getApplication().executeOnPooledThread(() -> {
+      try {
+        final String source = reloadSource.get();
+        if (source != null) {
+          SourceSnapshotStore.getInstance().put(source);
+        }
+      }
+      finally {
+        reloading.set(false);
+      }
+    });
+  }
+
+  @NotNull
+  private LightVirtualFile createReadOnlyFile(@NotNull String source) {
+    final LightVirtualFile file = new LightVirtualFile(filename, DartFileType.INSTANCE, source);
+    file.setWritable(false);
+    return file;
+  }
+
+  /**
+   * Snapshot files that are still in use, keyed by source hash and filename.
+   */
+  private static final Map<String, LightVirtualFile> snapshotFiles = ContainerUtil.createConcurrentWeakValueMap();
+
+  /**
+   * A position in a snapshot that doesn't create the snapshot's file until it's asked for.
+   */
+  private class SnapshotPosition implements XSourcePosition {
+    private final int line;
+    @NotNull private final Function<VirtualFile, XSourcePosition> factory;
+    private XSourcePosition delegate;
+
+    SnapshotPosition(int line, @NotNull Function<VirtualFile, XSourcePosition> factory) {
+      this.line = line;
+      this.factory = factory;
+    }
+
+    @NotNull
+    private synchronized XSourcePosition getDelegate() {
+      if (delegate == null) {
+        final LightVirtualFile file = findSnapshotFile();
+        if (file == null) {
+          // Not remembered, so that a later call shows the source once it's downloaded.
+          return XDebuggerUtil.getInstance().createPositionByOffset(createReadOnlyFile("// source not available"), 0);
+        }
+        delegate = factory.apply(file);
+      }
+      return delegate;
+    }
+
+    @Override
+    public int getLine() {
+      return line;
+    }
+
+    @Override
+    public int getOffset() {
+      return getDelegate().getOffset();
+    }
+
+    @NotNull
+    @Override
+    public VirtualFile getFile() {
+      return getDelegate().getFile();
+    }
+
+    @NotNull
+    @Override
+    public Navigatable createNavigatable(@NotNull Project project) {
+      return getDelegate().createNavigatable(project);
     }
-    return XDebuggerUtil.getInstance().createPosition(fileToUse, pos.line, pos.column);
   }
 
   /**
@@ -102,15 +242,6 @@ class ObservatoryFile {
     return result;
   }
 
-  private static LightVirtualFile createSnapshot(@NotNull Script script) {
-    // LightVirtualFiles have no parent directory, so just use the filename.
-    // TODO(skybrian) maybe add more of the path anyway, for display?
-    final String filename = PathUtil.getFileName(script.getUri());
-    final LightVirtualFile snapshot = new LightVirtualFile(filename, DartFileType.INSTANCE, script.getSource());
-    snapshot.setWritable(false);
-    return snapshot;
-  }
-
   /**
    * A per-isolate cache of Observatory files.
    */
@@ -125,7 +256,7 @@ class ObservatoryFile {
      * A cache containing each file downloaded from Observatory. The key is a script id.
      * Each version of a file is stored as a separate entry.
      */
-    private final Map<String, ObservatoryFile> versions = new THashMap<>();
+    private final Map<String, ObservatoryFile> versions = new ConcurrentHashMap<>();
 
     Cache(@NotNull String isolateId, @NotNull DartVmServiceDebugProcessZ.ScriptProvider provider) {
       this.isolateId = isolateId;
@@ -141,15 +272,23 @@ class ObservatoryFile {
      */
     @Nullable
     ObservatoryFile downloadOrGet(@NotNull String scriptId, boolean wantSnapshot) {
+      final VmServiceMetrics metrics = VmServiceMetrics.getInstance();
+      final long start = metrics.start();
+
       final ObservatoryFile cached = this.versions.get(scriptId);
       if (cached != null && (cached.hasSnapshot() || !wantSnapshot)) {
+        metrics.record(VmServiceMetrics.Kind.CACHE_HIT, "downloadScript", isolateId, 0, start);
         return cached;
       }
 
       final Script script = provider.downloadScript(isolateId, scriptId);
+      metrics.record(VmServiceMetrics.Kind.CACHE_MISS, "downloadScript", isolateId, 0, start);
       if (script == null) return null;
 
-      final ObservatoryFile downloaded = new ObservatoryFile(script, wantSnapshot);
+      final ObservatoryFile downloaded = new ObservatoryFile(script, wantSnapshot, () -> {
+        final Script again = provider.downloadScript(isolateId, scriptId);
+        return again == null ? null : again.getSource();
+      });
       this.versions.put(scriptId, downloaded);
       return downloaded;
     }
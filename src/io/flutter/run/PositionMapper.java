@@ -23,8 +23,8 @@ import com.jetbrains.lang.dart.analyzer.DartAnalysisServerService;
 import com.jetbrains.lang.dart.ide.runner.server.vmService.DartVmServiceDebugProcessZ;
 import com.jetbrains.lang.dart.util.DartResolveUtil;
 import com.jetbrains.lang.dart.util.DartUrlResolver;
-import gnu.trove.THashMap;
 import io.flutter.dart.DartPlugin;
+import io.flutter.vmService.VmServiceMetrics;
 import org.dartlang.vm.service.element.LibraryRef;
 import org.dartlang.vm.service.element.ScriptRef;
 import org.dartlang.vm.service.element.Script;
@@ -33,9 +33,13 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Converts positions between Dart files in Observatory and local Dart files.
@@ -83,16 +87,55 @@ public class PositionMapper implements DartVmServiceDebugProcessZ.PositionMapper
   /**
    * A prefix to be removed from a remote path before looking for a corresponding file under the local source root.
    * <p>
-   * Initialized shortly after connecting.
+   * Initialized shortly after connecting, from the first library list that has a match.
+   * Each isolate may also have its own; see {@link IsolateState}.
    */
   @Nullable
-  private String remoteSourceRoot;
+  private volatile String remoteSourceRoot;
 
-  // TODO(skybrian) clear the cache at hot restart? (Old cache entries seem unlikely to be used again.)
   /**
-   * A cache containing each file version downloaded from Observatory. The key is an isolate id.
+   * Mapping state for each live isolate. The key is an isolate id.
+   * <p>
+   * Entries are added when an isolate's libraries are reported and removed when it exits.
+   */
+  private final Map<String, IsolateState> isolates = new ConcurrentHashMap<>();
+
+  /**
+   * The ids of recently exited isolates, so that a late report about one doesn't add it back.
+   * <p>
+   * Late reports arrive shortly after the exit, so only the most recent exits are remembered.
+   * Access should be synchronized on the set.
+   */
+  private final Set<String> exitedIsolates = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > MAX_EXITED_ISOLATES;
+    }
+  });
+
+  /**
+   * The URIs of the libraries that Observatory reported without saying which isolate they came from.
+   * <p>
+   * Used (along with each isolate's libraries) to skip breakpoint URIs that will never resolve.
+   * Since we can't tell which isolate they belong to, they are kept until the last live isolate
+   * exits (for example, on hot restart); after that, the per-isolate library lists are used instead.
    */
-  private final Map<String, ObservatoryFile.Cache> fileCache = new THashMap<>();
+  private final Set<String> loadedLibraryUris = ConcurrentHashMap.newKeySet();
+
+  /**
+   * For each URI prefix we generate breakpoint URIs under, whether any loaded library starts with it.
+   * <p>
+   * Cleared when more libraries are loaded.
+   */
+  private final Map<String, Boolean> prefixInUse = new ConcurrentHashMap<>();
+
+  /**
+   * The candidate breakpoint URIs for each local path.
+   * <p>
+   * Computing them may require a round trip to the analysis server, so they are cached until the
+   * remote roots change.
+   */
+  private final Map<String, Set<String>> breakpointUriCache = new ConcurrentHashMap<>();
 
   public PositionMapper(@NotNull Project project,
                         @NotNull VirtualFile sourceRoot,
@@ -111,24 +154,140 @@ public class PositionMapper implements DartVmServiceDebugProcessZ.PositionMapper
     }
     this.scriptProvider = provider;
     this.remoteBaseUri = remoteBaseUri;
+    breakpointUriCache.clear();
   }
 
   /**
    * Just after connecting, the debugger downloads the list of Dart libraries from Observatory and reports it here.
+   * <p>
+   * The Dart plugin calls this once per isolate without saying which one, so the result is shared by all isolates.
    */
   public void onLibrariesDownloaded(@NotNull final Iterable<LibraryRef> libraries) {
-    // TODO(skybrian) what should we do if this gets called multiple times?
-    // This happens when there is more than one isolate.
-    // Currently it overwrites the previous value.
+    for (LibraryRef library : libraries) {
+      loadedLibraryUris.add(library.getUri());
+    }
+    prefixInUse.clear();
+
+    final String root = calculateRemoteSourceRoot(libraries);
+    if (root != null && !root.equals(remoteSourceRoot)) {
+      remoteSourceRoot = root;
+      breakpointUriCache.clear();
+    }
+  }
+
+  /**
+   * Reports the libraries loaded by a particular isolate.
+   * <p>
+   * Called on a background thread when an isolate becomes runnable or is reloaded.
+   * Isolates are handled independently, so a background isolate doesn't disturb the main isolate's mapping.
+   */
+  public void onLibrariesDownloaded(@NotNull String isolateId, @NotNull final Iterable<LibraryRef> libraries) {
+    final IsolateState state = addIsolateState(isolateId);
+    if (state == null) return;
+
+    final Set<String> uris = new HashSet<>();
+    for (LibraryRef library : libraries) {
+      uris.add(library.getUri());
+    }
+    state.libraryUris = uris;
+    prefixInUse.clear();
+
+    final String root = calculateRemoteSourceRoot(libraries);
+    if (root == null) return;
+
+    final boolean isNew = !getRemoteSourceRoots().contains(root);
+    state.remoteSourceRoot = root;
+    if (remoteSourceRoot == null) {
+      remoteSourceRoot = root;
+    }
+    if (isNew) {
+      breakpointUriCache.clear();
+    }
+  }
+
+  /**
+   * Forgets everything about an isolate that exited.
+   */
+  public void onIsolateExit(@NotNull String isolateId) {
+    synchronized (exitedIsolates) {
+      exitedIsolates.add(isolateId);
+    }
+    isolates.remove(isolateId);
+    if (isolates.isEmpty()) {
+      loadedLibraryUris.clear();
+    }
+    prefixInUse.clear();
+  }
+
+  /**
+   * Returns the state for a live isolate, creating it if needed, or null if the isolate has exited.
+   */
+  @Nullable
+  private IsolateState addIsolateState(@NotNull String isolateId) {
+    final DartVmServiceDebugProcessZ.ScriptProvider provider = scriptProvider;
+    if (provider == null) {
+      LOG.warn("attempted to use isolate " + isolateId + " before connected to observatory");
+      return null;
+    }
+    if (hasExited(isolateId)) return null;
+
+    final IsolateState state = isolates.computeIfAbsent(isolateId, (id) -> new IsolateState(new ObservatoryFile.Cache(id, provider)));
+    if (hasExited(isolateId)) {
+      // It exited while we were adding it.
+      isolates.remove(isolateId);
+      return null;
+    }
+    return state;
+  }
+
+  private boolean hasExited(@NotNull String isolateId) {
+    synchronized (exitedIsolates) {
+      return exitedIsolates.contains(isolateId);
+    }
+  }
+
+  /**
+   * Returns every remote source root we know about, starting with the shared one.
+   */
+  @NotNull
+  private Set<String> getRemoteSourceRoots() {
+    final Set<String> roots = new LinkedHashSet<>();
+    final String shared = remoteSourceRoot;
+    if (shared != null) {
+      roots.add(shared);
+    }
+    for (IsolateState state : isolates.values()) {
+      if (state.remoteSourceRoot != null) {
+        roots.add(state.remoteSourceRoot);
+      }
+    }
+    return roots;
+  }
+
+  /**
+   * Finds the remote source root for a list of libraries, or null if there isn't one.
+   * <p>
+   * Isolates of the same app normally share a root, so a root we already know is tried
+   * first to avoid searching the file index again.
+   */
+  @Nullable
+  private String calculateRemoteSourceRoot(@NotNull final Iterable<LibraryRef> libraries) {
+    final Set<String> known = getRemoteSourceRoots();
+    for (LibraryRef library : libraries) {
+      final String remoteUri = library.getUri();
+      for (String root : known) {
+        if (remoteUri.startsWith(root + "/")) return root;
+      }
+    }
 
-    // Calculate the remote source root.
     for (LibraryRef library : libraries) {
       final String remoteUri = library.getUri();
       if (remoteUri.startsWith(DartUrlResolver.DART_PREFIX)) continue;
       if (remoteUri.startsWith(DartUrlResolver.PACKAGE_PREFIX)) continue;
-      remoteSourceRoot = findRemoteSourceRoot(remoteUri);
-      if (remoteSourceRoot != null) return;
+      final String root = findRemoteSourceRoot(remoteUri);
+      if (root != null) return root;
     }
+    return null;
   }
 
   /**
@@ -169,10 +328,105 @@ public class PositionMapper implements DartVmServiceDebugProcessZ.PositionMapper
    * <p>
    * We don't know where the file will be so we set breakpoints in a lot of places.
    * (The URI may change after a hot restart.)
+   * <p>
+   * Once Observatory has reported its libraries, URI's that can't resolve are left out:
+   * if some candidates are loaded libraries, only those are returned. Otherwise (for example,
+   * a part file), candidates under a prefix that no loaded library uses are dropped.
    */
   @NotNull
   public Collection<String> getBreakpointUris(@NotNull final VirtualFile file) {
-    final Set<String> results = new HashSet<>();
+    final VmServiceMetrics metrics = VmServiceMetrics.getInstance();
+    final long start = metrics.start();
+    Set<String> candidates = breakpointUriCache.get(file.getPath());
+    if (candidates != null) {
+      metrics.record(VmServiceMetrics.Kind.CACHE_HIT, "getBreakpointUris", null, 0, start);
+    }
+    else {
+      // Computed outside the map since it may call the analysis server; if another thread got there first, use theirs.
+      final Set<String> computed = computeBreakpointUris(file);
+      final Set<String> previous = breakpointUriCache.putIfAbsent(file.getPath(), computed);
+      candidates = previous != null ? previous : computed;
+      metrics.record(VmServiceMetrics.Kind.CACHE_MISS, "getBreakpointUris", null, 0, start);
+    }
+    if (loadedLibraryUris.isEmpty() && isolates.isEmpty()) {
+      return candidates;
+    }
+
+    final Set<String> loaded = new LinkedHashSet<>();
+    for (String uri : candidates) {
+      if (isLoadedLibrary(uri)) {
+        loaded.add(uri);
+      }
+    }
+    if (!loaded.isEmpty()) {
+      return loaded;
+    }
+
+    final Set<String> plausible = new LinkedHashSet<>();
+    for (String uri : candidates) {
+      final String prefix = findUriPrefix(uri);
+      if (prefix == null || isPrefixInUse(prefix)) {
+        plausible.add(uri);
+      }
+    }
+    // If we would drop everything, the libraries probably aren't loaded yet.
+    return plausible.isEmpty() ? candidates : plausible;
+  }
+
+  /**
+   * Returns the prefix that a candidate breakpoint URI was generated under,
+   * or null if it's not one that we know how to check.
+   */
+  @Nullable
+  private String findUriPrefix(@NotNull String uri) {
+    if (uri.startsWith(DartUrlResolver.PACKAGE_PREFIX)) {
+      final int slash = uri.indexOf('/');
+      return slash < 0 ? null : uri.substring(0, slash + 1);
+    }
+    for (String root : getRemoteSourceRoots()) {
+      if (uri.startsWith(root)) {
+        return root;
+      }
+    }
+    if (remoteBaseUri != null && uri.startsWith(remoteBaseUri)) {
+      return remoteBaseUri;
+    }
+    final String rootPath = sourceRoot.getPath() + "/";
+    if (uri.startsWith(rootPath)) {
+      return rootPath;
+    }
+    final String rootUri = threeSlashize(new File(sourceRoot.getPath()).toURI().toString());
+    if (uri.startsWith(rootUri)) {
+      return rootUri;
+    }
+    return null;
+  }
+
+  private boolean isLoadedLibrary(@NotNull String uri) {
+    if (loadedLibraryUris.contains(uri)) return true;
+    for (IsolateState state : isolates.values()) {
+      if (state.libraryUris.contains(uri)) return true;
+    }
+    return false;
+  }
+
+  private boolean isPrefixInUse(@NotNull String prefix) {
+    return prefixInUse.computeIfAbsent(prefix, (p) -> {
+      for (String uri : loadedLibraryUris) {
+        if (uri.startsWith(p)) return true;
+      }
+      for (IsolateState state : isolates.values()) {
+        for (String uri : state.libraryUris) {
+          if (uri.startsWith(p)) return true;
+        }
+      }
+      return false;
+    });
+  }
+
+  @NotNull
+  private Set<String> computeBreakpointUris(@NotNull final VirtualFile file) {
+    final Set<String> results = new LinkedHashSet<>();
     final String uriByIde = resolver.getDartUrlForFile(file);
 
     // If dart:, short circuit the results.
@@ -206,8 +460,8 @@ public class PositionMapper implements DartVmServiceDebugProcessZ.PositionMapper
 
     if (path.startsWith(root)) {
       // snapshot prefix (if applicable)
-      if (remoteSourceRoot != null) {
-        results.add(remoteSourceRoot + path.substring(root.length()));
+      for (String remoteRoot : getRemoteSourceRoots()) {
+        results.add(remoteRoot + path.substring(root.length()));
       }
 
       // remote prefix (if applicable)
@@ -216,7 +470,7 @@ public class PositionMapper implements DartVmServiceDebugProcessZ.PositionMapper
       }
     }
 
-    return results;
+    return Collections.unmodifiableSet(results);
   }
 
   /**
@@ -241,57 +495,60 @@ public class PositionMapper implements DartVmServiceDebugProcessZ.PositionMapper
   @Nullable
   private XSourcePosition getSourcePosition(@NotNull final String isolateId, @NotNull final String scriptId,
                                             @NotNull final String scriptUri, int tokenPos) {
-    if (scriptProvider == null) {
+    final DartVmServiceDebugProcessZ.ScriptProvider provider = scriptProvider;
+    if (provider == null) {
       LOG.warn("attempted to get source position before connected to observatory");
       return null;
     }
 
-    final VirtualFile local = findLocalFile(scriptUri);
+    IsolateState state = addIsolateState(isolateId);
+    if (state == null) {
+      // It exited. Use a temporary state rather than adding it back.
+      state = new IsolateState(new ObservatoryFile.Cache(isolateId, provider));
+    }
 
-    final ObservatoryFile.Cache cache =
-      fileCache.computeIfAbsent(isolateId, (id) -> new ObservatoryFile.Cache(id, scriptProvider));
+    final VirtualFile local = findLocalFile(scriptUri, state);
 
-    final ObservatoryFile remote = cache.downloadOrGet(scriptId, local == null);
+    final ObservatoryFile remote = state.files.downloadOrGet(scriptId, local == null);
     if (remote == null) return null;
 
     return remote.createPosition(local, tokenPos);
   }
 
   @VisibleForTesting
-  @Nullable
-  String getRemoteSourceRoot() {
-    return remoteSourceRoot;
-  }
-
-  /**
-   * Attempt to find a local Dart file corresponding to a script in Observatory.
-   */
-  @Nullable
-  private VirtualFile findLocalFile(@NotNull ScriptRef scriptRef) {
-    return findLocalFile(scriptRef.getUri());
+  int getExitedIsolateCount() {
+    synchronized (exitedIsolates) {
+      return exitedIsolates.size();
+    }
   }
 
-  /**
-   * Attempt to find a local Dart file corresponding to a script in Observatory.
-   */
+  @VisibleForTesting
   @Nullable
-  private VirtualFile findLocalFile(@NotNull Script script) {
-    return findLocalFile(script.getUri());
+  String getRemoteSourceRoot() {
+    return remoteSourceRoot;
   }
 
   /**
    * Attempt to find a local Dart file corresponding to a script in Observatory.
    */
   @Nullable
-  private VirtualFile findLocalFile(@NotNull String uri) {
+  private VirtualFile findLocalFile(@NotNull String uri, @NotNull IsolateState state) {
     return ApplicationManager.getApplication().runReadAction((Computable<VirtualFile>)() -> {
       // This can be a remote file or URI.
       final String remote = uri;
 
-      if (remoteSourceRoot != null && remote.startsWith(remoteSourceRoot)) {
-        final String rootUri = StringUtil.trimEnd(resolver.getDartUrlForFile(sourceRoot), '/');
-        final String suffix = remote.substring(remoteSourceRoot.length());
-        return resolver.findFileByDartUrl(rootUri + suffix);
+      // Prefer the isolate's own root.
+      final Set<String> roots = new LinkedHashSet<>();
+      if (state.remoteSourceRoot != null) {
+        roots.add(state.remoteSourceRoot);
+      }
+      roots.addAll(getRemoteSourceRoots());
+      for (String remoteRoot : roots) {
+        if (remote.startsWith(remoteRoot)) {
+          final String rootUri = StringUtil.trimEnd(resolver.getDartUrlForFile(sourceRoot), '/');
+          final String suffix = remote.substring(remoteRoot.length());
+          return resolver.findFileByDartUrl(rootUri + suffix);
+        }
       }
 
       if (remoteBaseUri != null && remote.startsWith(remoteBaseUri)) {
@@ -338,6 +595,13 @@ public class PositionMapper implements DartVmServiceDebugProcessZ.PositionMapper
   }
 
   public void shutdown() {
+    isolates.clear();
+    synchronized (exitedIsolates) {
+      exitedIsolates.clear();
+    }
+    breakpointUriCache.clear();
+    loadedLibraryUris.clear();
+    prefixInUse.clear();
     if (analyzer != null) {
       analyzer.close();
     }
@@ -345,6 +609,36 @@ public class PositionMapper implements DartVmServiceDebugProcessZ.PositionMapper
 
   private static final Logger LOG = Logger.getInstance(PositionMapper.class);
 
+  @VisibleForTesting
+  static final int MAX_EXITED_ISOLATES = 100;
+
+  /**
+   * What we know about one isolate.
+   */
+  private static class IsolateState {
+    /**
+     * Each file version downloaded from Observatory for this isolate.
+     */
+    @NotNull
+    final ObservatoryFile.Cache files;
+
+    /**
+     * The remote source root found in this isolate's libraries, if any.
+     */
+    @Nullable
+    volatile String remoteSourceRoot;
+
+    /**
+     * The URIs of the libraries most recently reported for this isolate.
+     */
+    @NotNull
+    volatile Set<String> libraryUris = Collections.emptySet();
+
+    IsolateState(@NotNull ObservatoryFile.Cache files) {
+      this.files = files;
+    }
+  }
+
   /**
    * Wraps a Dart analysis server and execution id for doing URI resolution for a particular Flutter app.
    * <p>
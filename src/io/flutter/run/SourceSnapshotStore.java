@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.run;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Holds the source code of Dart files downloaded from Observatory, keyed by a hash of their contents.
+ * <p>
+ * Sources that are identical (the same SDK or package file in another isolate, or after a hot reload)
+ * are only stored once. The store is bounded by the total number of characters held in memory.
+ * When it's full, the least recently used sources are moved to disk if a directory was provided,
+ * or dropped otherwise. The disk has its own budget; sources evicted from it are deleted.
+ * <p>
+ * Files are read and written outside the store's lock, in the order the changes were made.
+ */
+class SourceSnapshotStore {
+  private static final Logger LOG = Logger.getInstance(SourceSnapshotStore.class);
+
+  /**
+   * The default memory budget, in chars.
+   */
+  private static final int DEFAULT_MAX_CHARS = 4 * 1024 * 1024;
+
+  /**
+   * The default disk budget, in chars.
+   */
+  private static final long DEFAULT_MAX_DISK_CHARS = 64L * 1024 * 1024;
+
+  private static SourceSnapshotStore instance;
+
+  private final int maxChars;
+  private final long maxDiskChars;
+
+  @Nullable
+  private final File diskDir;
+
+  // All fields below should be accessed while synchronized on this store.
+
+  /**
+   * The sources currently in memory, in least recently used order.
+   */
+  private final LinkedHashMap<String, String> inMemory = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long charsInMemory;
+
+  /**
+   * The length of each source on disk (or queued to be written), in least recently used order.
+   */
+  private final LinkedHashMap<String, Integer> onDisk = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long charsOnDisk;
+
+  /**
+   * Sources that have been moved out of memory but not written yet.
+   */
+  private final Map<String, String> unwritten = new HashMap<>();
+
+  /**
+   * File operations that haven't been done yet, in order.
+   */
+  private final Deque<DiskOp> diskOps = new ArrayDeque<>();
+
+  /**
+   * Held while doing file operations, so that they happen in the order they were queued.
+   */
+  private final Object ioLock = new Object();
+
+  @VisibleForTesting
+  SourceSnapshotStore(int maxChars, long maxDiskChars, @Nullable File diskDir) {
+    this.maxChars = maxChars;
+    this.maxDiskChars = maxDiskChars;
+    this.diskDir = diskDir;
+  }
+
+  /**
+   * Returns the store shared by all debug sessions.
+   */
+  @NotNull
+  static synchronized SourceSnapshotStore getInstance() {
+    if (instance == null) {
+      // Anything left here was written by an earlier session.
+      final File dir = new File(PathManager.getSystemPath(), "flutter/snapshots");
+      FileUtil.delete(dir);
+      final boolean created = dir.mkdirs();
+      if (!created) {
+        LOG.info("unable to create " + dir + "; evicted sources won't be kept");
+      }
+      instance = new SourceSnapshotStore(DEFAULT_MAX_CHARS, DEFAULT_MAX_DISK_CHARS, created ? dir : null);
+
+      final Application app = ApplicationManager.getApplication();
+      if (app != null && created) {
+        Disposer.register(app, () -> FileUtil.delete(dir));
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Adds a source to the store (if not already present) and returns its key.
+   */
+  @NotNull
+  String put(@NotNull String source) {
+    final String key = hash(source);
+    synchronized (this) {
+      if (inMemory.containsKey(key) || onDisk.get(key) != null) {
+        return key;
+      }
+      inMemory.put(key, source);
+      charsInMemory += source.length();
+      evictIfNeeded(key);
+    }
+    doDiskOps();
+    return key;
+  }
+
+  /**
+   * Returns true if the source for a key is still in memory or on disk, without reading it.
+   */
+  synchronized boolean contains(@NotNull String key) {
+    return inMemory.containsKey(key) || onDisk.containsKey(key);
+  }
+
+  /**
+   * Returns the source for a key, or null if it was dropped.
+   */
+  @Nullable
+  String get(@NotNull String key) {
+    synchronized (this) {
+      final String source = inMemory.get(key);
+      if (source != null) {
+        return source;
+      }
+      final String pending = unwritten.get(key);
+      if (pending != null) {
+        return pending;
+      }
+      if (onDisk.get(key) == null) {
+        return null;
+      }
+    }
+
+    final File file = getDiskFile(key);
+    if (file == null) {
+      return null;
+    }
+    try {
+      return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+    catch (IOException e) {
+      // Possibly deleted since we checked.
+      return null;
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getCharsInMemory() {
+    return charsInMemory;
+  }
+
+  @VisibleForTesting
+  synchronized long getCharsOnDisk() {
+    return charsOnDisk;
+  }
+
+  private void evictIfNeeded(@NotNull String keep) {
+    final Iterator<Map.Entry<String, String>> it = inMemory.entrySet().iterator();
+    while (charsInMemory > maxChars && it.hasNext()) {
+      final Map.Entry<String, String> entry = it.next();
+      if (entry.getKey().equals(keep)) continue;
+      it.remove();
+      charsInMemory -= entry.getValue().length();
+      moveToDisk(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private void moveToDisk(@NotNull String key, @NotNull String source) {
+    if (diskDir == null || source.length() > maxDiskChars) return;
+
+    onDisk.put(key, source.length());
+    charsOnDisk += source.length();
+    unwritten.put(key, source);
+    diskOps.add(new DiskOp(key, source));
+
+    final Iterator<Map.Entry<String, Integer>> it = onDisk.entrySet().iterator();
+    while (charsOnDisk > maxDiskChars && it.hasNext()) {
+      final Map.Entry<String, Integer> entry = it.next();
+      it.remove();
+      charsOnDisk -= entry.getValue();
+      unwritten.remove(entry.getKey());
+      diskOps.add(new DiskOp(entry.getKey(), null));
+    }
+  }
+
+  /**
+   * Does the queued file operations, without holding the store's lock.
+   */
+  private void doDiskOps() {
+    synchronized (ioLock) {
+      while (true) {
+        final DiskOp op;
+        synchronized (this) {
+          op = diskOps.poll();
+        }
+        if (op == null) return;
+
+        final File file = getDiskFile(op.key);
+        if (file == null) continue;
+        try {
+          if (op.source == null) {
+            Files.deleteIfExists(file.toPath());
+          }
+          else {
+            Files.write(file.toPath(), op.source.getBytes(StandardCharsets.UTF_8));
+          }
+        }
+        catch (IOException e) {
+          LOG.info("unable to update snapshot " + file, e);
+        }
+
+        if (op.source != null) {
+          synchronized (this) {
+            // Unless it was evicted again in the meantime.
+            if (unwritten.get(op.key) == op.source) {
+              unwritten.remove(op.key);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Nullable
+  private File getDiskFile(@NotNull String key) {
+    return diskDir == null ? null : new File(diskDir, key + ".dart");
+  }
+
+  @NotNull
+  private static String hash(@NotNull String source) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    final byte[] bytes = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+    final StringBuilder out = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      out.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes a source to disk, or deletes it if the source is null.
+   */
+  private static class DiskOp {
+    @NotNull final String key;
+    @Nullable final String source;
+
+    DiskOp(@NotNull String key, @Nullable String source) {
+      this.key = key;
+      this.source = source;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.run.daemon;
+
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.diagnostic.Logger;
+import io.flutter.utils.StdoutJsonParser;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Prepares a flutter process's output for a console.
+ * <p>
+ * JSON messages sent in --machine mode are removed from stdout as it streams in. The rest of each chunk of
+ * stdout is passed on as one piece of text, rather than a line at a time. Output of other types is passed
+ * on as-is, after any stdout that came before it, so the order is kept.
+ * <p>
+ * To keep the console responsive, stdout is limited to a number of characters per second. Text over the
+ * limit is dropped, and a note saying how much was dropped is printed before the next text that gets through
+ * (of any type), or when the output is flushed at the end.
+ */
+class ConsoleOutputPipeline {
+  private static final Logger LOG = Logger.getInstance(ConsoleOutputPipeline.class);
+
+  static final int MAX_CHARS_PER_SECOND = 512 * 1024;
+
+  private static final long WINDOW_MILLIS = 1000;
+
+  /**
+   * Where output goes after it's filtered.
+   */
+  interface Sink {
+    void print(@NotNull String text, @NotNull ConsoleViewContentType contentType);
+  }
+
+  @NotNull private final Sink sink;
+  @NotNull private final LongSupplier clock;
+  private final int maxCharsPerSecond;
+
+  // All fields below should be accessed while synchronized on this pipeline.
+
+  private final StdoutJsonParser stdoutParser = new StdoutJsonParser();
+
+  /**
+   * Text from stdout that hasn't been passed on yet.
+   */
+  private final StringBuilder batch = new StringBuilder();
+
+  private boolean hasPrintedText;
+
+  private long windowStartMillis = Long.MIN_VALUE;
+  private int windowChars;
+  private long skippedChars;
+
+  ConsoleOutputPipeline(@NotNull Sink sink) {
+    this(sink, System::currentTimeMillis, MAX_CHARS_PER_SECOND);
+  }
+
+  ConsoleOutputPipeline(@NotNull Sink sink, @NotNull LongSupplier clock, int maxCharsPerSecond) {
+    this.sink = sink;
+    this.clock = clock;
+    this.maxCharsPerSecond = maxCharsPerSecond;
+  }
+
+  synchronized void print(@NotNull String text, @NotNull ConsoleViewContentType contentType) {
+    if (contentType != ConsoleViewContentType.NORMAL_OUTPUT) {
+      stdoutParser.flush();
+      takeAvailableLines();
+      flushBatch();
+      printSkipped();
+
+      sink.print(text, contentType);
+    }
+    else {
+      stdoutParser.appendOutput(text);
+      takeAvailableLines();
+      flushBatch();
+    }
+  }
+
+  /**
+   * Passes on any stdout still held back, such as a last line without a newline, and says how much was skipped.
+   * <p>
+   * Should be called when the process terminates.
+   */
+  synchronized void flush() {
+    stdoutParser.flush();
+    takeAvailableLines();
+    flushBatch();
+    printSkipped();
+  }
+
+  private void takeAvailableLines() {
+    for (String line : stdoutParser.getAvailableLines()) {
+      final String trimmed = line.trim();
+
+      if (trimmed.startsWith("[{") && trimmed.endsWith("}]")) {
+        LOG.info(trimmed);
+        continue;
+      }
+
+      // We're seeing a spurious newline before some launches; this removed any single
+      // newline that occur before we've printed text.
+      if (!hasPrintedText && line.equals(("\n"))) {
+        continue;
+      }
+
+      hasPrintedText = true;
+      batch.append(line);
+    }
+  }
+
+  /**
+   * Passes on the batch of stdout, or as much of it as the limit allows.
+   */
+  private void flushBatch() {
+    if (batch.length() == 0) {
+      return;
+    }
+
+    final long now = clock.getAsLong();
+    if (windowStartMillis == Long.MIN_VALUE || now - windowStartMillis >= WINDOW_MILLIS) {
+      windowStartMillis = now;
+      windowChars = 0;
+      printSkipped();
+    }
+
+    final int room = maxCharsPerSecond - windowChars;
+    if (batch.length() <= room) {
+      windowChars += batch.length();
+      sink.print(batch.toString(), ConsoleViewContentType.NORMAL_OUTPUT);
+    }
+    else {
+      // Print whole lines up to the limit and skip the rest.
+      final int end = room > 0 ? batch.lastIndexOf("\n", room - 1) + 1 : 0;
+      if (end > 0) {
+        sink.print(batch.substring(0, end), ConsoleViewContentType.NORMAL_OUTPUT);
+      }
+      skippedChars += batch.length() - end;
+      windowChars = maxCharsPerSecond;
+    }
+    batch.setLength(0);
+  }
+
+  private void printSkipped() {
+    if (skippedChars > 0) {
+      sink.print("(" + skippedChars + " characters of output skipped)\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+      skippedChars = 0;
+    }
+  }
+}
@@ -22,8 +22,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -42,6 +40,7 @@ import java.util.function.Function;
  */
 public class DaemonApi {
   private static final int STDERR_LINES_TO_KEEP = 100;
+  private static final int STDERR_CHARS_TO_KEEP = 32 * 1024;
 
   @NotNull private final Consumer<String> callback;
   private final AtomicInteger nextId = new AtomicInteger();
@@ -52,7 +51,7 @@ public class DaemonApi {
   /**
    * A ring buffer holding the last few lines that the process sent to stderr.
    */
-  private final Deque<String> stderr = new ArrayDeque<>();
+  private final TextTail stderr = new TextTail(STDERR_LINES_TO_KEEP, STDERR_CHARS_TO_KEEP);
 
   /**
    * Creates an Api that sends JSON to a callback.
@@ -101,20 +100,7 @@ public class DaemonApi {
       @Override
       public void onTextAvailable(ProcessEvent event, Key outputType) {
         if (outputType.equals(ProcessOutputTypes.STDERR)) {
-          // Append text to last line in buffer.
-          final String last = stderr.peekLast();
-          if (last != null && !last.endsWith("\n")) {
-            stderr.removeLast();
-            stderr.add(last + event.getText());
-          }
-          else {
-            stderr.add(event.getText());
-          }
-
-          // Trim buffer size.
-          while (stderr.size() > STDERR_LINES_TO_KEEP) {
-            stderr.removeFirst();
-          }
+          stderr.append(event.getText());
         }
         else if (outputType.equals(ProcessOutputTypes.STDOUT)) {
           final String text = event.getText();
@@ -194,6 +180,7 @@ public class DaemonApi {
       if (cmd != null) {
         cmd.completeExceptionally(new IOException("unexpected response: " + json));
       }
+      return;
     }
 
     final JsonElement result = obj.get("result");
@@ -266,8 +253,7 @@ public class DaemonApi {
    * Returns the last lines written to stderr.
    */
   public String getStderrTail() {
-    final String[] lines = stderr.toArray(new String[]{});
-    return String.join("", lines);
+    return stderr.getText();
   }
 
   public static class RestartResult {
@@ -11,24 +11,25 @@ import com.intellij.execution.filters.TextConsoleBuilder;
 import com.intellij.execution.filters.TextConsoleBuilderImpl;
 import com.intellij.execution.filters.UrlFilter;
 import com.intellij.execution.impl.ConsoleViewImpl;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
 import com.intellij.execution.runners.ExecutionEnvironment;
 import com.intellij.execution.ui.ConsoleView;
 import com.intellij.execution.ui.ConsoleViewContentType;
-import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.jetbrains.lang.dart.ide.runner.DartRelativePathsConsoleFilter;
 import io.flutter.settings.FlutterSettings;
-import io.flutter.utils.StdoutJsonParser;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * A console view that filters out JSON messages sent in --machine mode.
+ * <p>
+ * Output goes through a {@link ConsoleOutputPipeline}, which also batches and rate-limits stdout.
  */
 public class DaemonConsoleView extends ConsoleViewImpl {
-  private static final Logger LOG = Logger.getInstance(DaemonConsoleView.class);
-
   /**
    * Sets up a launcher to use a DaemonConsoleView.
    */
@@ -51,13 +52,24 @@ public class DaemonConsoleView extends ConsoleViewImpl {
     launcher.setConsoleBuilder(builder);
   }
 
-  private final StdoutJsonParser stdoutParser = new StdoutJsonParser();
-  private boolean hasPrintedText;
+  private final ConsoleOutputPipeline pipeline = new ConsoleOutputPipeline(super::print);
 
   public DaemonConsoleView(@NotNull final Project project, @NotNull final GlobalSearchScope searchScope) {
     super(project, searchScope, true, false);
   }
 
+  @Override
+  public void attachToProcess(ProcessHandler processHandler) {
+    // Added first, so that the last output comes before anything else printed on termination.
+    processHandler.addProcessListener(new ProcessAdapter() {
+      @Override
+      public void processTerminated(ProcessEvent event) {
+        pipeline.flush();
+      }
+    });
+    super.attachToProcess(processHandler);
+  }
+
   @Override
   public void print(@NotNull String text, @NotNull ConsoleViewContentType contentType) {
     if (FlutterSettings.getInstance().isVerboseLogging()) {
@@ -69,37 +81,6 @@ public class DaemonConsoleView extends ConsoleViewImpl {
       return;
     }
 
-    if (contentType != ConsoleViewContentType.NORMAL_OUTPUT) {
-      stdoutParser.flush();
-      writeAvailableLines();
-
-      super.print(text, contentType);
-    }
-    else {
-      stdoutParser.appendOutput(text);
-      writeAvailableLines();
-    }
-  }
-
-  private void writeAvailableLines() {
-    for (String line : stdoutParser.getAvailableLines()) {
-      final String trimmed = line.trim();
-
-      if (trimmed.startsWith("[{") && trimmed.endsWith("}]")) {
-        LOG.info(trimmed);
-        return;
-      }
-      else {
-        // We're seeing a spurious newline before some launches; this removed any single
-        // newline that occur before we've printed text.
-        if (!hasPrintedText && line.equals(("\n"))) {
-          continue;
-        }
-
-        hasPrintedText = true;
-
-        super.print(line, ConsoleViewContentType.NORMAL_OUTPUT);
-      }
-    }
+    pipeline.print(text, contentType);
   }
 }
@@ -39,7 +39,7 @@ public class DeviceService {
   /**
    * The process used to watch for device list changes (for the device menu). May be null if not running.
    */
-  private final Refreshable<DeviceDaemon> deviceDaemon = new Refreshable<>(DeviceDaemon::shutdown);
+  private final Refreshable<DeviceDaemon> deviceDaemon = new Refreshable<>("DeviceDaemon", DeviceDaemon::shutdown);
 
   private final AtomicReference<DeviceSelection> deviceSelection = new AtomicReference<>(DeviceSelection.EMPTY);
 
@@ -47,6 +47,8 @@ public class DeviceService {
 
   private final AtomicLong lastRestartTime = new AtomicLong(0);
 
+  private static final int REFRESH_DEBOUNCE_MILLIS = 100;
+
   @NotNull
   public static DeviceService getInstance(@NotNull final Project project) {
     return ServiceManager.getService(project, DeviceService.class);
@@ -56,6 +58,8 @@ public class DeviceService {
     this.project = project;
 
     deviceDaemon.setDisposeParent(project);
+    // SDK, workspace and JDK changes tend to arrive together; restart the daemon once.
+    deviceDaemon.setDebounceMillis(REFRESH_DEBOUNCE_MILLIS);
     deviceDaemon.subscribe(this::refreshDeviceSelection);
     refreshDeviceDaemon();
 
@@ -51,6 +51,7 @@ public class FlutterApp {
 
   private @Nullable String myAppId;
   private @Nullable String myWsUrl;
+  private final CompletableFuture<String> myWsUrlFuture = new CompletableFuture<>();
   private @Nullable String myBaseUri;
   private @Nullable ConsoleView myConsole;
 
@@ -94,6 +95,12 @@ public class FlutterApp {
         return myWsUrl;
       }
 
+      @NotNull
+      @Override
+      public CompletableFuture<String> getWebSocketUrlFuture() {
+        return myWsUrlFuture;
+      }
+
       public @Nullable
       String getBrowserUrl() {
         String url = myWsUrl;
@@ -214,6 +221,8 @@ public class FlutterApp {
 
   void setWsUrl(@NotNull String url) {
     myWsUrl = url;
+    // The debugger connects as soon as the app reports its debug port.
+    myWsUrlFuture.complete(url);
   }
 
   void setBaseUri(@NotNull String uri) {
@@ -338,6 +347,9 @@ public class FlutterApp {
     if (oldState == newState) {
       return false; // debounce
     }
+    if (newState == State.TERMINATED) {
+      myWsUrlFuture.cancel(false);
+    }
     if (!myListeners.isEmpty()) {
       // Guard against modification while iterating.
       for (StateListener listener : myListeners.toArray(new StateListener[myListeners.size()])) {
@@ -71,9 +71,12 @@ class FlutterAppListener implements DaemonEvent.Listener {
 
   @Override
   public void onAppDebugPort(@NotNull DaemonEvent.AppDebugPort port) {
+    // Set the base uri first; setting the ws url starts the debugger connecting.
+    setBaseUri(port.baseUri);
     app.setWsUrl(port.wsUri);
+  }
 
-    String uri = port.baseUri;
+  private void setBaseUri(String uri) {
     if (uri == null) return;
 
     if (uri.startsWith("file:")) {
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.run.daemon;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps the end of a stream of text, limited to a number of lines and a number of characters.
+ * <p>
+ * The text is copied into a fixed-size ring of characters, and the positions of recent line endings into
+ * a fixed-size ring of offsets, so appending doesn't allocate. A String is only built by {@link #getText}.
+ * <p>
+ * Thread-safe.
+ */
+class TextTail {
+  private final char[] chars;
+  private final int maxLines;
+
+  /**
+   * The offsets just after the most recent newlines, as a ring indexed by newline count.
+   */
+  private final long[] lineStarts;
+
+  /**
+   * The number of characters appended so far.
+   */
+  private long written;
+
+  /**
+   * The number of newlines appended so far.
+   */
+  private long newlines;
+
+  TextTail(int maxLines, int maxChars) {
+    if (maxLines < 1 || maxChars < 1) {
+      throw new IllegalArgumentException("limits must be positive");
+    }
+    this.chars = new char[maxChars];
+    this.maxLines = maxLines;
+    this.lineStarts = new long[maxLines + 1];
+  }
+
+  synchronized void append(@NotNull CharSequence text) {
+    final int length = text.length();
+    for (int i = 0; i < length; i++) {
+      final char c = text.charAt(i);
+      chars[(int)(written % chars.length)] = c;
+      written++;
+      if (c == '\n') {
+        lineStarts[(int)(newlines % lineStarts.length)] = written;
+        newlines++;
+      }
+    }
+  }
+
+  /**
+   * Returns the last lines appended (including an unfinished last line), within the character limit.
+   */
+  @NotNull
+  synchronized String getText() {
+    long start = Math.max(0, written - chars.length);
+
+    // An unfinished line counts toward the limit, so skip one more line when there is one.
+    final boolean endsWithNewline = newlines > 0 && lineStarts[(int)((newlines - 1) % lineStarts.length)] == written;
+    final long linesToSkip = newlines - (endsWithNewline ? maxLines : maxLines - 1);
+    if (linesToSkip > 0) {
+      start = Math.max(start, lineStarts[(int)((linesToSkip - 1) % lineStarts.length)]);
+    }
+
+    final StringBuilder out = new StringBuilder((int)(written - start));
+    for (long i = start; i < written; i++) {
+      out.append(chars[(int)(i % chars.length)]);
+    }
+    return out.toString();
+  }
+}
@@ -30,6 +30,8 @@ import io.flutter.utils.StdoutJsonParser;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Runs a Flutter test configuration in the debugger.
  */
@@ -94,6 +96,7 @@ public class DebugTestRunner extends GenericProgramRunner {
     private final StdoutJsonParser stdoutParser = new StdoutJsonParser();
     private final ProcessListener listener;
     private String observatoryUri;
+    private final CompletableFuture<String> webSocketUrl = new CompletableFuture<>();
 
     public Connector(ProcessHandler handler) {
       listener = new ProcessAdapter() {
@@ -123,6 +126,7 @@ public class DebugTestRunner extends GenericProgramRunner {
         @Override
         public void processWillTerminate(ProcessEvent event, boolean willBeDestroyed) {
           handler.removeProcessListener(listener);
+          webSocketUrl.cancel(false);
         }
       };
       handler.addProcessListener(listener);
@@ -137,6 +141,12 @@ public class DebugTestRunner extends GenericProgramRunner {
       return observatoryUri.replace("http:", "ws:") + "ws";
     }
 
+    @NotNull
+    @Override
+    public CompletableFuture<String> getWebSocketUrlFuture() {
+      return webSocketUrl;
+    }
+
     @Nullable
     @Override
     public String getBrowserUrl() {
@@ -198,6 +208,10 @@ public class DebugTestRunner extends GenericProgramRunner {
         final JsonPrimitive primUri = params.getAsJsonPrimitive("observatoryUri");
         if (primUri != null) {
           observatoryUri = primUri.getAsString();
+          final String url = getWebSocketUrl();
+          if (url != null) {
+            webSocketUrl.complete(url);
+          }
         }
       }
     }
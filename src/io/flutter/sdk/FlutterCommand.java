@@ -9,6 +9,7 @@ import com.google.common.collect.ImmutableList;
 import com.intellij.execution.ExecutionException;
 import com.intellij.execution.configurations.GeneralCommandLine;
 import com.intellij.execution.process.*;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
@@ -20,12 +21,10 @@ import io.flutter.FlutterInitializer;
 import io.flutter.FlutterMessages;
 import io.flutter.android.IntelliJAndroidSdk;
 import io.flutter.console.FlutterConsoles;
-import io.flutter.dart.DartPlugin;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
@@ -34,6 +33,12 @@ import java.util.function.Consumer;
 public class FlutterCommand {
   private static final Logger LOG = Logger.getInstance(FlutterCommand.class);
 
+  /**
+   * How long a command waits for other flutter commands before giving up.
+   * (A 'flutter upgrade' on a slow network can take a while.)
+   */
+  private static final long QUEUE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
   private static final Set<Type> pubRelatedCommands = new HashSet<>(
     Arrays.asList(Type.PACKAGES_GET, Type.PACKAGES_UPGRADE, Type.UPGRADE));
 
@@ -77,81 +82,76 @@ public class FlutterCommand {
   /**
    * Starts running the command, without showing its output in a console.
    * <p>
-   * If unable to start (for example, if a command is already running), returns null.
+   * If other commands use the same resources, waits for them to finish first. (On the Swing thread, the command
+   * is queued instead; it starts in the background when its turn comes.)
    */
-  public Process start(@Nullable Consumer<ProcessOutput> onDone, @Nullable ProcessListener processListener) {
+  @NotNull
+  public FlutterCommandStartResult start(@Nullable Consumer<ProcessOutput> onDone, @Nullable ProcessListener processListener) {
     // TODO(skybrian) add Project parameter if it turns out later that we need to set ANDROID_HOME.
-    final OSProcessHandler handler = startProcess(null);
-    if (handler == null) {
-      return null;
-    }
-
-    if (processListener != null) {
-      handler.addProcessListener(processListener);
-    }
-
-    // Capture all process output if requested.
-    if (onDone != null) {
-      final CapturingProcessAdapter listener = new CapturingProcessAdapter() {
-        @Override
-        public void processTerminated(@NotNull ProcessEvent event) {
-          super.processTerminated(event);
-          onDone.accept(getOutput());
-        }
-      };
-      handler.addProcessListener(listener);
-    }
+    return startNowOrLater(null, (started) -> {
+      if (processListener != null) {
+        started.addProcessListener(processListener);
+      }
 
-    // Transition to "running" state.
-    handler.startNotify();
+      // Capture all process output if requested.
+      if (onDone != null) {
+        final CapturingProcessAdapter listener = new CapturingProcessAdapter() {
+          @Override
+          public void processTerminated(@NotNull ProcessEvent event) {
+            super.processTerminated(event);
+            onDone.accept(getOutput());
+          }
+        };
+        started.addProcessListener(listener);
+      }
 
-    return handler.getProcess();
+      // Transition to "running" state.
+      started.startNotify();
+    });
   }
 
   /**
    * Starts running the command, showing its output in a non-module console.
    * <p>
    * Shows the output in a tab in the tool window that's not associated
-   * with a particular module. Returns the process.
+   * with a particular module.
    * <p>
-   * If unable to start (for example, if a command is already running), returns null.
+   * If other commands use the same resources, waits for them to finish first. (On the Swing thread, the command
+   * is queued instead; the console appears when it starts.)
    */
-  public Process startInConsole(@NotNull Project project) {
-    final OSProcessHandler handler = startProcess(project);
-    if (handler == null) {
-      return null;
-    }
-    FlutterConsoles.displayProcessLater(handler, project, null, handler::startNotify);
-    return handler.getProcess();
+  @NotNull
+  public FlutterCommandStartResult startInConsole(@NotNull Project project) {
+    return startNowOrLater(
+      project, (started) -> FlutterConsoles.displayProcessLater(started, project, null, started::startNotify));
   }
 
   /**
    * Starts running the command, showing its output in a module console.
    * <p>
    * Shows the output in the tool window's tab corresponding to the passed-in module.
-   * Returns the process.
    * <p>
-   * If unable to start (for example, if a command is already running), returns null.
+   * If other commands use the same resources, waits for them to finish first. (On the Swing thread, the command
+   * is queued instead; the console appears when it starts.)
    */
-  public Process startInModuleConsole(@NotNull Module module, @Nullable Runnable onDone, @Nullable ProcessListener processListener) {
-    final OSProcessHandler handler = startProcess(module.getProject());
-    if (handler == null) {
-      return null;
-    }
-    if (processListener != null) {
-      handler.addProcessListener(processListener);
-    }
-    handler.addProcessListener(new ProcessAdapter() {
-      @Override
-      public void processTerminated(ProcessEvent event) {
-        if (onDone != null) {
-          onDone.run();
-        }
+  @NotNull
+  public FlutterCommandStartResult startInModuleConsole(@NotNull Module module,
+                                                        @Nullable Runnable onDone,
+                                                        @Nullable ProcessListener processListener) {
+    return startNowOrLater(module.getProject(), (started) -> {
+      if (processListener != null) {
+        started.addProcessListener(processListener);
       }
-    });
+      started.addProcessListener(new ProcessAdapter() {
+        @Override
+        public void processTerminated(ProcessEvent event) {
+          if (onDone != null) {
+            onDone.run();
+          }
+        }
+      });
 
-    FlutterConsoles.displayProcessLater(handler, module.getProject(), module, handler::startNotify);
-    return handler.getProcess();
+      FlutterConsoles.displayProcessLater(started, module.getProject(), module, started::startNotify);
+    });
   }
 
   @Override
@@ -160,37 +160,43 @@ public class FlutterCommand {
   }
 
   /**
-   * The currently running command.
+   * Starts a process that runs a flutter command, waiting for other commands using the same resources.
+   * <p>
+   * On the Swing thread, returns null instead of waiting.
    * <p>
-   * We only allow one command to run at a time across all IDEA projects.
+   * Returns the handler if successfully started.
    */
-  private static final AtomicReference<FlutterCommand> inProgress = new AtomicReference<>(null);
+  @Nullable
+  public OSProcessHandler startProcess(boolean sendAnalytics) {
+    final FlutterCommandScheduler.Lease lease = acquire(QUEUE_TIMEOUT_MILLIS, true);
+    if (lease == null) {
+      return null;
+    }
+    return startProcess(null, lease, sendAnalytics);
+  }
 
   /**
-   * Starts a process that runs a flutter command, unless one is already running.
+   * Starts a process that runs a flutter command, waiting up to the given time for other commands using the
+   * same resources.
+   * <p>
+   * On the Swing thread, returns null instead of waiting. Also returns null, without telling the user, if the
+   * command's turn doesn't come before the timeout.
    * <p>
    * Returns the handler if successfully started.
    */
-  public OSProcessHandler startProcess(boolean sendAnalytics) {
-    try {
-      final GeneralCommandLine commandLine = createGeneralCommandLine(null);
-      LOG.info(commandLine.toString());
-      final OSProcessHandler handler = new OSProcessHandler(commandLine);
-      if (sendAnalytics) {
-        type.sendAnalyticsEvent();
-      }
-      return handler;
-    }
-    catch (ExecutionException e) {
-      FlutterMessages.showError(
-        type.title,
-        FlutterBundle.message("flutter.command.exception.message", e.getMessage()));
+  @Nullable
+  OSProcessHandler startProcess(boolean sendAnalytics, long timeoutMillis) {
+    final FlutterCommandScheduler.Lease lease = acquire(timeoutMillis, false);
+    if (lease == null) {
       return null;
     }
+    return startProcess(null, lease, sendAnalytics);
   }
 
   /**
-   * Starts a process that runs a flutter command, unless one is already running.
+   * Starts a process that runs a flutter command, waiting for other commands using the same resources.
+   * <p>
+   * On the Swing thread, returns null instead of waiting.
    * <p>
    * If a project is supplied, it will be used to determine the ANDROID_HOME variable for the subprocess.
    * <p>
@@ -198,37 +204,93 @@ public class FlutterCommand {
    */
   @Nullable
   public OSProcessHandler startProcess(@Nullable Project project) {
-    // TODO(devoncarew): Many flutter commands can legitimately be run in parallel.
-    if (!inProgress.compareAndSet(null, this)) {
+    final FlutterCommandScheduler.Lease lease = acquire(QUEUE_TIMEOUT_MILLIS, true);
+    if (lease == null) {
       return null;
     }
+    return startProcess(project, lease, true);
+  }
 
-    if (isPubRelatedCommand()) {
-      DartPlugin.setPubActionInProgress(true);
+  /**
+   * Starts the process now if this command can run (after waiting for its turn, unless on the Swing thread).
+   * Otherwise, queues it to start on a pooled thread.
+   * <p>
+   * Calls onStart with the handler once the process started; onStart should call {@link OSProcessHandler#startNotify}.
+   */
+  @NotNull
+  private FlutterCommandStartResult startNowOrLater(@Nullable Project project, @NotNull Consumer<OSProcessHandler> onStart) {
+    final FlutterCommandScheduler.Lease lease = acquire(QUEUE_TIMEOUT_MILLIS, true);
+    if (lease != null) {
+      final OSProcessHandler handler = startProcess(project, lease, true);
+      if (handler == null) {
+        return FlutterCommandStartResult.FAILED;
+      }
+      onStart.accept(handler);
+      return FlutterCommandStartResult.started(handler.getProcess());
+    }
+
+    if (!ApplicationManager.getApplication().isDispatchThread()) {
+      return FlutterCommandStartResult.FAILED; // Interrupted or timed out.
     }
 
-    final OSProcessHandler handler;
+    LOG.info("queued '" + getDisplayCommand() + "' until other flutter commands finish");
+    ApplicationManager.getApplication().executeOnPooledThread(() -> {
+      final FlutterCommandScheduler.Lease later = acquire(QUEUE_TIMEOUT_MILLIS, true);
+      if (later == null) return;
+      final OSProcessHandler handler = startProcess(project, later, true);
+      if (handler != null) {
+        onStart.accept(handler);
+      }
+    });
+    return FlutterCommandStartResult.QUEUED;
+  }
+
+  /**
+   * Waits for this command's turn and returns its lease.
+   * <p>
+   * On the Swing thread, returns null instead of waiting. Also returns null if interrupted, or if other commands
+   * still hold the resources after the timeout.
+   */
+  @Nullable
+  private FlutterCommandScheduler.Lease acquire(long timeoutMillis, boolean reportTimeout) {
+    final FlutterCommandScheduler scheduler = FlutterCommandScheduler.getInstance();
+    if (ApplicationManager.getApplication().isDispatchThread()) {
+      return scheduler.tryAcquire(getClaim());
+    }
+    try {
+      final FlutterCommandScheduler.Lease lease = scheduler.acquire(getClaim(), timeoutMillis);
+      if (lease == null && reportTimeout) {
+        FlutterMessages.showError(
+          type.title,
+          FlutterBundle.message("flutter.command.timeout.message", getDisplayCommand()));
+      }
+      return lease;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  @Nullable
+  private OSProcessHandler startProcess(@Nullable Project project, @NotNull FlutterCommandScheduler.Lease lease, boolean sendAnalytics) {
     try {
       final GeneralCommandLine commandLine = createGeneralCommandLine(project);
       LOG.info(commandLine.toString());
-      handler = new OSProcessHandler(commandLine);
+      final OSProcessHandler handler = new OSProcessHandler(commandLine);
       handler.addProcessListener(new ProcessAdapter() {
         @Override
         public void processTerminated(final ProcessEvent event) {
-          inProgress.compareAndSet(FlutterCommand.this, null);
-          if (isPubRelatedCommand()) {
-            DartPlugin.setPubActionInProgress(false);
-          }
+          lease.release();
         }
       });
-      type.sendAnalyticsEvent();
+      if (sendAnalytics) {
+        type.sendAnalyticsEvent();
+      }
       return handler;
     }
     catch (ExecutionException e) {
-      inProgress.compareAndSet(this, null);
-      if (isPubRelatedCommand()) {
-        DartPlugin.setPubActionInProgress(false);
-      }
+      lease.release();
       FlutterMessages.showError(
         type.title,
         FlutterBundle.message("flutter.command.exception.message", e.getMessage()));
@@ -236,6 +298,15 @@ public class FlutterCommand {
     }
   }
 
+  /**
+   * Returns the resources this command uses while it runs.
+   */
+  @NotNull
+  private FlutterCommandScheduler.Claim getClaim() {
+    final String pubRoot = isPubRelatedCommand() && type != Type.UPGRADE ? workDir.getPath() : null;
+    return new FlutterCommandScheduler.Claim(getDisplayCommand(), sdk.getHomePath(), type.changesSdk, pubRoot, isPubRelatedCommand());
+  }
+
   /**
    * Creates the command line to run.
    * <p>
@@ -262,21 +333,30 @@ public class FlutterCommand {
   }
 
   enum Type {
-    CONFIG("Flutter config", "config"),
-    CREATE("Flutter create", "create"),
-    DOCTOR("Flutter doctor", "doctor"),
-    PACKAGES_GET("Flutter packages get", "packages", "get"),
-    PACKAGES_UPGRADE("Flutter packages upgrade", "packages", "upgrade"),
-    UPGRADE("Flutter upgrade", "upgrade"),
-    VERSION("Flutter version", "--version"),
-    RUN("Flutter run", "run"),
-    TEST("Flutter test", "test");
+    CONFIG("Flutter config", false, "config"),
+    CREATE("Flutter create", false, "create"),
+    DOCTOR("Flutter doctor", false, "doctor"),
+    PACKAGES_GET("Flutter packages get", false, "packages", "get"),
+    PACKAGES_UPGRADE("Flutter packages upgrade", false, "packages", "upgrade"),
+    UPGRADE("Flutter upgrade", true, "upgrade"),
+    // Downloads the Dart SDK and other artifacts if they're missing. The flutter tool locks its cache while
+    // downloading, so this doesn't need the SDK to itself.
+    VERSION("Flutter version", false, "--version"),
+    RUN("Flutter run", false, "run"),
+    TEST("Flutter test", false, "test");
 
     final public String title;
+
+    /**
+     * True if the command modifies the Flutter SDK, so no other command using the SDK may run at the same time.
+     */
+    final boolean changesSdk;
+
     final ImmutableList<String> subCommand;
 
-    Type(String title, String... subCommand) {
+    Type(String title, boolean changesSdk, String... subCommand) {
       this.title = title;
+      this.changesSdk = changesSdk;
       this.subCommand = ImmutableList.copyOf(subCommand);
     }
 
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.sdk;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.diagnostic.Logger;
+import io.flutter.dart.DartPlugin;
+import io.flutter.settings.FlutterSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+
+/**
+ * Decides when flutter commands may run, across all open projects.
+ * <p>
+ * Each command claims the resources it touches:
+ * <ul>
+ * <li>Every command uses its Flutter SDK. Commands that change the SDK (like 'flutter upgrade') need it exclusively;
+ * the rest share it.</li>
+ * <li>Pub commands also lock their pub root, so that two 'packages get' can't run in the same directory.</li>
+ * </ul>
+ * Commands whose claims don't conflict run in parallel, up to a limit set in {@link FlutterSettings}.
+ * A command that can't start yet waits in line (for a limited time); once an exclusive claim on an SDK is
+ * waiting, new shared claims on that SDK wait behind it.
+ */
+public class FlutterCommandScheduler {
+  private static final Logger LOG = Logger.getInstance(FlutterCommandScheduler.class);
+
+  private static final FlutterCommandScheduler instance =
+    new FlutterCommandScheduler(() -> FlutterSettings.getInstance().getMaxConcurrentCommands());
+
+  @NotNull private final IntSupplier maxRunning;
+
+  // All fields below should be accessed while synchronized on this scheduler.
+
+  private int running;
+  private int waiting;
+  private int pubRunning;
+
+  /**
+   * The number of running commands sharing each SDK, by home path.
+   */
+  private final Map<String, Integer> sharedSdks = new HashMap<>();
+
+  private final Set<String> exclusiveSdks = new HashSet<>();
+
+  /**
+   * The number of waiting commands that need each SDK exclusively, by home path.
+   */
+  private final Map<String, Integer> exclusiveWaiting = new HashMap<>();
+
+  private final Set<String> lockedPubRoots = new HashSet<>();
+
+  private long started;
+  private long delayed;
+  private long totalWaitNanos;
+  private long maxWaitNanos;
+
+  @VisibleForTesting
+  FlutterCommandScheduler(@NotNull IntSupplier maxRunning) {
+    this.maxRunning = maxRunning;
+  }
+
+  @NotNull
+  public static FlutterCommandScheduler getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns a lease for the claim if it can start now, otherwise null.
+   */
+  @Nullable
+  synchronized Lease tryAcquire(@NotNull Claim claim) {
+    if (!canStart(claim)) {
+      return null;
+    }
+    return start(claim, 0);
+  }
+
+  /**
+   * Waits until the claim can start, then returns its lease.
+   * <p>
+   * Returns null if the claim still can't start after the timeout.
+   */
+  @Nullable
+  Lease acquire(@NotNull Claim claim, long timeoutMillis) throws InterruptedException {
+    final long startNanos = System.nanoTime();
+    final long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    synchronized (this) {
+      if (canStart(claim)) {
+        return start(claim, 0);
+      }
+
+      waiting++;
+      if (claim.exclusive) {
+        exclusiveWaiting.merge(claim.sdkHome, 1, Integer::sum);
+      }
+      try {
+        while (!canStart(claim)) {
+          final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+          if (remainingMillis <= 0) {
+            LOG.info("'" + claim.description + "' gave up after waiting " + timeoutMillis + "ms for other flutter commands");
+            return null;
+          }
+          wait(remainingMillis);
+        }
+      }
+      finally {
+        waiting--;
+        if (claim.exclusive) {
+          exclusiveWaiting.computeIfPresent(claim.sdkHome, (k, n) -> n == 1 ? null : n - 1);
+        }
+        // Another waiter may be able to start now that this one stopped waiting.
+        notifyAll();
+      }
+
+      final long waitNanos = System.nanoTime() - startNanos;
+      LOG.info("'" + claim.description + "' waited " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms for other flutter commands");
+      return start(claim, waitNanos);
+    }
+  }
+
+  /**
+   * The number of commands waiting for their turn.
+   */
+  public synchronized int getQueueDepth() {
+    return waiting;
+  }
+
+  public synchronized int getRunning() {
+    return running;
+  }
+
+  /**
+   * The average time commands that had to wait spent in line, in milliseconds.
+   */
+  public synchronized double getMeanWaitMillis() {
+    return delayed == 0 ? 0 : totalWaitNanos / 1e6 / delayed;
+  }
+
+  public synchronized double getMaxWaitMillis() {
+    return maxWaitNanos / 1e6;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("flutter commands: %d running, %d waiting; %d started, %d waited (mean %.1fms, max %.1fms)",
+                         running, waiting, started, delayed, getMeanWaitMillis(), getMaxWaitMillis());
+  }
+
+  private boolean canStart(@NotNull Claim claim) {
+    if (running >= Math.max(1, maxRunning.getAsInt())) {
+      return false;
+    }
+    if (exclusiveSdks.contains(claim.sdkHome)) {
+      return false;
+    }
+    if (claim.exclusive) {
+      if (sharedSdks.containsKey(claim.sdkHome)) return false;
+    }
+    else if (exclusiveWaiting.containsKey(claim.sdkHome)) {
+      // Don't starve a waiting upgrade.
+      return false;
+    }
+    return claim.pubRoot == null || !lockedPubRoots.contains(claim.pubRoot);
+  }
+
+  @NotNull
+  private Lease start(@NotNull Claim claim, long waitNanos) {
+    running++;
+    started++;
+    if (waitNanos > 0) {
+      delayed++;
+      totalWaitNanos += waitNanos;
+      maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+    }
+
+    if (claim.exclusive) {
+      exclusiveSdks.add(claim.sdkHome);
+    }
+    else {
+      sharedSdks.merge(claim.sdkHome, 1, Integer::sum);
+    }
+    if (claim.pubRoot != null) {
+      lockedPubRoots.add(claim.pubRoot);
+    }
+    if (claim.pub && pubRunning++ == 0) {
+      DartPlugin.setPubActionInProgress(true);
+    }
+    return new Lease(claim);
+  }
+
+  private synchronized void release(@NotNull Claim claim) {
+    running--;
+    if (claim.exclusive) {
+      exclusiveSdks.remove(claim.sdkHome);
+    }
+    else {
+      sharedSdks.computeIfPresent(claim.sdkHome, (k, n) -> n == 1 ? null : n - 1);
+    }
+    if (claim.pubRoot != null) {
+      lockedPubRoots.remove(claim.pubRoot);
+    }
+    if (claim.pub && --pubRunning == 0) {
+      DartPlugin.setPubActionInProgress(false);
+    }
+    notifyAll();
+  }
+
+  /**
+   * The resources one command needs.
+   */
+  static class Claim {
+    @NotNull final String description;
+    @NotNull final String sdkHome;
+    final boolean exclusive;
+
+    /**
+     * The pub root to lock, or null if the command doesn't run pub.
+     */
+    @Nullable final String pubRoot;
+
+    /**
+     * True if the Dart plugin should consider a pub action in progress while the command runs.
+     */
+    final boolean pub;
+
+    Claim(@NotNull String description, @NotNull String sdkHome, boolean exclusive, @Nullable String pubRoot, boolean pub) {
+      this.description = description;
+      this.sdkHome = sdkHome;
+      this.exclusive = exclusive;
+      this.pubRoot = pubRoot;
+      this.pub = pub;
+    }
+  }
+
+  /**
+   * Permission for one command to run. It should be released when the command's process terminates.
+   */
+  class Lease {
+    @NotNull private final Claim claim;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Lease(@NotNull Claim claim) {
+      this.claim = claim;
+    }
+
+    /**
+     * Releases the claim. Does nothing if called again.
+     */
+    void release() {
+      if (released.compareAndSet(false, true)) {
+        FlutterCommandScheduler.this.release(claim);
+      }
+    }
+  }
+}
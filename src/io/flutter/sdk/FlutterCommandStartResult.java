@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.sdk;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * What happened when a {@link FlutterCommand} was asked to start.
+ */
+public class FlutterCommandStartResult {
+  public enum Status {
+    /**
+     * The process is running.
+     */
+    STARTED,
+
+    /**
+     * Other flutter commands are using the same resources, so the command will start in the background when they finish.
+     */
+    QUEUED,
+
+    /**
+     * The command couldn't start (already reported to the user), or gave up waiting for its turn.
+     */
+    FAILED
+  }
+
+  static final FlutterCommandStartResult QUEUED = new FlutterCommandStartResult(Status.QUEUED, null);
+  static final FlutterCommandStartResult FAILED = new FlutterCommandStartResult(Status.FAILED, null);
+
+  @NotNull public final Status status;
+
+  /**
+   * The running process, if started.
+   */
+  @Nullable public final Process process;
+
+  private FlutterCommandStartResult(@NotNull Status status, @Nullable Process process) {
+    this.status = status;
+    this.process = process;
+  }
+
+  @NotNull
+  static FlutterCommandStartResult started(@NotNull Process process) {
+    return new FlutterCommandStartResult(Status.STARTED, process);
+  }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.sdk;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.*;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The values reported by 'flutter config --machine' for one Flutter SDK.
+ * <p>
+ * Starting the flutter tool takes seconds, so callers never wait for it. The values are saved
+ * in the IDE's properties (keyed by SDK home) along with the SDK revision they came from, and
+ * {@link #get} returns the saved values immediately. If they came from another revision or are
+ * more than a day old, the first lookup starts 'flutter config' in the background; if the
+ * values it reports are different, they're saved and subscribers are notified.
+ * <p>
+ * Until the first refresh finishes, there may be no value (or a value from an older revision).
+ * If a refresh fails, a later lookup tries again, waiting longer after each failure.
+ */
+public class FlutterConfigCache {
+  private static final Logger LOG = Logger.getInstance(FlutterConfigCache.class);
+
+  private static final String PROPERTY_PREFIX = "io.flutter.config.";
+
+  /**
+   * How long to wait for 'flutter config' in the background. (The first run after an upgrade rebuilds the tool.)
+   */
+  private static final int TIMEOUT_MILLIS = 60000;
+
+  /**
+   * How long saved values are used without checking them again (for example, in case Android Studio was installed).
+   */
+  private static final long MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
+  /**
+   * How long to wait before retrying after the first failed refresh. Doubles with each failure.
+   */
+  private static final long MIN_RETRY_DELAY_MILLIS = 60 * 1000;
+  private static final long MAX_RETRY_DELAY_MILLIS = 60 * 60 * 1000;
+
+  @NotNull private final FlutterSdk sdk;
+
+  /**
+   * The last values seen, or null if they haven't been loaded from the properties yet.
+   */
+  @Nullable private volatile Snapshot snapshot;
+
+  /**
+   * True once the values were refreshed (or found to be fresh) for this SDK instance.
+   * <p>
+   * (The FlutterSdkRegistry creates a new instance when the SDK's VERSION file changes.)
+   */
+  private volatile boolean upToDate;
+
+  /**
+   * True while a background refresh is running.
+   */
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+
+  /**
+   * The number of refreshes that failed in a row, and when the next one may start.
+   * <p>
+   * Access should be synchronized on this cache.
+   */
+  private int failures;
+  private long retryAtMillis;
+
+  private final Set<Runnable> listeners = new CopyOnWriteArraySet<>();
+
+  FlutterConfigCache(@NotNull FlutterSdk sdk) {
+    this.sdk = sdk;
+  }
+
+  /**
+   * Returns the last known value for a config key, without waiting for the flutter tool.
+   * <p>
+   * Starts a background refresh if the saved values are stale.
+   */
+  @Nullable
+  public String get(@NotNull String key) {
+    final Snapshot current = load();
+    refreshIfStale(current);
+    return current.values.get(key);
+  }
+
+  /**
+   * Starts refreshing the values in the background if the saved values are stale.
+   */
+  public void prefetch() {
+    refreshIfStale(load());
+  }
+
+  /**
+   * Runs 'flutter config' and returns the updated value.
+   * <p>
+   * Waits at most five seconds in all, including any wait for other flutter commands to finish. If 'flutter config'
+   * doesn't finish in time or fails, returns the last saved value instead (which may be null).
+   * <p>
+   * This blocks, so it shouldn't be called on the Swing dispatch thread.
+   */
+  @Nullable
+  public String refreshAndGet(@NotNull String key) {
+    if (!refresh(5000)) {
+      LOG.info("flutter config --machine didn't finish; using the saved value of " + key);
+    }
+    return load().values.get(key);
+  }
+
+  /**
+   * Calls the callback (on a background thread) whenever a refresh finds different values.
+   */
+  public void subscribe(@NotNull Runnable callback) {
+    listeners.add(callback);
+  }
+
+  public void unsubscribe(@NotNull Runnable callback) {
+    listeners.remove(callback);
+  }
+
+  private void refreshIfStale(@NotNull Snapshot current) {
+    final long now = System.currentTimeMillis();
+    if (upToDate || !isRetryDue(now) || !refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    if (current.isFresh(readRevision(), now)) {
+      upToDate = true;
+      refreshing.set(false);
+      return;
+    }
+    AppExecutorUtil.getAppExecutorService().submit(() -> {
+      try {
+        refresh(TIMEOUT_MILLIS);
+      }
+      finally {
+        refreshing.set(false);
+      }
+    });
+  }
+
+  private synchronized boolean isRetryDue(long now) {
+    return now >= retryAtMillis;
+  }
+
+  private synchronized void onRefreshFailed() {
+    failures++;
+    final long delay = getRetryDelayMillis(failures);
+    retryAtMillis = System.currentTimeMillis() + delay;
+    LOG.info("flutter config --machine failed " + failures + " time(s); will try again in " + delay / 1000 + "s");
+  }
+
+  private synchronized void onRefreshSucceeded() {
+    upToDate = true;
+    failures = 0;
+    retryAtMillis = 0;
+  }
+
+  /**
+   * Returns how long to wait before refreshing again after the given number of failures in a row.
+   */
+  @VisibleForTesting
+  static long getRetryDelayMillis(int failures) {
+    if (failures <= 0) return 0;
+    // Stop doubling before the shift could overflow.
+    final int doublings = Math.min(failures - 1, 20);
+    return Math.min(MAX_RETRY_DELAY_MILLIS, MIN_RETRY_DELAY_MILLIS << doublings);
+  }
+
+  @NotNull
+  private Snapshot load() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      current = Snapshot.parse(PropertiesComponent.getInstance().getValue(getPropertyName()));
+      snapshot = current;
+    }
+    return current;
+  }
+
+  /**
+   * Runs 'flutter config' and saves the values it reports.
+   *
+   * @return true if the values were updated.
+   */
+  private boolean refresh(int timeoutMillis) {
+    final String revision = readRevision();
+    final JsonObject output = runFlutterConfig(timeoutMillis);
+    if (output == null) {
+      // Keep the old values; a later lookup tries again.
+      onRefreshFailed();
+      return false;
+    }
+    onRefreshSucceeded();
+
+    final Snapshot next = Snapshot.fromJson(revision, System.currentTimeMillis(), output);
+    final Snapshot previous = load();
+    snapshot = next;
+
+    PropertiesComponent.getInstance().setValue(getPropertyName(), next.toJson());
+    if (!next.values.equals(previous.values)) {
+      for (Runnable listener : listeners) {
+        try {
+          listener.run();
+        }
+        catch (Exception e) {
+          LOG.error("Uncaught exception in flutter config listener", e);
+        }
+      }
+    }
+    return true;
+  }
+
+  @NotNull
+  private String getPropertyName() {
+    return PROPERTY_PREFIX + sdk.getHomePath();
+  }
+
+  /**
+   * Returns a string that changes whenever the SDK is upgraded.
+   * <p>
+   * This is the revision of the last flutter tool build, falling back to the VERSION file.
+   */
+  @NotNull
+  private String readRevision() {
+    final File stamp = new File(sdk.getHomePath() + "/bin/cache/flutter_tools.stamp");
+    if (stamp.isFile()) {
+      try {
+        return FileUtil.loadFile(stamp).trim();
+      }
+      catch (IOException e) {
+        // Fall through.
+      }
+    }
+    return sdk.getVersion().toString();
+  }
+
+  /**
+   * Runs 'flutter config --machine' and returns its output, or null if it didn't finish successfully.
+   * <p>
+   * The timeout covers both waiting for other flutter commands and running this one.
+   */
+  @Nullable
+  private JsonObject runFlutterConfig(int timeoutMillis) {
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    final FlutterCommand command = sdk.flutterConfig("--machine");
+    final OSProcessHandler process = command.startProcess(false, timeoutMillis);
+    if (process == null) {
+      LOG.info("Unable to start flutter config --machine (other flutter commands may be running)");
+      return null;
+    }
+
+    final StringBuilder stdout = new StringBuilder();
+    process.addProcessListener(new ProcessAdapter() {
+      boolean hasSeenStartingBrace = false;
+
+      @Override
+      public void onTextAvailable(ProcessEvent event, Key outputType) {
+        // {"android-studio-dir":"/Applications/Android Studio 3.0 Preview.app/Contents"}
+        if (outputType == ProcessOutputTypes.STDOUT) {
+          // Ignore any non-json starting lines (like "Building flutter tool...").
+          if (event.getText().startsWith("{")) {
+            hasSeenStartingBrace = true;
+          }
+          if (hasSeenStartingBrace) {
+            stdout.append(event.getText());
+          }
+        }
+      }
+    });
+
+    LOG.info("Calling config --machine");
+    final long start = System.currentTimeMillis();
+
+    process.startNotify();
+
+    if (!process.waitFor(Math.max(1, deadline - start))) {
+      LOG.info("Timeout when calling flutter config --machine");
+      return null;
+    }
+
+    final long duration = System.currentTimeMillis() - start;
+    LOG.info("flutter config --machine: " + duration + "ms");
+
+    final Integer code = process.getExitCode();
+    if (code == null || code != 0) {
+      LOG.info("Exit code from flutter config --machine: " + code);
+      return null;
+    }
+
+    try {
+      final JsonElement elem = new JsonParser().parse(stdout.toString());
+      return elem.isJsonObject() ? elem.getAsJsonObject() : null;
+    }
+    catch (JsonSyntaxException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The config values reported by one SDK revision.
+   */
+  @VisibleForTesting
+  static class Snapshot {
+    private static final Snapshot EMPTY = new Snapshot("", 0, ImmutableMap.of());
+
+    @NotNull final String revision;
+
+    /**
+     * When 'flutter config' reported these values, in milliseconds since the epoch (or 0 if never).
+     */
+    final long savedMillis;
+
+    @NotNull final ImmutableMap<String, String> values;
+
+    Snapshot(@NotNull String revision, long savedMillis, @NotNull Map<String, String> values) {
+      this.revision = revision;
+      this.savedMillis = savedMillis;
+      this.values = ImmutableMap.copyOf(values);
+    }
+
+    /**
+     * Returns true if these values came from the given revision and aren't too old to use without checking.
+     */
+    boolean isFresh(@NotNull String currentRevision, long nowMillis) {
+      if (savedMillis <= 0 || !revision.equals(currentRevision)) {
+        return false;
+      }
+      final long age = nowMillis - savedMillis;
+      return age >= 0 && age < MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Converts the output of 'flutter config --machine', skipping values that aren't strings.
+     */
+    @NotNull
+    static Snapshot fromJson(@NotNull String revision, long savedMillis, @NotNull JsonObject output) {
+      final ImmutableMap.Builder<String, String> values = ImmutableMap.builder();
+      for (Map.Entry<String, JsonElement> entry : output.entrySet()) {
+        final JsonElement value = entry.getValue();
+        if (value.isJsonPrimitive()) {
+          values.put(entry.getKey(), value.getAsString());
+        }
+      }
+      return new Snapshot(revision, savedMillis, values.build());
+    }
+
+    /**
+     * Reads a snapshot saved by {@link #toJson}, returning an empty snapshot if there isn't a valid one.
+     */
+    @NotNull
+    static Snapshot parse(@Nullable String saved) {
+      if (saved == null) {
+        return EMPTY;
+      }
+      try {
+        final JsonElement elem = new JsonParser().parse(saved);
+        if (!elem.isJsonObject()) return EMPTY;
+        final JsonObject obj = elem.getAsJsonObject();
+        final JsonElement revision = obj.get("revision");
+        final JsonElement savedAt = obj.get("saved");
+        final JsonElement values = obj.get("values");
+        if (revision == null || !revision.isJsonPrimitive() || savedAt == null || !savedAt.isJsonPrimitive() ||
+            values == null || !values.isJsonObject()) {
+          return EMPTY;
+        }
+        return fromJson(revision.getAsString(), savedAt.getAsLong(), values.getAsJsonObject());
+      }
+      catch (JsonParseException | NumberFormatException e) {
+        return EMPTY;
+      }
+    }
+
+    @NotNull
+    String toJson() {
+      final JsonObject values = new JsonObject();
+      for (Map.Entry<String, String> entry : this.values.entrySet()) {
+        values.addProperty(entry.getKey(), entry.getValue());
+      }
+      final JsonObject obj = new JsonObject();
+      obj.addProperty("revision", revision);
+      obj.addProperty("saved", savedMillis);
+      obj.add("values", values);
+      return obj.toString();
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.sdk;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.execution.process.CapturingProcessAdapter;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import io.flutter.console.FlutterConsoles;
+import io.flutter.pub.PubRoot;
+import io.flutter.settings.FlutterSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs 'flutter packages get' (or upgrade) in every pub root of a project.
+ * <p>
+ * Up to a fixed number of roots are processed at once (by default, the limit from {@link FlutterSettings}).
+ * For 'get', roots whose packages are already up to date are skipped. Each root's output is printed to the
+ * project's Flutter console as one section when it finishes, followed by a summary of how long each root took.
+ * <p>
+ * Finding the pub roots and checking which are up to date happens on a pooled thread, since that means
+ * visiting every content root in the project; the Swing dispatch thread is only used to show the console.
+ */
+public class FlutterPackagesPipeline {
+  private static final Logger LOG = Logger.getInstance(FlutterPackagesPipeline.class);
+
+  @NotNull private final FlutterSdk sdk;
+  @NotNull private final Project project;
+  private final boolean upgrade;
+  private final int parallelism;
+
+  private final Queue<PubRoot> todo = new ConcurrentLinkedQueue<>();
+  private final List<Result> results = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicInteger activeWorkers = new AtomicInteger();
+  private long startMillis;
+
+  private FlutterPackagesPipeline(@NotNull FlutterSdk sdk, @NotNull Project project, boolean upgrade, int parallelism) {
+    this.sdk = sdk;
+    this.project = project;
+    this.upgrade = upgrade;
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Starts running 'flutter packages get' in each of the project's pub roots that needs it.
+   */
+  public static void startGet(@NotNull FlutterSdk sdk, @NotNull Project project) {
+    start(sdk, project, false);
+  }
+
+  /**
+   * Starts running 'flutter packages upgrade' in each of the project's pub roots.
+   */
+  public static void startUpgrade(@NotNull FlutterSdk sdk, @NotNull Project project) {
+    start(sdk, project, true);
+  }
+
+  private static void start(@NotNull FlutterSdk sdk, @NotNull Project project, boolean upgrade) {
+    final int parallelism = FlutterSettings.getInstance().getMaxConcurrentCommands();
+    final FlutterPackagesPipeline pipeline = new FlutterPackagesPipeline(sdk, project, upgrade, parallelism);
+    FlutterConsoles.displayLater(project, null, pipeline::run);
+  }
+
+  private void run(@NotNull ConsoleView view) {
+    startMillis = System.currentTimeMillis();
+    AppExecutorUtil.getAppExecutorService().submit(() -> {
+      try {
+        startWorkers(view);
+      }
+      catch (Exception e) {
+        LOG.error("Uncaught exception while finding pub roots", e);
+      }
+    });
+  }
+
+  /**
+   * Decides which pub roots need the command and starts the workers. Runs on a pooled thread.
+   */
+  private void startWorkers(@NotNull ConsoleView view) {
+    if (project.isDisposed()) return;
+
+    final List<PubRoot> roots = ApplicationManager.getApplication().runReadAction(
+      (Computable<List<PubRoot>>)() -> project.isDisposed() ? Collections.emptyList() : PubRoot.multipleForProject(project));
+    for (PubRoot root : roots) {
+      if (!upgrade && root.hasUpToDatePackages()) {
+        results.add(new Result(root.getPath(), Status.SKIPPED, 0, null));
+      }
+      else {
+        todo.add(root);
+      }
+    }
+
+    view.print(getCommandName() + " in " + todo.size() + " of " + roots.size() + " pub roots" +
+               " (" + parallelism + " at a time)\n\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+
+    final int workers = Math.min(parallelism, todo.size());
+    if (workers == 0) {
+      printSummary(view);
+      return;
+    }
+    activeWorkers.set(workers);
+    for (int i = 0; i < workers; i++) {
+      AppExecutorUtil.getAppExecutorService().submit(() -> work(view));
+    }
+  }
+
+  /**
+   * Runs the command in pub roots from the queue until it's empty; the last worker to finish prints the summary.
+   */
+  private void work(@NotNull ConsoleView view) {
+    try {
+      for (PubRoot root = todo.poll(); root != null; root = todo.poll()) {
+        if (project.isDisposed()) return;
+        final Result result = runInRoot(root);
+        results.add(result);
+        printSection(view, result);
+      }
+    }
+    catch (Exception e) {
+      LOG.error("Uncaught exception while getting packages", e);
+    }
+    finally {
+      if (activeWorkers.decrementAndGet() == 0 && !project.isDisposed()) {
+        printSummary(view);
+      }
+    }
+  }
+
+  @NotNull
+  private Result runInRoot(@NotNull PubRoot root) {
+    final FlutterCommand command = upgrade ? sdk.flutterPackagesUpgrade(root) : sdk.flutterPackagesGet(root);
+
+    // Waits for other commands using this pub root (or changing the SDK) to finish.
+    final OSProcessHandler handler = command.startProcess(project);
+    if (handler == null) {
+      return new Result(root.getPath(), Status.FAILED, 0, null);
+    }
+
+    final long start = System.currentTimeMillis();
+    final CapturingProcessAdapter capture = new CapturingProcessAdapter();
+    handler.addProcessListener(capture);
+    handler.startNotify();
+    handler.waitFor();
+    final long duration = System.currentTimeMillis() - start;
+
+    // Let the Dart plugin see the new .packages file.
+    root.refresh();
+
+    final ProcessOutput output = capture.getOutput();
+    final Status status = output.getExitCode() == 0 ? Status.SUCCEEDED : Status.FAILED;
+    return new Result(root.getPath(), status, duration, output);
+  }
+
+  private void printSection(@NotNull ConsoleView view, @NotNull Result result) {
+    final StringBuilder out = new StringBuilder();
+    out.append("[").append(result.path).append("]\n");
+    if (result.output != null) {
+      out.append(result.output.getStdout());
+      if (!result.output.getStdout().endsWith("\n")) out.append("\n");
+    }
+
+    synchronized (view) {
+      view.print(out.toString(), ConsoleViewContentType.NORMAL_OUTPUT);
+      if (result.output != null && !result.output.getStderr().isEmpty()) {
+        view.print(result.output.getStderr(), ConsoleViewContentType.ERROR_OUTPUT);
+      }
+      view.print(describe(result) + "\n\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+    }
+  }
+
+  private void printSummary(@NotNull ConsoleView view) {
+    final List<Result> finished;
+    synchronized (results) {
+      finished = new ArrayList<>(results);
+    }
+    view.print(summarize(getCommandName(), finished, System.currentTimeMillis() - startMillis), ConsoleViewContentType.SYSTEM_OUTPUT);
+  }
+
+  @NotNull
+  private String getCommandName() {
+    return upgrade ? "flutter packages upgrade" : "flutter packages get";
+  }
+
+  /**
+   * Returns a summary of the results: one line per pub root, slowest first, then totals.
+   */
+  @VisibleForTesting
+  @NotNull
+  static String summarize(@NotNull String commandName, @NotNull List<Result> results, long elapsedMillis) {
+    final List<Result> sorted = new ArrayList<>(results);
+    sorted.sort((a, b) -> Long.compare(b.durationMillis, a.durationMillis));
+
+    final StringBuilder out = new StringBuilder();
+    out.append("Summary of ").append(commandName).append(":\n");
+    int failed = 0;
+    long totalMillis = 0;
+    for (Result result : sorted) {
+      out.append("  ").append(result.path).append(": ").append(describe(result)).append("\n");
+      if (result.status == Status.FAILED) failed++;
+      totalMillis += result.durationMillis;
+    }
+    out.append(String.format("%d pub roots, %d failed; %.1fs elapsed (%.1fs of command time)\n",
+                             results.size(), failed, elapsedMillis / 1000.0, totalMillis / 1000.0));
+    return out.toString();
+  }
+
+  @NotNull
+  private static String describe(@NotNull Result result) {
+    switch (result.status) {
+      case SKIPPED:
+        return "skipped (packages are up to date)";
+      case SUCCEEDED:
+        return String.format("done in %.1fs", result.durationMillis / 1000.0);
+      default:
+        if (result.output == null) {
+          return "failed to start";
+        }
+        return String.format("failed with exit code %d after %.1fs", result.output.getExitCode(), result.durationMillis / 1000.0);
+    }
+  }
+
+  @VisibleForTesting
+  enum Status {
+    SKIPPED, SUCCEEDED, FAILED
+  }
+
+  @VisibleForTesting
+  static class Result {
+    @NotNull final String path;
+    @NotNull final Status status;
+    final long durationMillis;
+    @Nullable final ProcessOutput output;
+
+    Result(@NotNull String path, @NotNull Status status, long durationMillis, @Nullable ProcessOutput output) {
+      this.path = path;
+      this.status = status;
+      this.durationMillis = durationMillis;
+      this.output = output;
+    }
+  }
+}
@@ -8,34 +8,63 @@ package io.flutter.sdk;
 import com.intellij.ProjectTopics;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
-import com.intellij.openapi.application.WriteAction;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
-import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.*;
 import com.intellij.openapi.roots.impl.libraries.LibraryEx;
 import com.intellij.openapi.roots.impl.libraries.LibraryTableBase;
 import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
 import com.intellij.openapi.roots.libraries.Library;
-import com.intellij.openapi.roots.libraries.LibraryTable;
 import com.intellij.openapi.roots.libraries.LibraryTablesRegistrar;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.*;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.jetbrains.lang.dart.util.DotPackagesFileUtil;
 import io.flutter.pub.PubRoot;
+import io.flutter.pub.PubspecInfo;
 import io.flutter.utils.FlutterModuleUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.jetbrains.lang.dart.util.PubspecYamlUtil.PUBSPEC_YAML;
 
+/**
+ * Keeps the "Flutter Plugins" project library in sync with the Flutter plugins that a project's pub roots depend on.
+ * <p>
+ * The plugins are found on a background thread. Only the list of modules and .packages files is taken in a read
+ * action; the files themselves are parsed outside it, so that write actions don't wait for that. Each .packages file
+ * is only re-read when its modification stamp changes. Whether a package is a plugin is looked up on every update
+ * through {@link PubspecInfo}, which only parses a pubspec again when its own modification stamp changes; editing
+ * a pubspec also schedules an update. Any edits to the library and to module dependencies are then applied together
+ * in one write action, touching only what's different.
+ */
 public class FlutterPluginsLibraryManager {
   private final Project project;
 
-  private final AtomicBoolean isUpdating = new AtomicBoolean(false);
+  /**
+   * True when an update was scheduled but didn't start yet.
+   */
+  private final AtomicBoolean isUpdateQueued = new AtomicBoolean(false);
+
+  /**
+   * The packages listed in each .packages file, by file path.
+   * <p>
+   * Access should be synchronized on this manager. (Only the update thread uses it.)
+   */
+  private final Map<String, PackagesEntry> packagesFiles = new HashMap<>();
+
+  /**
+   * Package lib directories that are known to belong to a pub root, by path.
+   * <p>
+   * Only holds the packages listed in the current .packages files.
+   * Access should be synchronized on this manager.
+   */
+  private final Map<String, PackageEntry> packages = new HashMap<>();
 
   public FlutterPluginsLibraryManager(@NotNull Project project) {
     this.project = project;
@@ -64,9 +93,15 @@ public class FlutterPluginsLibraryManager {
   }
 
   private void fileChanged(@NotNull final Project project, @NotNull final VirtualFile file) {
-    if (!DotPackagesFileUtil.DOT_PACKAGES.equals(file.getName())) return;
     if (LocalFileSystem.getInstance() != file.getFileSystem() && !ApplicationManager.getApplication().isUnitTestMode()) return;
 
+    if (PUBSPEC_YAML.equals(file.getName())) {
+      // A package may have become (or stopped being) a plugin.
+      scheduleUpdate();
+      return;
+    }
+    if (!DotPackagesFileUtil.DOT_PACKAGES.equals(file.getName())) return;
+
     final VirtualFile parent = file.getParent();
     final VirtualFile pubspec = parent == null ? null : parent.findChild(PUBSPEC_YAML);
 
@@ -76,178 +111,350 @@ public class FlutterPluginsLibraryManager {
   }
 
   private void scheduleUpdate() {
-    if (isUpdating.get()) {
+    if (!isUpdateQueued.compareAndSet(false, true)) {
       return;
     }
-
-    final Runnable runnable = this::updateFlutterPlugins;
-    DumbService.getInstance(project).smartInvokeLater(runnable, ModalityState.NON_MODAL);
+    AppExecutorUtil.getAppExecutorService().submit(this::updateFlutterPlugins);
   }
 
-  private void updateFlutterPlugins() {
-    if (!isUpdating.compareAndSet(false, true)) {
+  /**
+   * Finds the plugins on a background thread, then applies any changes on the Swing thread.
+   * <p>
+   * Synchronized so that only one update computes at a time; updates requested meanwhile are merged into one.
+   */
+  private synchronized void updateFlutterPlugins() {
+    isUpdateQueued.set(false);
+    if (project.isDisposed()) {
       return;
     }
 
-    try {
-      updateFlutterPluginsImpl();
-    }
-    finally {
-      isUpdating.set(false);
+    final ProjectState state = ApplicationManager.getApplication().runReadAction((Computable<ProjectState>)() -> {
+      if (project.isDisposed()) return null;
+      return readProjectState();
+    });
+    if (state == null) {
+      return;
     }
-  }
 
-  private void updateFlutterPluginsImpl() {
-    final boolean usesFlutter = FlutterModuleUtils.usesFlutter(project);
-
-    final LibraryTable projectLibraryTable = ProjectLibraryTable.getInstance(project);
-    final Library existingLibrary = projectLibraryTable.getLibraryByName(FlutterPluginLibraryType.FLUTTER_PLUGINS_LIBRARY_NAME);
-
-    if (!usesFlutter) {
-      // If we have a Flutter library, remove it.
-      if (existingLibrary != null) {
-        WriteAction.compute(() -> {
-          final LibraryTableBase.ModifiableModel libraryTableModel =
-            ProjectLibraryTable.getInstance(project).getModifiableModel();
-          libraryTableModel.removeLibrary(existingLibrary);
-          libraryTableModel.commit();
-          return null;
-        });
+    // Parsing doesn't need the read lock. (VirtualFile contents and PubspecInfo are safe to read without it.)
+    final Set<String> flutterPluginUrls = new HashSet<>();
+    if (state.usesFlutter) {
+      for (String path : getFlutterPluginPaths(state.packagesFiles)) {
+        flutterPluginUrls.add(VfsUtilCore.pathToUrl(path));
       }
+    }
+    final Plan plan = new Plan(project, state.usesFlutter, flutterPluginUrls, state.flutterModules, state.otherModules);
 
+    final boolean changed = ApplicationManager.getApplication().runReadAction((Computable<Boolean>)plan::hasChanges);
+    if (!changed) {
       return;
     }
 
-    final Library library = existingLibrary != null
-                            ? existingLibrary
-                            : WriteAction.compute(() -> {
-                              final LibraryTableBase.ModifiableModel libraryTableModel =
-                                ProjectLibraryTable.getInstance(project).getModifiableModel();
-                              final Library lib = libraryTableModel.createLibrary(
-                                FlutterPluginLibraryType.FLUTTER_PLUGINS_LIBRARY_NAME,
-                                FlutterPluginLibraryType.LIBRARY_KIND);
-                              libraryTableModel.commit();
-                              return lib;
-                            });
+    ApplicationManager.getApplication().invokeLater(() -> {
+      // The project may have changed since the plan was made, so check again.
+      if (plan.hasChanges()) {
+        ApplicationManager.getApplication().runWriteAction(plan::apply);
+      }
+    }, ModalityState.NON_MODAL, project.getDisposed());
+  }
 
-    final Set<String> flutterPluginPaths = getFlutterPluginPaths(PubRoot.multipleForProject(project));
-    final Set<String> flutterPluginUrls = new HashSet<>();
-    for (String path : flutterPluginPaths) {
-      flutterPluginUrls.add(VfsUtilCore.pathToUrl(path));
+  /**
+   * Must be called in a read action.
+   */
+  @NotNull
+  private ProjectState readProjectState() {
+    final List<Module> flutterModules = new ArrayList<>();
+    final List<Module> otherModules = new ArrayList<>();
+    for (Module module : ModuleManager.getInstance(project).getModules()) {
+      if (FlutterModuleUtils.usesFlutter(module)) {
+        flutterModules.add(module);
+      }
+      else {
+        otherModules.add(module);
+      }
     }
-    final Set<String> existingUrls = new HashSet<>(Arrays.asList(library.getUrls(OrderRootType.CLASSES)));
 
-    if (flutterPluginUrls.containsAll(existingUrls) && existingUrls.containsAll(flutterPluginUrls)) {
-      // No changes needed.
-      return;
+    if (!FlutterModuleUtils.usesFlutter(project)) {
+      return new ProjectState(false, Collections.emptyList(), flutterModules, otherModules);
     }
 
-    ApplicationManager.getApplication().runWriteAction(() -> {
-      final LibraryEx.ModifiableModelEx model = (LibraryEx.ModifiableModelEx)library.getModifiableModel();
+    final List<VirtualFile> packagesFiles = new ArrayList<>();
+    for (PubRoot pubRoot : PubRoot.multipleForProject(project)) {
+      final VirtualFile packagesFile = pubRoot.getPackages();
+      if (packagesFile != null) {
+        packagesFiles.add(packagesFile);
+      }
+    }
+    return new ProjectState(true, packagesFiles, flutterModules, otherModules);
+  }
 
-      final Set<String> existingCopy = new HashSet<>(existingUrls);
-      existingUrls.removeAll(flutterPluginUrls);
-      flutterPluginUrls.removeAll(existingCopy);
+  private Set<String> getFlutterPluginPaths(@NotNull List<VirtualFile> packagesFilesToRead) {
+    final Set<String> paths = new HashSet<>();
+    final Set<String> seen = new HashSet<>();
+    final Set<String> libPaths = new HashSet<>();
 
-      for (String url : existingUrls) {
-        model.removeRoot(url, OrderRootType.CLASSES);
-      }
+    for (VirtualFile packagesFile : packagesFilesToRead) {
+      seen.add(packagesFile.getPath());
 
-      for (String url : flutterPluginUrls) {
-        model.addRoot(url, OrderRootType.CLASSES);
+      PackagesEntry entry = packagesFiles.get(packagesFile.getPath());
+      if (entry == null || entry.modificationStamp != packagesFile.getModificationStamp()) {
+        entry = readPackagesFile(packagesFile);
+        packagesFiles.put(packagesFile.getPath(), entry);
+      }
+      for (String libPath : entry.libPaths) {
+        if (libPaths.add(libPath)) {
+          final String pluginPath = getPluginPath(libPath);
+          if (pluginPath != null) {
+            paths.add(pluginPath);
+          }
+        }
       }
+    }
 
-      model.commit();
-    });
+    // Forget .packages files that are no longer in the project, and packages they no longer list.
+    packagesFiles.keySet().retainAll(seen);
+    packages.keySet().retainAll(libPaths);
 
-    for (final Module module : ModuleManager.getInstance(project).getModules()) {
-      if (FlutterModuleUtils.usesFlutter(module)) {
-        addFlutterLibraryDependency(module, library);
+    return paths;
+  }
+
+  @NotNull
+  private PackagesEntry readPackagesFile(@NotNull VirtualFile packagesFile) {
+    final long stamp = packagesFile.getModificationStamp();
+    final Map<String, String> map = DotPackagesFileUtil.getPackagesMap(packagesFile);
+    if (map == null) {
+      return new PackagesEntry(stamp, Collections.emptySet());
+    }
+    return new PackagesEntry(stamp, new HashSet<>(map.values()));
+  }
+
+  /**
+   * Returns the path of the package containing the given lib directory if it's a Flutter plugin, otherwise null.
+   */
+  @Nullable
+  private String getPluginPath(@NotNull String libPath) {
+    PackageEntry entry = packages.get(libPath);
+    if (entry == null || !entry.pubspec.isValid()) {
+      packages.remove(libPath);
+
+      final VirtualFile libFolder = LocalFileSystem.getInstance().findFileByPath(libPath);
+      final VirtualFile dir = libFolder == null ? null : libFolder.getParent();
+      final VirtualFile pubspec = dir == null ? null : dir.findChild(PUBSPEC_YAML);
+      if (pubspec == null) {
+        return null;
       }
-      else {
-        removeFlutterLibraryDependency(module, library);
+      entry = new PackageEntry(dir.getPath(), pubspec);
+      packages.put(libPath, entry);
+    }
+
+    // PubspecInfo only parses the pubspec again if it changed.
+    return PubspecInfo.forFile(entry.pubspec).isFlutterPlugin() ? entry.rootPath : null;
+  }
+
+  private static boolean hasFlutterLibraryDependency(@NotNull OrderEntry[] orderEntries) {
+    for (final OrderEntry orderEntry : orderEntries) {
+      if (isFlutterLibraryEntry(orderEntry)) {
+        return true;
       }
     }
+    return false;
   }
 
-  private Set<String> getFlutterPluginPaths(List<PubRoot> roots) {
-    final Set<String> paths = new HashSet<>();
+  private static boolean isFlutterLibraryEntry(@NotNull OrderEntry orderEntry) {
+    return orderEntry instanceof LibraryOrderEntry &&
+           LibraryTablesRegistrar.PROJECT_LEVEL.equals(((LibraryOrderEntry)orderEntry).getLibraryLevel()) &&
+           StringUtil.equals(FlutterPluginLibraryType.FLUTTER_PLUGINS_LIBRARY_NAME, ((LibraryOrderEntry)orderEntry).getLibraryName());
+  }
 
-    for (PubRoot pubRoot : roots) {
-      if (pubRoot.getPackages() == null) {
-        continue;
-      }
+  /**
+   * The desired state of the Flutter plugins library and module dependencies.
+   */
+  private static class Plan {
+    @NotNull final Project project;
+    final boolean usesFlutter;
+    @NotNull final Set<String> flutterPluginUrls;
+    @NotNull final List<Module> flutterModules;
+    @NotNull final List<Module> otherModules;
+
+    Plan(@NotNull Project project,
+         boolean usesFlutter,
+         @NotNull Set<String> flutterPluginUrls,
+         @NotNull List<Module> flutterModules,
+         @NotNull List<Module> otherModules) {
+      this.project = project;
+      this.usesFlutter = usesFlutter;
+      this.flutterPluginUrls = flutterPluginUrls;
+      this.flutterModules = flutterModules;
+      this.otherModules = otherModules;
+    }
 
-      final Map<String, String> map = DotPackagesFileUtil.getPackagesMap(pubRoot.getPackages());
-      if (map == null) {
-        continue;
+    /**
+     * Returns true if the project's library or module dependencies differ from this plan.
+     * <p>
+     * Must be called in a read action.
+     */
+    boolean hasChanges() {
+      if (project.isDisposed()) {
+        return false;
       }
 
-      for (String packagePath : map.values()) {
-        final VirtualFile libFolder = LocalFileSystem.getInstance().findFileByPath(packagePath);
-        if (libFolder == null) {
-          continue;
-        }
-        final PubRoot pluginRoot = PubRoot.forDirectory(libFolder.getParent());
-        if (pluginRoot == null) {
-          continue;
-        }
+      final Library library = findLibrary();
+      if (!usesFlutter) {
+        return library != null;
+      }
+      if (library == null) {
+        return true;
+      }
 
-        if (pluginRoot.isFlutterPlugin()) {
-          paths.add(pluginRoot.getPath());
-        }
+      final Set<String> existingUrls = new HashSet<>(Arrays.asList(library.getUrls(OrderRootType.CLASSES)));
+      if (!existingUrls.equals(flutterPluginUrls)) {
+        return true;
       }
+      return !getModulesToChange(true).isEmpty() || !getModulesToChange(false).isEmpty();
     }
 
-    return paths;
-  }
+    /**
+     * Makes the library and module dependencies match this plan, changing only what's different.
+     * <p>
+     * Must be called in a write action.
+     */
+    void apply() {
+      if (project.isDisposed()) {
+        return;
+      }
 
-  private static void addFlutterLibraryDependency(@NotNull final Module module, @NotNull final Library library) {
-    final ModifiableRootModel modifiableModel = ModuleRootManager.getInstance(module).getModifiableModel();
+      final Library existingLibrary = findLibrary();
+      if (!usesFlutter) {
+        // If we have a Flutter library, remove it.
+        if (existingLibrary != null) {
+          final LibraryTableBase.ModifiableModel libraryTableModel = ProjectLibraryTable.getInstance(project).getModifiableModel();
+          libraryTableModel.removeLibrary(existingLibrary);
+          libraryTableModel.commit();
+        }
+        return;
+      }
+
+      final Library library;
+      if (existingLibrary != null) {
+        library = existingLibrary;
+      }
+      else {
+        final LibraryTableBase.ModifiableModel libraryTableModel = ProjectLibraryTable.getInstance(project).getModifiableModel();
+        library = libraryTableModel.createLibrary(FlutterPluginLibraryType.FLUTTER_PLUGINS_LIBRARY_NAME,
+                                                  FlutterPluginLibraryType.LIBRARY_KIND);
+        libraryTableModel.commit();
+      }
 
-    try {
-      for (final OrderEntry orderEntry : modifiableModel.getOrderEntries()) {
-        if (orderEntry instanceof LibraryOrderEntry &&
-            LibraryTablesRegistrar.PROJECT_LEVEL.equals(((LibraryOrderEntry)orderEntry).getLibraryLevel()) &&
-            StringUtil.equals(library.getName(), ((LibraryOrderEntry)orderEntry).getLibraryName())) {
-          return; // dependency already exists
+      final Set<String> existingUrls = new HashSet<>(Arrays.asList(library.getUrls(OrderRootType.CLASSES)));
+      if (!existingUrls.equals(flutterPluginUrls)) {
+        final LibraryEx.ModifiableModelEx model = (LibraryEx.ModifiableModelEx)library.getModifiableModel();
+        for (String url : existingUrls) {
+          if (!flutterPluginUrls.contains(url)) {
+            model.removeRoot(url, OrderRootType.CLASSES);
+          }
+        }
+        for (String url : flutterPluginUrls) {
+          if (!existingUrls.contains(url)) {
+            model.addRoot(url, OrderRootType.CLASSES);
+          }
         }
+        model.commit();
       }
 
-      modifiableModel.addLibraryEntry(library);
+      for (Module module : getModulesToChange(true)) {
+        final ModifiableRootModel modifiableModel = ModuleRootManager.getInstance(module).getModifiableModel();
+        try {
+          modifiableModel.addLibraryEntry(library);
+          modifiableModel.commit();
+        }
+        finally {
+          if (!modifiableModel.isDisposed()) {
+            modifiableModel.dispose();
+          }
+        }
+      }
 
-      ApplicationManager.getApplication().runWriteAction(modifiableModel::commit);
+      for (Module module : getModulesToChange(false)) {
+        final ModifiableRootModel modifiableModel = ModuleRootManager.getInstance(module).getModifiableModel();
+        try {
+          for (final OrderEntry orderEntry : modifiableModel.getOrderEntries()) {
+            if (isFlutterLibraryEntry(orderEntry)) {
+              modifiableModel.removeOrderEntry(orderEntry);
+            }
+          }
+          modifiableModel.commit();
+        }
+        finally {
+          if (!modifiableModel.isDisposed()) {
+            modifiableModel.dispose();
+          }
+        }
+      }
     }
-    finally {
-      if (!modifiableModel.isDisposed()) {
-        modifiableModel.dispose();
+
+    /**
+     * Returns the modules that need the dependency added (if add is true) or removed.
+     */
+    @NotNull
+    private List<Module> getModulesToChange(boolean add) {
+      final List<Module> result = new ArrayList<>();
+      for (Module module : add ? flutterModules : otherModules) {
+        if (module.isDisposed()) continue;
+        final boolean hasDependency = hasFlutterLibraryDependency(ModuleRootManager.getInstance(module).getOrderEntries());
+        if (hasDependency != add) {
+          result.add(module);
+        }
       }
+      return result;
+    }
+
+    @Nullable
+    private Library findLibrary() {
+      return ProjectLibraryTable.getInstance(project).getLibraryByName(FlutterPluginLibraryType.FLUTTER_PLUGINS_LIBRARY_NAME);
     }
   }
 
-  private void removeFlutterLibraryDependency(Module module, Library library) {
-    final ModifiableRootModel modifiableModel = ModuleRootManager.getInstance(module).getModifiableModel();
+  /**
+   * The modules and .packages files of a project at one point in time.
+   */
+  private static class ProjectState {
+    final boolean usesFlutter;
+    @NotNull final List<VirtualFile> packagesFiles;
+    @NotNull final List<Module> flutterModules;
+    @NotNull final List<Module> otherModules;
+
+    ProjectState(boolean usesFlutter,
+                 @NotNull List<VirtualFile> packagesFiles,
+                 @NotNull List<Module> flutterModules,
+                 @NotNull List<Module> otherModules) {
+      this.usesFlutter = usesFlutter;
+      this.packagesFiles = packagesFiles;
+      this.flutterModules = flutterModules;
+      this.otherModules = otherModules;
+    }
+  }
 
-    try {
-      boolean wasFound = false;
+  private static class PackagesEntry {
+    final long modificationStamp;
 
-      for (final OrderEntry orderEntry : modifiableModel.getOrderEntries()) {
-        if (orderEntry instanceof LibraryOrderEntry &&
-            LibraryTablesRegistrar.PROJECT_LEVEL.equals(((LibraryOrderEntry)orderEntry).getLibraryLevel()) &&
-            StringUtil.equals(library.getName(), ((LibraryOrderEntry)orderEntry).getLibraryName())) {
-          wasFound = true;
-          modifiableModel.removeOrderEntry(orderEntry);
-        }
-      }
+    /**
+     * The lib directory of every package listed.
+     */
+    @NotNull final Set<String> libPaths;
 
-      if (wasFound) {
-        ApplicationManager.getApplication().runWriteAction(modifiableModel::commit);
-      }
+    PackagesEntry(long modificationStamp, @NotNull Set<String> libPaths) {
+      this.modificationStamp = modificationStamp;
+      this.libPaths = libPaths;
     }
-    finally {
-      if (!modifiableModel.isDisposed()) {
-        modifiableModel.dispose();
-      }
+  }
+
+  private static class PackageEntry {
+    @NotNull final String rootPath;
+    @NotNull final VirtualFile pubspec;
+
+    PackageEntry(@NotNull String rootPath, @NotNull VirtualFile pubspec) {
+      this.rootPath = rootPath;
+      this.pubspec = pubspec;
     }
   }
 }
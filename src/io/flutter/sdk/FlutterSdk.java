@@ -5,7 +5,6 @@
  */
 package io.flutter.sdk;
 
-import com.google.gson.*;
 import com.intellij.execution.process.*;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
@@ -13,15 +12,11 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.OrderRootType;
 import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
 import com.intellij.openapi.roots.libraries.Library;
-import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.io.FileUtil;
-import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.util.ui.EdtInvocationManager;
-import com.jetbrains.lang.dart.sdk.DartSdk;
-import io.flutter.dart.DartPlugin;
 import io.flutter.pub.PubRoot;
 import io.flutter.run.daemon.FlutterDevice;
 import io.flutter.run.daemon.RunMode;
@@ -30,9 +25,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static java.util.Arrays.asList;
 
@@ -45,15 +38,14 @@ public class FlutterSdk {
 
   private static final Logger LOG = Logger.getInstance(FlutterSdk.class);
 
-  private static final Map<String, FlutterSdk> projectSdkCache = new HashMap<>();
-
   private final @NotNull VirtualFile myHome;
   private final @NotNull FlutterSdkVersion myVersion;
-  private final Map<String, String> cachedConfigValues = new HashMap<>();
+  private final @NotNull FlutterConfigCache myConfigCache;
 
-  private FlutterSdk(@NotNull final VirtualFile home, @NotNull final FlutterSdkVersion version) {
+  FlutterSdk(@NotNull final VirtualFile home, @NotNull final FlutterSdkVersion version) {
     myHome = home;
     myVersion = version;
+    myConfigCache = new FlutterConfigCache(this);
   }
 
   /**
@@ -66,21 +58,7 @@ public class FlutterSdk {
     if (project.isDisposed()) {
       return null;
     }
-    final DartSdk dartSdk = DartPlugin.getDartSdk(project);
-    if (dartSdk == null) {
-      return null;
-    }
-
-    final String dartPath = dartSdk.getHomePath();
-    if (!dartPath.endsWith(DART_SDK_SUFFIX)) {
-      return null;
-    }
-
-    final String sdkPath = dartPath.substring(0, dartPath.length() - DART_SDK_SUFFIX.length());
-
-    // Cache based on the project and path ('e41cfa3d:/Users/devoncarew/projects/flutter/flutter').
-    final String cacheKey = project.getLocationHash() + ":" + sdkPath;
-    return projectSdkCache.computeIfAbsent(cacheKey, s -> forPath(sdkPath));
+    return FlutterSdkRegistry.getInstance().getForProject(project);
   }
 
   /**
@@ -100,15 +78,14 @@ public class FlutterSdk {
     return getFlutterFromDartSdkLibrary(lib);
   }
 
+  /**
+   * Returns the Flutter SDK at the given path, or null if it isn't a Flutter SDK.
+   * <p>
+   * There is one instance per SDK home, shared by all projects.
+   */
   @Nullable
   public static FlutterSdk forPath(@NotNull final String path) {
-    final VirtualFile home = LocalFileSystem.getInstance().findFileByPath(path);
-    if (home == null || !FlutterSdkUtil.isFlutterSdkHome(path)) {
-      return null;
-    }
-    else {
-      return new FlutterSdk(home, FlutterSdkVersion.readFromSdk(home));
-    }
+    return FlutterSdkRegistry.getInstance().getForPath(path);
   }
 
   @Nullable
@@ -129,7 +106,7 @@ public class FlutterSdk {
       if (url.endsWith(DART_CORE_SUFFIX)) {
         final String flutterUrl = url.substring(0, url.length() - DART_CORE_SUFFIX.length());
         final VirtualFile home = VirtualFileManager.getInstance().findFileByUrl(flutterUrl);
-        return home == null ? null : new FlutterSdk(home, FlutterSdkVersion.readFromSdk(home));
+        return home == null ? null : FlutterSdkRegistry.getInstance().getForHome(home);
       }
     }
     return null;
@@ -241,13 +218,20 @@ public class FlutterSdk {
    * This ensures that the Dart SDK exists and is up to date.
    * <p>
    * If project is not null, displays output in a console.
+   * <p>
+   * On the Swing thread, if other flutter commands are running, the command is queued and this returns false
+   * without waiting.
    *
    * @return true if successful (the Dart SDK exists).
    */
   public boolean sync(@NotNull Project project) {
     try {
-      final Process process = flutterVersion().startInConsole(project);
+      final FlutterCommandStartResult result = flutterVersion().startInConsole(project);
+      final Process process = result.process;
       if (process == null) {
+        if (result.status == FlutterCommandStartResult.Status.QUEUED) {
+          LOG.info("flutter --version was queued behind other flutter commands");
+        }
         return false;
       }
       process.waitFor();
@@ -279,14 +263,16 @@ public class FlutterSdk {
   @Nullable
   public PubRoot createFiles(@NotNull VirtualFile baseDir, @Nullable Module module, @Nullable ProcessListener listener,
                              @Nullable FlutterCreateAdditionalSettings additionalSettings) {
-    final Process process;
+    final FlutterCommandStartResult result;
     if (module == null) {
-      process = flutterCreate(baseDir, additionalSettings).start(null, listener);
+      result = flutterCreate(baseDir, additionalSettings).start(null, listener);
     }
     else {
-      process = flutterCreate(baseDir, additionalSettings).startInModuleConsole(module, null, listener);
+      result = flutterCreate(baseDir, additionalSettings).startInModuleConsole(module, null, listener);
     }
+    final Process process = result.process;
     if (process == null) {
+      // Either failed, or queued on the Swing thread, where we can't wait for it.
       return null;
     }
 
@@ -313,12 +299,11 @@ public class FlutterSdk {
    * Starts running 'flutter packages get' on the given pub root provided it's in one of this project's modules.
    * <p>
    * Shows output in the console associated with the given module.
-   * <p>
-   * Returns the process if successfully started.
    */
-  public Process startPackagesGet(@NotNull PubRoot root, @NotNull Project project) {
+  @NotNull
+  public FlutterCommandStartResult startPackagesGet(@NotNull PubRoot root, @NotNull Project project) {
     final Module module = root.getModule(project);
-    if (module == null) return null;
+    if (module == null) return FlutterCommandStartResult.FAILED;
     // Refresh afterwards to ensure Dart Plugin sees .packages and doesn't mistakenly nag to run pub.
     return flutterPackagesGet(root).startInModuleConsole(module, root::refresh, null);
   }
@@ -327,12 +312,11 @@ public class FlutterSdk {
    * Starts running 'flutter packages upgrade' on the given pub root.
    * <p>
    * Shows output in the console associated with the given module.
-   * <p>
-   * Returns the process if successfully started.
    */
-  public Process startPackagesUpgrade(@NotNull PubRoot root, @NotNull Project project) {
+  @NotNull
+  public FlutterCommandStartResult startPackagesUpgrade(@NotNull PubRoot root, @NotNull Project project) {
     final Module module = root.getModule(project);
-    if (module == null) return null;
+    if (module == null) return FlutterCommandStartResult.FAILED;
     return flutterPackagesUpgrade(root).startInModuleConsole(module, root::refresh, null);
   }
 
@@ -363,72 +347,27 @@ public class FlutterSdk {
     return FlutterSdkUtil.pathToDartSdk(getHomePath());
   }
 
+  /**
+   * Returns the values reported by 'flutter config' for this SDK.
+   */
+  @NotNull
+  public FlutterConfigCache getConfigCache() {
+    return myConfigCache;
+  }
+
   /**
    * Query 'flutter config' for the given key, and optionally use any existing cached value.
+   * <p>
+   * When using the cached value, this never waits for the flutter tool; it returns the last saved value (which
+   * may be null if 'flutter config' never ran for this SDK) and refreshes it in the background if needed.
+   * Otherwise, it waits up to five seconds for 'flutter config', falling back to the last saved value if it
+   * doesn't finish; see {@link FlutterConfigCache#refreshAndGet}.
    */
   @Nullable
   public String queryFlutterConfig(String key, boolean useCachedValue) {
-    if (useCachedValue && cachedConfigValues.containsKey(key)) {
-      return cachedConfigValues.get(key);
-    }
-
-    cachedConfigValues.put(key, queryFlutterConfigImpl(key));
-    return cachedConfigValues.get(key);
-  }
-
-  private String queryFlutterConfigImpl(String key) {
-    final FlutterCommand command = flutterConfig("--machine");
-    final OSProcessHandler process = command.startProcess(false);
-    final StringBuilder stdout = new StringBuilder();
-    process.addProcessListener(new ProcessAdapter() {
-      boolean hasSeenStartingBrace = false;
-
-      @Override
-      public void onTextAvailable(ProcessEvent event, Key outputType) {
-        // {"android-studio-dir":"/Applications/Android Studio 3.0 Preview.app/Contents"}
-        if (outputType == ProcessOutputTypes.STDOUT) {
-          // Ignore any non-json starting lines (like "Building flutter tool...").
-          if (event.getText().startsWith("{")) {
-            hasSeenStartingBrace = true;
-          }
-          if (hasSeenStartingBrace) {
-            stdout.append(event.getText());
-          }
-        }
-      }
-    });
-
-    LOG.info("Calling config --machine");
-    final long start = System.currentTimeMillis();
-
-    process.startNotify();
-
-    if (process.waitFor(5000)) {
-      final long duration = System.currentTimeMillis() - start;
-      LOG.info("flutter config --machine: " + duration + "ms");
-
-      final Integer code = process.getExitCode();
-      if (code != null && code == 0) {
-        try {
-          final JsonParser jp = new JsonParser();
-          final JsonElement elem = jp.parse(stdout.toString());
-          final JsonObject obj = elem.getAsJsonObject();
-          final JsonPrimitive primitive = obj.getAsJsonPrimitive(key);
-          if (primitive != null) {
-            return primitive.getAsString();
-          }
-        }
-        catch (JsonSyntaxException ignored) {
-        }
-      }
-      else {
-        LOG.info("Exit code from flutter config --machine: " + code);
-      }
-    }
-    else {
-      LOG.info("Timeout when calling flutter config --machine");
+    if (useCachedValue) {
+      return myConfigCache.get(key);
     }
-
-    return null;
+    return myConfigCache.refreshAndGet(key);
   }
 }
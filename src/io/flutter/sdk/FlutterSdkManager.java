@@ -66,6 +66,12 @@ public class FlutterSdkManager {
     isFlutterConfigured = isFlutterSdkSetAndNeeded();
   }
 
+  // Forget the project's cached SDK and check again.
+  private void sdkConfigurationChanged() {
+    FlutterSdkRegistry.getInstance().invalidate(myProject);
+    checkForFlutterSdkChange();
+  }
+
   // Send events if Flutter SDK was configured or unconfigured.
   public void checkForFlutterSdkChange() {
     if (!isFlutterConfigured && isFlutterSdkSetAndNeeded()) {
@@ -112,13 +118,13 @@ public class FlutterSdkManager {
   private final class LibraryTableListener implements LibraryTable.Listener {
     @Override
     public void afterLibraryAdded(Library newLibrary) {
-      checkForFlutterSdkChange();
+      sdkConfigurationChanged();
     }
 
     @Override
     public void afterLibraryRenamed(Library library) {
       // Since we key off name, test to be safe.
-      checkForFlutterSdkChange();
+      sdkConfigurationChanged();
     }
 
     @Override
@@ -128,7 +134,7 @@ public class FlutterSdkManager {
 
     @Override
     public void afterLibraryRemoved(Library library) {
-      checkForFlutterSdkChange();
+      sdkConfigurationChanged();
     }
   }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.sdk;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.PathUtil;
+import com.jetbrains.lang.dart.sdk.DartSdk;
+import io.flutter.dart.DartPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the Flutter SDKs in use by all open projects, keyed by canonical SDK home path.
+ * <p>
+ * There is one {@link FlutterSdk} per home, so its version and cached config values are shared by every project using it.
+ * The SDK each project uses is remembered until the project's roots change (which includes changes to the "Dart SDK"
+ * library), the SDK configuration changes, or the project is disposed. An SDK is dropped when the VFS reports that its
+ * home or its VERSION file changed.
+ * <p>
+ * All lookups are lock-free, so this can be called from action updates and other hot paths on any thread.
+ */
+class FlutterSdkRegistry {
+  private static final FlutterSdkRegistry instance = new FlutterSdkRegistry();
+
+  private static final String VERSION_FILE = "VERSION";
+
+  /**
+   * The SDK at each home, by canonical path.
+   */
+  private final Map<String, Entry> sdks = new ConcurrentHashMap<>();
+
+  /**
+   * The SDK home each open project uses.
+   * <p>
+   * A project is added on its first lookup and removed when it's disposed.
+   */
+  private final Map<Project, ProjectEntry> projects = new ConcurrentHashMap<>();
+
+  private volatile boolean listening;
+
+  @NotNull
+  static FlutterSdkRegistry getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the Flutter SDK that contains the project's Dart SDK, or null if there isn't one.
+   */
+  @Nullable
+  FlutterSdk getForProject(@NotNull Project project) {
+    final long modificationCount = ProjectRootManager.getInstance(project).getModificationCount();
+
+    ProjectEntry entry = projects.get(project);
+    if (entry == null || entry.rootsModificationCount != modificationCount) {
+      final ProjectEntry next = new ProjectEntry(modificationCount, findHomePath(project));
+      if (projects.put(project, next) == null) {
+        Disposer.register(project, () -> projects.remove(project));
+      }
+      entry = next;
+    }
+
+    return entry.homePath == null ? null : getForPath(entry.homePath);
+  }
+
+  /**
+   * Returns the Flutter SDK at the given path, or null if it isn't a complete Flutter SDK.
+   */
+  @Nullable
+  FlutterSdk getForPath(@NotNull String path) {
+    final String key = FileUtil.toCanonicalPath(path);
+
+    final Entry cached = sdks.get(key);
+    if (cached != null && cached.verified && cached.sdk.getHome().isValid()) {
+      return cached.sdk;
+    }
+
+    final VirtualFile home = LocalFileSystem.getInstance().findFileByPath(key);
+    if (home == null || !FlutterSdkUtil.isFlutterSdkHome(key)) {
+      return null;
+    }
+    return add(key, home, true);
+  }
+
+  /**
+   * Returns the Flutter SDK at the given home without checking that it's complete.
+   * <p>
+   * (Used for a newly-cloned SDK whose Dart SDK isn't downloaded yet.)
+   */
+  @NotNull
+  FlutterSdk getForHome(@NotNull VirtualFile home) {
+    final String key = FileUtil.toCanonicalPath(home.getPath());
+
+    final Entry cached = sdks.get(key);
+    if (cached != null && cached.sdk.getHome().equals(home) && home.isValid()) {
+      return cached.sdk;
+    }
+    return add(key, home, false);
+  }
+
+  /**
+   * Forgets which SDK the project uses, so that the next lookup checks again.
+   */
+  void invalidate(@NotNull Project project) {
+    projects.replace(project, ProjectEntry.STALE);
+  }
+
+  @NotNull
+  private FlutterSdk add(@NotNull String key, @NotNull VirtualFile home, boolean verified) {
+    if (!listening) {
+      listenForChanges();
+    }
+
+    // Load the VERSION file into the VFS so that we hear about changes to it.
+    home.findChild(VERSION_FILE);
+
+    final Entry created = new Entry(new FlutterSdk(home, FlutterSdkVersion.readFromSdk(home)), verified);
+    final Entry result = sdks.merge(key, created, (old, next) -> {
+      if (!old.sdk.getHome().equals(home) || !home.isValid()) {
+        return next;
+      }
+      // Keep the existing instance (and its cached config values).
+      return old.verified || !verified ? old : new Entry(old.sdk, true);
+    });
+    return result.sdk;
+  }
+
+  @Nullable
+  private static String findHomePath(@NotNull Project project) {
+    final DartSdk dartSdk = DartPlugin.getDartSdk(project);
+    if (dartSdk == null) {
+      return null;
+    }
+
+    final String dartPath = dartSdk.getHomePath();
+    if (!dartPath.endsWith(FlutterSdk.DART_SDK_SUFFIX)) {
+      return null;
+    }
+    return dartPath.substring(0, dartPath.length() - FlutterSdk.DART_SDK_SUFFIX.length());
+  }
+
+  /**
+   * Drops SDKs when the VFS reports a change to their home or VERSION file.
+   */
+  private synchronized void listenForChanges() {
+    if (listening || ApplicationManager.getApplication() == null) return;
+    listening = true;
+
+    ApplicationManager.getApplication().getMessageBus().connect().subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+      @Override
+      public void before(@NotNull List<? extends VFileEvent> events) {
+      }
+
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        if (sdks.isEmpty()) return;
+        for (VFileEvent event : events) {
+          final String path = event.getPath();
+          sdks.remove(path);
+          if (VERSION_FILE.equals(PathUtil.getFileName(path))) {
+            sdks.remove(PathUtil.getParentPath(path));
+          }
+        }
+      }
+    });
+  }
+
+  private static class Entry {
+    @NotNull final FlutterSdk sdk;
+
+    /**
+     * True if the home was checked to be a complete Flutter SDK.
+     */
+    final boolean verified;
+
+    Entry(@NotNull FlutterSdk sdk, boolean verified) {
+      this.sdk = sdk;
+      this.verified = verified;
+    }
+  }
+
+  private static class ProjectEntry {
+    static final ProjectEntry STALE = new ProjectEntry(-1, null);
+
+    final long rootsModificationCount;
+    @Nullable final String homePath;
+
+    ProjectEntry(long rootsModificationCount, @Nullable String homePath) {
+      this.rootsModificationCount = rootsModificationCount;
+      this.homePath = homePath;
+    }
+  }
+}
@@ -15,8 +15,8 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FlutterSdkVersion {
 
@@ -38,7 +38,7 @@ public class FlutterSdkVersion {
   /**
    * Cache from version file and its modification date to its contents.
    */
-  private static final Map<Pair<File, Long>, FlutterSdkVersion> cache = new HashMap<>();
+  private static final Map<Pair<File, Long>, FlutterSdkVersion> cache = new ConcurrentHashMap<>();
 
   private final Version version;
 
@@ -50,12 +50,12 @@ public class FlutterSdkVersion {
   public static FlutterSdkVersion readFromSdk(@NotNull VirtualFile sdkHome) {
     final File versionFile = new File(sdkHome.getPath() + "/VERSION");
 
-    // Use the cache if the file's last modfication date didn't change.
-    // But we still stat the file every time this is called. Not sure the cache saves us much?
-    // TODO(skybrian) should we use the VirtualFile cache instead?
+    // Use the cache if the file's last modification date didn't change.
+    // (FlutterSdkRegistry only calls this when it creates an SDK, so the stat is rare.)
     final Pair<File, Long> key = Pair.create(versionFile, versionFile.lastModified());
-    if (cache.containsKey(key)) {
-      return cache.get(key);
+    final FlutterSdkVersion cached = cache.get(key);
+    if (cached != null) {
+      return cached;
     }
 
     final String versionString = readVersionFromFile(versionFile);
@@ -66,7 +66,7 @@ public class FlutterSdkVersion {
     // If we don't have a version file at all, assume it's a supported version and don't complain.
     final FlutterSdkVersion version = versionString == null ? MIN_SUPPORTED_SDK : new FlutterSdkVersion(versionString);
 
-    cache.put(Pair.create(versionFile, versionFile.lastModified()), version);
+    cache.put(key, version);
     return version;
   }
 
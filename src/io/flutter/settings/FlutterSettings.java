@@ -17,6 +17,12 @@ public class FlutterSettings {
   private static final String verboseLoggingKey = "io.flutter.verboseLogging";
   private static final String memoryDashboardKey = "io.flutter.memoryDashboard";
   private static final String widgetInspectorKey = "io.flutter.widgetInspector";
+  private static final String maxConcurrentCommandsKey = "io.flutter.maxConcurrentCommands";
+
+  /**
+   * How many flutter commands may run at once by default.
+   */
+  private static final int DEFAULT_MAX_CONCURRENT_COMMANDS = 4;
 
   public static FlutterSettings getInstance() {
     return ServiceManager.getService(FlutterSettings.class);
@@ -96,6 +102,19 @@ public class FlutterSettings {
     fireEvent();
   }
 
+  /**
+   * Returns how many flutter commands (like 'packages get') may run at the same time.
+   */
+  public int getMaxConcurrentCommands() {
+    return getPropertiesComponent().getInt(maxConcurrentCommandsKey, DEFAULT_MAX_CONCURRENT_COMMANDS);
+  }
+
+  public void setMaxConcurrentCommands(int value) {
+    getPropertiesComponent().setValue(maxConcurrentCommandsKey, value, DEFAULT_MAX_CONCURRENT_COMMANDS);
+
+    fireEvent();
+  }
+
 
   protected void fireEvent() {
     for (Listener listener : listeners) {
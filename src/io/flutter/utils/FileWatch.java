@@ -16,11 +16,15 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.openapi.vfs.newvfs.BulkFileListener;
 import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.messages.MessageBusConnection;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -30,6 +34,9 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * <p>The callback will be called when the IntelliJ Platform notices the change,
  * which may be different from when it's changed on disk, due to caching.
+ *
+ * <p>Callbacks run on a background thread, shortly after the last change in a burst;
+ * several changes to the same subscription are delivered as one call.
  */
 public class FileWatch {
   private final @NotNull ImmutableSet<Location> watched;
@@ -40,6 +47,16 @@ public class FileWatch {
    */
   private final AtomicBoolean unsubscribed = new AtomicBoolean();
 
+  /**
+   * True when a delivery is scheduled and hasn't started yet.
+   */
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  /**
+   * The time of the most recent change, from System.nanoTime().
+   */
+  private volatile long lastChangeNanos;
+
   /**
    * The representation of this FileWatch in IntelliJ's dispose tree.
    *
@@ -55,9 +72,11 @@ public class FileWatch {
 
   /**
    * Starts watching a single file or directory.
+   *
+   * @param callback will be run asynchronously sometime after the file changed.
    */
   public static @NotNull FileWatch subscribe(@NotNull VirtualFile file, @NotNull Runnable callback) {
-    final FileWatch watcher =  new FileWatch(ImmutableSet.of(new Location(file, null)), callback);
+    final FileWatch watcher =  new FileWatch(ImmutableSet.of(new Location(file, null, false)), callback);
     subscriptions.subscribe(watcher);
     return watcher;
   }
@@ -72,13 +91,26 @@ public class FileWatch {
   public static @NotNull FileWatch subscribe(@NotNull VirtualFile base, @NotNull Iterable<String> paths, @NotNull Runnable callback) {
     final ImmutableSet.Builder<Location> builder = ImmutableSet.builder();
     for (String path : paths) {
-      builder.add(new Location(base, path));
+      builder.add(new Location(base, path, false));
     }
     final FileWatch watcher =  new FileWatch(builder.build(), callback);
     subscriptions.subscribe(watcher);
     return watcher;
   }
 
+  /**
+   * Starts watching a directory beneath a VirtualFile, along with the files directly inside it.
+   *
+   * <p>The path is relative to the VirtualFile and need not exist.
+   *
+   * @param callback will be run asynchronously sometime after the directory or one of its children changed.
+   */
+  public static @NotNull FileWatch subscribeToChildren(@NotNull VirtualFile base, @NotNull String path, @NotNull Runnable callback) {
+    final FileWatch watcher = new FileWatch(ImmutableSet.of(new Location(base, path, true)), callback);
+    subscriptions.subscribe(watcher);
+    return watcher;
+  }
+
   /**
    * Returns true if the given file matches this watch.
    */
@@ -116,6 +148,30 @@ public class FileWatch {
     Disposer.register(parent, disposeLeaf);
   }
 
+  /**
+   * Schedules a call to the callback, unless one is already pending.
+   */
+  private void changed() {
+    if (unsubscribed.get()) return;
+
+    lastChangeNanos = System.nanoTime();
+    if (scheduled.compareAndSet(false, true)) {
+      dispatcher.schedule(this::deliver, DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void deliver() {
+    // Wait until there have been no changes for a while.
+    final long quietMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastChangeNanos);
+    if (quietMillis < DELAY_MILLIS && !unsubscribed.get()) {
+      dispatcher.schedule(this::deliver, DELAY_MILLIS - quietMillis, TimeUnit.MILLISECONDS);
+      return;
+    }
+
+    scheduled.set(false);
+    fireEvent();
+  }
+
   private void fireEvent() {
     if (unsubscribed.get()) return;
 
@@ -136,35 +192,47 @@ public class FileWatch {
     private final @NotNull VirtualFile base;
     private final @Nullable String path;
 
+    /**
+     * If true, files directly inside the location also match.
+     */
+    private final boolean includeChildren;
+
     /**
      * The segments in the watched path, in reverse order (from leaf to base).
      */
     private final @NotNull List<String> reversedNames;
 
-    Location(@NotNull VirtualFile base, @Nullable String path) {
+    Location(@NotNull VirtualFile base, @Nullable String path, boolean includeChildren) {
       if (path != null && path.isEmpty()) {
         throw new IllegalArgumentException("can't watch an empty path");
       }
       this.base = base;
       this.path = path;
+      this.includeChildren = includeChildren;
       this.reversedNames = path == null ? ImmutableList.of() : ImmutableList.copyOf(splitter.splitToList(path)).reverse();
     }
 
     /**
-     * Returns the name at the end of the path being watched.
+     * Returns the names from the file system root to the location being watched.
      */
-    String getName() {
-      if (reversedNames.isEmpty()) {
-        return base.getName();
-      } else {
-        return reversedNames.get(0);
-      }
+    @NotNull
+    List<String> getNames() {
+      final List<String> names = new ArrayList<>(splitter.splitToList(base.getPath()));
+      names.addAll(Lists.reverse(reversedNames));
+      return names;
     }
 
     /**
      * Returns true if the given VirtualFile is at this location.
      */
     boolean matches(VirtualFile file) {
+      if (includeChildren && file != null && matchesExactly(file.getParent())) {
+        return true;
+      }
+      return matchesExactly(file);
+    }
+
+    private boolean matchesExactly(VirtualFile file) {
       for (String name : reversedNames) {
         if (file == null || !file.getName().equals(name)) {
           return false;
@@ -174,44 +242,123 @@ public class FileWatch {
       return base.equals(file);
     }
 
-    private static final Splitter splitter = Splitter.on('/');
+    private static final Splitter splitter = Splitter.on('/').omitEmptyStrings();
   }
 
   private static final Subscriptions subscriptions = new Subscriptions();
 
+  /**
+   * How long to wait for more changes before calling a callback.
+   */
+  private static final long DELAY_MILLIS = 50;
+
+  private static final ScheduledExecutorService dispatcher = AppExecutorUtil.getAppScheduledExecutorService();
+
   private static class Subscriptions {
 
     /**
-     * For each VirtualFile name, the FileWatches that are subscribed (across all Projects).
+     * The watched locations (across all Projects), as a tree of path segments starting at the file system root.
+     *
+     * <p>Lookups don't lock. Changes to the tree should be synchronized on this object.
+     */
+    private final Node root = new Node();
+
+    /**
+     * The number of locations being watched.
      *
      * <p>For thread safety, all access should be synchronized.
      */
-    private final Multimap<String, FileWatch> byFile = LinkedListMultimap.create();
+    private int watchCount;
 
     private final Delivery delivery = new Delivery();
 
     synchronized void subscribe(FileWatch w) {
       for (Location loc : w.watched) {
-        byFile.put(loc.getName(), w);
+        Node node = root;
+        for (String name : loc.getNames()) {
+          node = node.children.computeIfAbsent(name, (key) -> new Node());
+        }
+        if (node.watchesFor(loc).add(w)) {
+          watchCount++;
+        }
       }
-      delivery.enable(!byFile.isEmpty());
+      delivery.enable(watchCount > 0);
     }
 
     synchronized void unsubscribe(FileWatch w) {
       for (Location loc : w.watched) {
-        byFile.remove(loc.getName(), w);
+        if (remove(root, loc.getNames(), 0, loc, w)) {
+          watchCount--;
+        }
       }
-      delivery.enable(!byFile.isEmpty());
+      delivery.enable(watchCount > 0);
     }
 
-    synchronized void addWatchesForFile(@NotNull Set<FileWatch> out, @Nullable VirtualFile f) {
-      if (f == null) return;
+    /**
+     * Removes a watch from the node at the given path, pruning nodes that become empty.
+     *
+     * @return true if the watch was found.
+     */
+    private boolean remove(@NotNull Node node, @NotNull List<String> names, int index, @NotNull Location loc, @NotNull FileWatch w) {
+      if (index == names.size()) {
+        return node.watchesFor(loc).remove(w);
+      }
+      final Node child = node.children.get(names.get(index));
+      if (child == null) return false;
+
+      final boolean removed = remove(child, names, index + 1, loc, w);
+      if (child.isEmpty()) {
+        node.children.remove(names.get(index), child);
+      }
+      return removed;
+    }
 
-      for (FileWatch w : byFile.get(f.getName())) {
-        if (w.matches(f)) {
-          out.add(w);
+    /**
+     * Adds the watches for the file at the given path.
+     *
+     * <p>Walks the tree once; stops at the first path segment that isn't watched.
+     */
+    void addWatchesForPath(@NotNull Set<FileWatch> out, @NotNull String path) {
+      Node node = root;
+      int start = 0;
+      final int length = path.length();
+      while (start < length) {
+        int end = path.indexOf('/', start);
+        if (end < 0) end = length;
+        if (end > start) {
+          if (end == length) {
+            // The path's parent directory; it may be watching its children.
+            out.addAll(node.childWatches);
+          }
+          node = node.children.get(path.substring(start, end));
+          if (node == null) return;
         }
+        start = end + 1;
       }
+      out.addAll(node.watches);
+      out.addAll(node.childWatches);
+    }
+  }
+
+  private static class Node {
+    final Map<String, Node> children = new ConcurrentHashMap<>();
+    final Set<FileWatch> watches = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Watches for this node and the files directly inside it.
+     */
+    final Set<FileWatch> childWatches = ConcurrentHashMap.newKeySet();
+
+    @NotNull
+    Set<FileWatch> watchesFor(@NotNull Location loc) {
+      if (loc.includeChildren) {
+        return childWatches;
+      }
+      return watches;
+    }
+
+    boolean isEmpty() {
+      return children.isEmpty() && watches.isEmpty() && childWatches.isEmpty();
     }
   }
 
@@ -247,16 +394,14 @@ public class FileWatch {
     @Override
     public void after(@NotNull List<? extends VFileEvent> events) {
       final Set<FileWatch> todo = new LinkedHashSet<>();
-      synchronized (subscriptions) {
-        for (VFileEvent event : events) {
-          subscriptions.addWatchesForFile(todo, event.getFile());
-        }
+      for (VFileEvent event : events) {
+        final VirtualFile file = event.getFile();
+        subscriptions.addWatchesForPath(todo, file != null ? file.getPath() : event.getPath());
       }
 
-      // Deliver changes synchronously, but after releasing the lock in case
-      // the callback subscribes/unsubscribes.
+      // Callbacks run later on a background thread, so that we don't slow down the write action.
       for (FileWatch w : todo) {
-        w.fireEvent();
+        w.changed();
       }
     }
   }
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.utils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.PathUtil;
+import com.intellij.util.messages.MessageBusConnection;
+import io.flutter.bazel.Workspace;
+import io.flutter.bazel.WorkspaceCache;
+import io.flutter.dart.DartPlugin;
+import io.flutter.pub.PubRoot;
+import io.flutter.pub.PubRoots;
+import io.flutter.project.ProjectWatch;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds which modules of a Project use Flutter, so that UI code can ask without scanning
+ * every module and pubspec.
+ * <p>
+ * The answers are kept in an immutable snapshot. A change to a pubspec (or .packages file) at a
+ * content root invalidates only the module owning it; a module root change invalidates only the
+ * modules that were added or whose content roots changed; a new Bazel workspace invalidates only
+ * the Bazel answer.
+ * <p>
+ * Invalidated modules are reloaded on a pooled thread. Until that finishes, queries are answered
+ * from the previous snapshot, so they never scan pubspecs on the caller's thread (usually the
+ * Swing dispatch thread). Only the first snapshot is computed on the caller's thread, since
+ * there is nothing to serve before it.
+ */
+public class FlutterModuleCache {
+  private static final Set<String> WATCHED_NAMES = ImmutableSet.of("pubspec.yaml", ".packages", "lib");
+
+  @NotNull private final Project project;
+
+  /**
+   * The current answers, or null if no query has been made yet.
+   */
+  private volatile Snapshot snapshot;
+
+  /**
+   * Modules whose pub roots changed since the snapshot was taken.
+   * <p>
+   * Access should be synchronized on this cache.
+   */
+  private final Set<Module> staleModules = new HashSet<>();
+
+  /**
+   * True if the project's modules or their roots changed since the snapshot was taken.
+   * <p>
+   * Access should be synchronized on this cache.
+   */
+  private boolean rootsChanged;
+
+  /**
+   * True while a pooled thread is rebuilding the snapshot.
+   * <p>
+   * Access should be synchronized on this cache.
+   */
+  private boolean rebuilding;
+
+  /**
+   * Incremented whenever the Bazel answer may have changed.
+   */
+  private final AtomicInteger workspaceVersion = new AtomicInteger();
+
+  /**
+   * The last Bazel answer computed, or null if none yet.
+   * <p>
+   * Only valid when its version matches {@link #workspaceVersion}.
+   */
+  private volatile WorkspaceAnswer bazelWorkspace;
+
+  @VisibleForTesting
+  FlutterModuleCache(@NotNull Project project) {
+    this.project = project;
+
+    ProjectWatch.subscribe(project, this::onRootsChanged);
+
+    final MessageBusConnection bus = project.getMessageBus().connect(project);
+    bus.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+      @Override
+      public void before(@NotNull List<? extends VFileEvent> events) {
+      }
+
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+          onFileChanged(event.getPath());
+        }
+      }
+    });
+
+    WorkspaceCache.getInstance(project).subscribe(workspaceVersion::incrementAndGet);
+  }
+
+  /**
+   * Returns the cache for a project, or null if the service isn't available (for example, in the default project).
+   */
+  @Nullable
+  public static FlutterModuleCache getInstance(@NotNull Project project) {
+    if (project.isDisposed() || project.isDefault()) return null;
+    return ServiceManager.getService(project, FlutterModuleCache.class);
+  }
+
+  /**
+   * Returns true if any module has a pub root that declares flutter.
+   */
+  public boolean usesFlutter() {
+    return !getSnapshot().usesFlutter.isEmpty();
+  }
+
+  public boolean usesFlutter(@NotNull Module module) {
+    final Snapshot current = getSnapshot();
+    if (!current.pubRoots.containsKey(module)) {
+      // Not known yet (for example, a module that is still being created).
+      return FlutterModuleUtils.computeUsesFlutter(module);
+    }
+    return current.usesFlutter.contains(module);
+  }
+
+  public boolean isFlutterModule(@NotNull Module module) {
+    final Snapshot current = getSnapshot();
+    if (!current.pubRoots.containsKey(module)) {
+      return FlutterModuleUtils.computeIsFlutterModule(module);
+    }
+    return current.flutterModules.contains(module);
+  }
+
+  public boolean hasFlutterModule() {
+    return !getSnapshot().flutterModules.isEmpty();
+  }
+
+  /**
+   * Returns the modules that are Flutter modules or have a pubspec that declares flutter.
+   */
+  @NotNull
+  public List<Module> getModulesWithFlutterContents() {
+    return getSnapshot().withFlutterContents;
+  }
+
+  /**
+   * Returns the pub roots of each module, as of the last change to its content roots or pubspec.
+   * <p>
+   * (Just after a change, this may briefly return the previous pub roots while they are reloaded.)
+   */
+  @NotNull
+  public ImmutableMap<Module, ImmutableList<PubRoot>> getPubRoots() {
+    return getSnapshot().pubRoots;
+  }
+
+  /**
+   * Returns the Bazel workspace if at least one Dart-enabled module uses Flutter according to it.
+   */
+  @Nullable
+  public Workspace getFlutterBazelWorkspace() {
+    final Snapshot current = getSnapshot();
+    final int version = workspaceVersion.get();
+    final WorkspaceAnswer answer = bazelWorkspace;
+    if (answer != null && answer.version == version) {
+      return answer.workspace;
+    }
+
+    // Not synchronized, since the WorkspaceCache may block until it's loaded. Concurrent callers may
+    // compute the same answer; if it's invalidated meanwhile, the version won't match next time.
+    final Workspace next = computeBazelWorkspace(current.pubRoots.keySet());
+    bazelWorkspace = new WorkspaceAnswer(version, next);
+    return next;
+  }
+
+  private void onRootsChanged() {
+    workspaceVersion.incrementAndGet();
+    synchronized (this) {
+      rootsChanged = true;
+      scheduleRebuild();
+    }
+  }
+
+  private void onFileChanged(@NotNull String path) {
+    final Snapshot current = snapshot;
+    if (current == null) return;
+
+    final String name = PathUtil.getFileName(path);
+    if (!WATCHED_NAMES.contains(name)) return;
+
+    final Module module = current.modulesByContentRoot.get(PathUtil.getParentPath(path));
+    if (module == null) return;
+
+    synchronized (this) {
+      staleModules.add(module);
+      scheduleRebuild();
+    }
+  }
+
+  /**
+   * Starts rebuilding the snapshot on a pooled thread, unless that's already happening.
+   * <p>
+   * Should be called while synchronized on this cache.
+   */
+  private void scheduleRebuild() {
+    if (rebuilding) return;
+    rebuilding = true;
+    ApplicationManager.getApplication().executeOnPooledThread(this::rebuild);
+  }
+
+  /**
+   * Reloads invalidated modules until nothing is left to do.
+   */
+  private void rebuild() {
+    while (true) {
+      final Set<Module> stale;
+      synchronized (this) {
+        if (project.isDisposed() || (staleModules.isEmpty() && !rootsChanged)) {
+          rebuilding = false;
+          return;
+        }
+        stale = new HashSet<>(staleModules);
+        staleModules.clear();
+        rootsChanged = false;
+      }
+
+      try {
+        final Snapshot next = ApplicationManager.getApplication().runReadAction((Computable<Snapshot>)() -> {
+          if (project.isDisposed()) return null;
+          final Snapshot current = snapshot;
+          return current == null ? computeSnapshot() : current.update(FlutterModuleUtils.getModules(project), stale);
+        });
+        if (next != null) {
+          synchronized (this) {
+            snapshot = next;
+          }
+        }
+      }
+      catch (Exception e) {
+        LOG.warn("Unable to reload Flutter modules", e);
+      }
+    }
+  }
+
+  @NotNull
+  private Snapshot getSnapshot() {
+    final Snapshot current = snapshot;
+    if (current != null) {
+      return current;
+    }
+
+    // Nothing to serve yet, so compute it here. (Not synchronized, so that file events aren't blocked meanwhile.)
+    final Snapshot first = computeSnapshot();
+    synchronized (this) {
+      if (snapshot == null) {
+        snapshot = first;
+      }
+      return snapshot;
+    }
+  }
+
+  @NotNull
+  private Snapshot computeSnapshot() {
+    final Map<Module, ImmutableList<PubRoot>> pubRoots = new LinkedHashMap<>();
+    for (Module module : FlutterModuleUtils.getModules(project)) {
+      pubRoots.put(module, ImmutableList.copyOf(PubRoots.forModule(module)));
+    }
+    return new Snapshot(pubRoots);
+  }
+
+  /**
+   * Returns true if no modules are waiting to be reloaded.
+   */
+  @VisibleForTesting
+  synchronized boolean isUpToDate() {
+    return !rebuilding && staleModules.isEmpty() && !rootsChanged;
+  }
+
+  @Nullable
+  private Workspace computeBazelWorkspace(@NotNull Collection<Module> modules) {
+    if (project.isDisposed()) return null;
+    final Workspace workspace = WorkspaceCache.getInstance(project).getNow();
+    if (workspace == null) return null;
+    for (Module module : modules) {
+      if (!module.isDisposed() && DartPlugin.isDartSdkEnabled(module) && workspace.usesFlutter(module)) {
+        return workspace;
+      }
+    }
+    return null;
+  }
+
+  private static final Logger LOG = Logger.getInstance(FlutterModuleCache.class);
+
+  /**
+   * A Bazel answer and the {@link #workspaceVersion} it was computed for.
+   */
+  private static class WorkspaceAnswer {
+    final int version;
+    @Nullable final Workspace workspace;
+
+    WorkspaceAnswer(int version, @Nullable Workspace workspace) {
+      this.version = version;
+      this.workspace = workspace;
+    }
+  }
+
+  /**
+   * The answers for every module of the project at one point in time.
+   */
+  private static class Snapshot {
+    @NotNull final ImmutableMap<Module, ImmutableList<PubRoot>> pubRoots;
+    @NotNull final ImmutableMap<Module, ImmutableList<String>> contentRoots;
+    @NotNull final ImmutableMap<String, Module> modulesByContentRoot;
+    @NotNull final ImmutableSet<Module> usesFlutter;
+    @NotNull final ImmutableSet<Module> flutterModules;
+    @NotNull final ImmutableList<Module> withFlutterContents;
+
+    Snapshot(@NotNull Map<Module, ImmutableList<PubRoot>> pubRoots) {
+      this.pubRoots = ImmutableMap.copyOf(pubRoots);
+
+      final ImmutableMap.Builder<Module, ImmutableList<String>> contentRoots = ImmutableMap.builder();
+      final Map<String, Module> byRoot = new HashMap<>();
+      final ImmutableSet.Builder<Module> usesFlutter = ImmutableSet.builder();
+      final ImmutableSet.Builder<Module> flutterModules = ImmutableSet.builder();
+      final ImmutableList.Builder<Module> withFlutterContents = ImmutableList.builder();
+      for (Map.Entry<Module, ImmutableList<PubRoot>> entry : this.pubRoots.entrySet()) {
+        final Module module = entry.getKey();
+        if (module.isDisposed()) continue;
+
+        final ImmutableList<String> paths = getContentRootPaths(module);
+        contentRoots.put(module, paths);
+        for (String path : paths) {
+          byRoot.put(path, module);
+        }
+
+        boolean declaresFlutter = false;
+        for (PubRoot root : entry.getValue()) {
+          if (root.declaresFlutter()) {
+            declaresFlutter = true;
+            break;
+          }
+        }
+        if (declaresFlutter) {
+          usesFlutter.add(module);
+        }
+
+        final boolean isFlutterModule = FlutterModuleUtils.computeIsFlutterModule(module, declaresFlutter);
+        if (isFlutterModule) {
+          flutterModules.add(module);
+        }
+        if (isFlutterModule || declaresFlutter) {
+          withFlutterContents.add(module);
+        }
+      }
+      this.contentRoots = contentRoots.build();
+      this.modulesByContentRoot = ImmutableMap.copyOf(byRoot);
+      this.usesFlutter = usesFlutter.build();
+      this.flutterModules = flutterModules.build();
+      this.withFlutterContents = withFlutterContents.build();
+    }
+
+    /**
+     * Returns a snapshot of the given modules, reusing the pub roots of each module that isn't
+     * stale and whose content roots didn't change.
+     */
+    @NotNull
+    Snapshot update(@NotNull Module[] modules, @NotNull Collection<Module> stale) {
+      final Map<Module, ImmutableList<PubRoot>> next = new LinkedHashMap<>();
+      for (Module module : modules) {
+        if (module.isDisposed()) continue;
+
+        final ImmutableList<PubRoot> previous = pubRoots.get(module);
+        if (previous != null && !stale.contains(module) && getContentRootPaths(module).equals(contentRoots.get(module))) {
+          next.put(module, previous);
+        }
+        else {
+          next.put(module, ImmutableList.copyOf(PubRoots.forModule(module)));
+        }
+      }
+      return new Snapshot(next);
+    }
+
+    @NotNull
+    private static ImmutableList<String> getContentRootPaths(@NotNull Module module) {
+      final ImmutableList.Builder<String> paths = ImmutableList.builder();
+      for (VirtualFile root : ModuleRootManager.getInstance(module).getContentRoots()) {
+        paths.add(root.getPath());
+      }
+      return paths.build();
+    }
+  }
+}
@@ -68,11 +68,23 @@ public class FlutterModuleUtils {
    * </code>
    */
   public static boolean isFlutterModule(@Nullable final Module module) {
-    if (module == null) return false;
+    if (module == null || module.isDisposed()) return false;
 
+    final FlutterModuleCache cache = FlutterModuleCache.getInstance(module.getProject());
+    return cache != null ? cache.isFlutterModule(module) : computeIsFlutterModule(module);
+  }
+
+  static boolean computeIsFlutterModule(@NotNull final Module module) {
+    return computeIsFlutterModule(module, !PlatformUtils.isIntelliJ() && computeUsesFlutter(module));
+  }
+
+  /**
+   * Like {@link #isFlutterModule}, given whether the module has a pubspec that declares flutter.
+   */
+  static boolean computeIsFlutterModule(@NotNull final Module module, boolean usesFlutter) {
     // If not IntelliJ, assume a small IDE (no multi-module project support).
     if (!PlatformUtils.isIntelliJ()) {
-      return usesFlutter(module);
+      return usesFlutter;
     }
     else {
       // [Flutter support enabled for a module] ===
@@ -84,7 +96,11 @@ public class FlutterModuleUtils {
   }
 
   public static boolean hasFlutterModule(@NotNull Project project) {
-    return CollectionUtils.anyMatch(getModules(project), FlutterModuleUtils::isFlutterModule);
+    final FlutterModuleCache cache = FlutterModuleCache.getInstance(project);
+    if (cache != null) {
+      return cache.hasFlutterModule();
+    }
+    return CollectionUtils.anyMatch(getModules(project), FlutterModuleUtils::computeIsFlutterModule);
   }
 
   public static boolean isInFlutterModule(@NotNull PsiElement element) {
@@ -98,6 +114,11 @@ public class FlutterModuleUtils {
   @Nullable
   public static Workspace getFlutterBazelWorkspace(@Nullable Project project) {
     if (project == null) return null;
+    final FlutterModuleCache cache = FlutterModuleCache.getInstance(project);
+    if (cache != null) {
+      return cache.getFlutterBazelWorkspace();
+    }
+
     final Workspace workspace = WorkspaceCache.getInstance(project).getNow();
     if (workspace == null) return null;
     for (Module module : getModules(project)) {
@@ -168,7 +189,11 @@ public class FlutterModuleUtils {
    * Check if any module in this project {@link #usesFlutter(Module)}.
    */
   public static boolean usesFlutter(@NotNull Project project) {
-    return CollectionUtils.anyMatch(getModules(project), FlutterModuleUtils::usesFlutter);
+    final FlutterModuleCache cache = FlutterModuleCache.getInstance(project);
+    if (cache != null) {
+      return cache.usesFlutter();
+    }
+    return CollectionUtils.anyMatch(getModules(project), FlutterModuleUtils::computeUsesFlutter);
   }
 
   /**
@@ -232,6 +257,13 @@ public class FlutterModuleUtils {
    * True is returned if any of the PubRoots associated with the {@link Module} have a pubspec that declares flutter.
    */
   public static boolean usesFlutter(@NotNull Module module) {
+    if (module.isDisposed()) return false;
+
+    final FlutterModuleCache cache = FlutterModuleCache.getInstance(module.getProject());
+    return cache != null ? cache.usesFlutter(module) : computeUsesFlutter(module);
+  }
+
+  static boolean computeUsesFlutter(@NotNull Module module) {
     for (PubRoot root : PubRoots.forModule(module)) {
       if (root.declaresFlutter()) {
         return true;
@@ -249,7 +281,11 @@ public class FlutterModuleUtils {
    */
   @NotNull
   public static List<Module> findModulesWithFlutterContents(@NotNull Project project) {
-    return CollectionUtils.filter(getModules(project), m -> isFlutterModule(m) || usesFlutter(m));
+    final FlutterModuleCache cache = FlutterModuleCache.getInstance(project);
+    if (cache != null) {
+      return cache.getModulesWithFlutterContents();
+    }
+    return CollectionUtils.filter(getModules(project), m -> computeIsFlutterModule(m) || computeUsesFlutter(m));
   }
 
   public static boolean convertFromDeprecatedModuleType(@NotNull Project project) {
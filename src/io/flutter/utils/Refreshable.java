@@ -30,11 +30,15 @@ import java.util.function.Consumer;
  *
  * <p>It's guaranteed that a Refreshable's visible state won't change while an event handler
  * is running on the Swing dispatch thread.
+ *
+ * <p>Optionally, refresh requests can be debounced (see {@link #setDebounceMillis}), so that
+ * a burst of requests results in one call to the last callback.
  */
 public class Refreshable<T> implements Closeable {
 
   private final Schedule schedule = new Schedule();
   private final Publisher publisher;
+  private final RefreshableStats stats;
 
   /**
    * Holds a future that completes when the background task exits.
@@ -57,8 +61,34 @@ public class Refreshable<T> implements Closeable {
    */
   private final Disposable disposeNode;
 
+  /**
+   * If positive, how long to wait for more refresh requests before running a callback.
+   */
+  private volatile int debounceMillis;
+
+  /**
+   * When the most recent refresh request was made, from System.nanoTime().
+   */
+  private volatile long lastRequestNanos;
+
+  /**
+   * Submits the pending background task when the debounce period is over.
+   *
+   * <p>Null when no background task is waiting to start.
+   * Access should be synchronized on {@link #backgroundTask}.
+   */
+  private ScheduledFuture<?> debounceTimer;
+
+  /**
+   * Incremented whenever {@link #debounceTimer} is replaced, so that a timer that fires just as it's
+   * replaced doesn't start the task early.
+   *
+   * <p>Access should be synchronized on {@link #backgroundTask}.
+   */
+  private int debounceTimerVersion;
+
   public Refreshable() {
-    this(null);
+    this("Refreshable", null);
   }
 
   /**
@@ -68,8 +98,30 @@ public class Refreshable<T> implements Closeable {
    *                   the value was never published. It will run on the Swing dispatch thread.
    */
   public Refreshable(Consumer<T> unpublish) {
+    this("Refreshable", unpublish);
+  }
+
+  /**
+   * Creates a refreshable variable with a name, used to identify its {@link RefreshableStats}.
+   *
+   * @param unpublish  will be called when the value is no longer in use. Can be called even though
+   *                   the value was never published. It will run on the Swing dispatch thread.
+   */
+  public Refreshable(@NotNull String name, @Nullable Consumer<T> unpublish) {
     this.publisher = new Publisher(unpublish);
     this.disposeNode = this::close;
+    this.stats = new RefreshableStats(name);
+    RefreshableStats.register(this, stats);
+  }
+
+  /**
+   * Waits until no refresh has been requested for the given time before running a callback.
+   *
+   * <p>Requests made in the meantime replace the pending one, so only the last callback runs.
+   * Zero (the default) runs callbacks as soon as possible.
+   */
+  public void setDebounceMillis(int millis) {
+    this.debounceMillis = millis;
   }
 
   /**
@@ -83,6 +135,14 @@ public class Refreshable<T> implements Closeable {
     return publisher.get();
   }
 
+  /**
+   * Returns counters and timings for this Refreshable.
+   */
+  @NotNull
+  public RefreshableStats getStats() {
+    return stats;
+  }
+
   /**
    * Returns whether the Refreshable is busy, idle, or closed.
    */
@@ -105,15 +165,14 @@ public class Refreshable<T> implements Closeable {
 
     publisher.waitForFirstValue();
 
-    final Future refreshDone = backgroundTask.get();
-    if (refreshDone == null) {
-      return getNow(); // No background task; currently idle.
-    }
-
-    try {
-      refreshDone.get();
-    } catch (Exception e) {
-      LOG.warn("Unexpected exception waiting for refresh task to finish", e);
+    // A debounced task may hand off a request that's still too recent to a new task, so wait for that one too.
+    for (Future refreshDone = backgroundTask.get(); refreshDone != null; refreshDone = backgroundTask.get()) {
+      try {
+        refreshDone.get();
+      } catch (Exception e) {
+        LOG.warn("Unexpected exception waiting for refresh task to finish", e);
+        break;
+      }
     }
     return getNow();
   }
@@ -161,13 +220,53 @@ public class Refreshable<T> implements Closeable {
       LOG.warn("attempted to update closed Refreshable");
       return;
     }
+    stats.requested();
+    lastRequestNanos = System.nanoTime();
     schedule.reschedule(new Request<>(this, callback));
 
+    final int debounce = debounceMillis;
+    if (debounce > 0) {
+      startAfter(debounce);
+      return;
+    }
+
     // Start up the background task if it's not running.
     final FutureTask next = new FutureTask<>(this::runInBackground, null);
     if (backgroundTask.compareAndSet(null, next)) {
-      // Wait until after event handler currently running, in case it calls refresh again.
-      SwingUtilities.invokeLater(() -> AppExecutorUtil.getAppExecutorService().submit(next));
+      if (SwingUtilities.isEventDispatchThread()) {
+        // Wait until after event handler currently running, in case it calls refresh again.
+        SwingUtilities.invokeLater(() -> AppExecutorUtil.getAppExecutorService().submit(next));
+      }
+      else {
+        AppExecutorUtil.getAppExecutorService().submit(next);
+      }
+    }
+  }
+
+  /**
+   * Starts the background task after a delay, unless it's already running.
+   *
+   * <p>If the task is still waiting to start, its timer is re-armed, so that it starts after the
+   * most recent request rather than the first one. (No thread is tied up while waiting.)
+   */
+  private void startAfter(long delayMillis) {
+    synchronized (backgroundTask) {
+      if (debounceTimer != null) {
+        debounceTimer.cancel(false);
+      }
+      else if (!backgroundTask.compareAndSet(null, new FutureTask<>(this::runInBackground, null))) {
+        return; // Running; it will call this again if a request is still too recent when it gets to it.
+      }
+
+      final Runnable next = (Runnable)backgroundTask.get();
+      final int version = ++debounceTimerVersion;
+      debounceTimer = AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+        synchronized (backgroundTask) {
+          if (version != debounceTimerVersion) return; // Re-armed.
+          debounceTimer = null;
+        }
+        AppExecutorUtil.getAppExecutorService().submit(next);
+      }, delayMillis, TimeUnit.MILLISECONDS);
     }
   }
 
@@ -208,41 +307,73 @@ public class Refreshable<T> implements Closeable {
     try {
       publisher.setState(State.BUSY);
 
-      for (Request<T> request = schedule.next(); request != null; request = schedule.next()) {
+      for (Request<T> request = nextRequest(); request != null; request = nextRequest()) {
         // Do the work.
+        final long start = System.nanoTime();
         try {
           final T value = request.callback.call(request);
           publisher.reschedule(value);
         } catch (CancellationException e) {
           // This is normal.
         } catch (Exception e) {
+          stats.failed();
           if (!Objects.equal(e.getMessage(), "expected failure in test")) {
             LOG.warn("Callback threw an exception while updating a Refreshable", e);
           }
         } finally {
+          stats.getCallbackTime().record(System.nanoTime() - start);
           schedule.done(request);
         }
 
-        try {
-          // Wait for an opportunity to publish.
-          SwingUtilities.invokeAndWait(() -> {
-            // If the schedule changed in the meantime, skip publishing the value.
-            if (!schedule.hasNext()) {
-              if (publisher.publish()) {
-                publisher.fireEvent();
-              }
-            }
-          });
-        } catch (Exception e) {
-          LOG.warn("Unable to publish a value while updating a Refreshable", e);
-        }
+        // Publish on the next opportunity, without waiting for it.
+        // (Setting the state to IDLE below waits, so that getWhenReady() sees the value.)
+        final long queued = System.nanoTime();
+        SwingUtilities.invokeLater(() -> {
+          stats.getPublishWait().record(System.nanoTime() - queued);
+
+          // If the schedule changed in the meantime, skip publishing the value.
+          // (The newer request will publish instead.)
+          if (schedule.isBusy()) {
+            stats.published(true);
+            return;
+          }
+          if (publisher.publish()) {
+            stats.published(false);
+            publisher.fireEvent();
+          }
+        });
       }
     } finally {
       publisher.setState(State.IDLE);
       backgroundTask.set(null); // Allow restart on exit.
+
+      // A request left behind (still in its debounce period, or made just as we were exiting) needs a new task.
+      if (schedule.hasNext() && !publisher.isClosing()) {
+        startAfter(Math.max(0, getDebounceRemainingMillis()));
+      }
     }
   }
 
+  /**
+   * Returns the next request to run, or null if there is none or it's still in its debounce period.
+   */
+  @Nullable
+  private Request<T> nextRequest() {
+    if (getDebounceRemainingMillis() > 0) {
+      return null;
+    }
+    return schedule.next();
+  }
+
+  /**
+   * Returns how much longer to wait for more refresh requests; zero or less if the wait is over.
+   */
+  private long getDebounceRemainingMillis() {
+    final int debounce = debounceMillis;
+    if (debounce <= 0) return 0;
+    return debounce - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastRequestNanos);
+  }
+
   private static final Logger LOG = Logger.getInstance(Refreshable.class);
 
   /**
@@ -324,6 +455,12 @@ public class Refreshable<T> implements Closeable {
      * Replaces currently scheduled tasks with a new task.
      */
     synchronized void reschedule(@Nullable Request<T> request) {
+      if (scheduled != null) {
+        stats.merged();
+      }
+      if (running != null && cancelled != running) {
+        stats.cancelled();
+      }
       scheduled = request;
       cancelled = running;
     }
@@ -335,6 +472,13 @@ public class Refreshable<T> implements Closeable {
       return scheduled != null;
     }
 
+    /**
+     * Checks if there is any work scheduled or running.
+     */
+    synchronized boolean isBusy() {
+      return scheduled != null || running != null;
+    }
+
     /**
      * Returns the next task to run, or null if nothing is scheduled.
      */
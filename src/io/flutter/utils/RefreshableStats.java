@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.utils;
+
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for one {@link Refreshable}.
+ *
+ * <p>All updates are lock-free. The stats of every live Refreshable can be listed with {@link #getAll},
+ * to find out which one is refreshing too often or taking too long.
+ */
+public class RefreshableStats {
+  /**
+   * The stats for each Refreshable that hasn't been garbage collected.
+   */
+  private static final Map<Refreshable<?>, RefreshableStats> all = ContainerUtil.createConcurrentWeakMap();
+
+  @NotNull private final String name;
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder merged = new LongAdder();
+  private final LongAdder cancelled = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder published = new LongAdder();
+  private final LongAdder skippedPublishes = new LongAdder();
+
+  private final Histogram callbackTime = new Histogram();
+  private final Histogram publishWait = new Histogram();
+
+  RefreshableStats(@NotNull String name) {
+    this.name = name;
+  }
+
+  static void register(@NotNull Refreshable<?> target, @NotNull RefreshableStats stats) {
+    all.put(target, stats);
+  }
+
+  /**
+   * Returns the stats for every live Refreshable, sorted by name.
+   */
+  @NotNull
+  public static List<RefreshableStats> getAll() {
+    final List<RefreshableStats> result = new ArrayList<>(all.values());
+    result.sort(Comparator.comparing(RefreshableStats::getName));
+    return result;
+  }
+
+  @NotNull
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The number of calls to {@link Refreshable#refresh}.
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * The number of requests that were replaced by a newer one before they started.
+   */
+  public long getMerged() {
+    return merged.sum();
+  }
+
+  /**
+   * The number of requests that were cancelled while running.
+   */
+  public long getCancelled() {
+    return cancelled.sum();
+  }
+
+  /**
+   * The number of callbacks that threw an exception (other than a CancellationException).
+   */
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  public long getPublished() {
+    return published.sum();
+  }
+
+  /**
+   * The number of publish attempts that were skipped because a newer request was pending.
+   */
+  public long getSkippedPublishes() {
+    return skippedPublishes.sum();
+  }
+
+  /**
+   * How long refresh callbacks took to run.
+   */
+  @NotNull
+  public Histogram getCallbackTime() {
+    return callbackTime;
+  }
+
+  /**
+   * How long values waited for the Swing dispatch thread before being published.
+   */
+  @NotNull
+  public Histogram getPublishWait() {
+    return publishWait;
+  }
+
+  void requested() {
+    requests.increment();
+  }
+
+  void merged() {
+    merged.increment();
+  }
+
+  void cancelled() {
+    cancelled.increment();
+  }
+
+  void failed() {
+    failed.increment();
+  }
+
+  void published(boolean skipped) {
+    if (skipped) {
+      skippedPublishes.increment();
+    }
+    else {
+      published.increment();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name + ": " + getRequests() + " requests, " + getMerged() + " merged, " + getCancelled() + " cancelled, " +
+           getFailed() + " failed, " + getPublished() + " published, " + getSkippedPublishes() + " skipped publishes; " +
+           "callback " + callbackTime + "; publish wait " + publishWait;
+  }
+
+  /**
+   * A latency histogram with power-of-two buckets, in microseconds.
+   */
+  public static class Histogram {
+    private static final int BUCKETS = 32;
+
+    /**
+     * Bucket i counts latencies below 2^i microseconds (and at least 2^(i-1)).
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+      final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+      final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      buckets.incrementAndGet(bucket);
+      count.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public double getMeanMillis() {
+      final long n = getCount();
+      return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+      return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile (0-100), in milliseconds.
+     */
+    public double getPercentileMillis(double percentile) {
+      final long n = getCount();
+      if (n == 0) return 0;
+
+      final long wanted = (long)Math.ceil(n * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets.get(i);
+        if (seen >= wanted) {
+          return Math.min((1L << i) / 1000.0, getMaxMillis());
+        }
+      }
+      return getMaxMillis();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("n=%d mean=%.1fms p50<=%.1fms p99<=%.1fms max=%.1fms",
+                           getCount(), getMeanMillis(), getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+    }
+  }
+}
@@ -21,33 +21,33 @@ public class StdoutJsonParser {
   public void appendOutput(String output) {
     buffer.append(output);
 
-    while (buffer.length() > 0) {
-      if (buffer.length() >= 2 && buffer.charAt(0) == '[' && buffer.charAt(1) == '{') {
-        final int endIndex = buffer.indexOf("}]");
-        if (endIndex != -1) {
-          String line = buffer.substring(0, endIndex + 2);
-          buffer.delete(0, endIndex + 2);
-          if (buffer.length() > 0 && buffer.charAt(0) == '\n') {
-            line += "\n";
-            buffer.delete(0, 1);
-          }
-          lines.add(line);
-        }
-        else {
+    // Consume complete lines, then remove them from the buffer all at once.
+    int start = 0;
+    final int length = buffer.length();
+    while (start < length) {
+      if (length - start >= 2 && buffer.charAt(start) == '[' && buffer.charAt(start + 1) == '{') {
+        final int endIndex = buffer.indexOf("}]", start);
+        if (endIndex == -1) {
           // Wait for a json terminator.
           break;
         }
-      }
-      else if (buffer.indexOf("\n") != -1) {
-        final int endIndex = buffer.indexOf("\n");
-        final String line = buffer.substring(0, endIndex + 1);
-        buffer.delete(0, endIndex + 1);
-        lines.add(line);
+        int lineEnd = endIndex + 2;
+        if (lineEnd < length && buffer.charAt(lineEnd) == '\n') {
+          lineEnd++;
+        }
+        lines.add(buffer.substring(start, lineEnd));
+        start = lineEnd;
       }
       else {
-        break;
+        final int endIndex = buffer.indexOf("\n", start);
+        if (endIndex == -1) {
+          break;
+        }
+        lines.add(buffer.substring(start, endIndex + 1));
+        start = endIndex + 1;
       }
     }
+    buffer.delete(0, start);
   }
 
   /**
@@ -61,6 +61,12 @@ public class FlutterView implements PersistentStateComponent<FlutterView.State>,
   @Nullable
   FlutterApp app;
 
+  /**
+   * Our listener on the current app's VM service connection, if any.
+   */
+  @Nullable
+  private Disposable connectionSubscription;
+
   private final ArrayList<InspectorPanel> inspectorPanels = new ArrayList<>();
 
   public FlutterView(@NotNull Project project) {
@@ -69,6 +75,18 @@ public class FlutterView implements PersistentStateComponent<FlutterView.State>,
 
   @Override
   public void dispose() {
+    stopListening();
+  }
+
+  private void stopListening() {
+    final Disposable subscription;
+    synchronized (this) {
+      subscription = connectionSubscription;
+      connectionSubscription = null;
+    }
+    if (subscription != null) {
+      subscription.dispose();
+    }
   }
 
   @NotNull
@@ -150,7 +168,8 @@ public class FlutterView implements PersistentStateComponent<FlutterView.State>,
   public void debugActive(@NotNull FlutterViewMessages.FlutterDebugEvent event) {
     this.app = event.app;
 
-    event.vmService.addVmServiceListener(new VmServiceListenerAdapter() {
+    // Only interested in connection state, so this doesn't subscribe to any streams.
+    final Disposable subscription = event.connection.listen(new VmServiceListenerAdapter() {
       @Override
       public void connectionOpened() {
         onAppChanged();
@@ -163,6 +182,15 @@ public class FlutterView implements PersistentStateComponent<FlutterView.State>,
       }
     });
 
+    final Disposable previous;
+    synchronized (this) {
+      previous = connectionSubscription;
+      connectionSubscription = subscription;
+    }
+    if (previous != null) {
+      previous.dispose();
+    }
+
     onAppChanged();
   }
 
@@ -10,7 +10,7 @@ import com.intellij.util.messages.MessageBus;
 import com.intellij.util.messages.Topic;
 import io.flutter.run.daemon.FlutterApp;
 import io.flutter.inspector.InspectorService;
-import org.dartlang.vm.service.VmService;
+import io.flutter.vmService.VmServiceConnection;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -25,23 +25,23 @@ public class FlutterViewMessages {
 
   public static class FlutterDebugEvent {
     public final @NotNull FlutterApp app;
-    public final @NotNull VmService vmService;
+    public final @NotNull VmServiceConnection connection;
 
     FlutterDebugEvent(@NotNull FlutterApp app,
-                      @NotNull VmService vmService) {
+                      @NotNull VmServiceConnection connection) {
       this.app = app;
-      this.vmService = vmService;
+      this.connection = connection;
     }
   }
 
   public static void sendDebugActive(@NotNull Project project,
                                      @NotNull FlutterApp app,
-                                     @NotNull VmService vmService) {
+                                     @NotNull VmServiceConnection connection) {
     final MessageBus bus = project.getMessageBus();
     final FlutterDebugNotifier publisher = bus.syncPublisher(FLUTTER_DEBUG_TOPIC);
-    app.setVmService(vmService);
+    app.setVmService(connection.getVmService());
     assert(app.getFlutterDebugProcess() != null);
-    app.setInspectorService( new InspectorService(app.getFlutterDebugProcess(), vmService));
-    publisher.debugActive(new FlutterDebugEvent(app, vmService));
+    app.setInspectorService( new InspectorService(app.getFlutterDebugProcess(), connection));
+    publisher.debugActive(new FlutterDebugEvent(app, connection));
   }
 }
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.vmService;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.diagnostic.Logger;
+import com.jetbrains.lang.dart.ide.runner.server.vmService.VmOpenSourceLocationListener;
+import de.roderick.weberknecht.WebSocket;
+import org.dartlang.vm.service.VmService;
+import org.dartlang.vm.service.VmServiceListener;
+import org.dartlang.vm.service.consumer.SuccessConsumer;
+import org.dartlang.vm.service.element.Event;
+import org.dartlang.vm.service.element.RPCError;
+import org.dartlang.vm.service.element.Success;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The single connection to the VM service used by a debug session.
+ *
+ * <p>All consumers (the debugger, the inspector, the Flutter view) share one {@link VmService}
+ * and register their listeners here instead of on the VmService directly. Each consumer only
+ * receives events for the streams it subscribed to, and the streams themselves are reference
+ * counted so that streamListen and streamCancel are sent to the VM only once per stream.
+ *
+ * <p>When possible, the openSourceLocation service is registered over the same WebSocket as the
+ * VmService; otherwise it falls back to a separate connection.
+ */
+public class VmServiceConnection implements Disposable {
+  private static final Logger LOG = Logger.getInstance(VmServiceConnection.class);
+
+  @NotNull private final VmService vmService;
+  @NotNull private final VmOpenSourceLocationListener openSourceLocationListener;
+
+  /**
+   * Registered consumers, in the order they were added.
+   */
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+  /**
+   * The number of subscriptions for each stream that the VM is currently sending us.
+   *
+   * <p>Access should be synchronized on the field.
+   */
+  private final Map<String, Integer> streamCounts = new HashMap<>();
+
+  private volatile boolean disposed;
+
+  private VmServiceConnection(@NotNull VmService vmService, @NotNull VmOpenSourceLocationListener openSourceLocationListener) {
+    this.vmService = vmService;
+    this.openSourceLocationListener = openSourceLocationListener;
+
+    vmService.addVmServiceListener(new VmServiceListener() {
+      @Override
+      public void connectionOpened() {
+        for (Subscription s : subscriptions) {
+          s.listener.connectionOpened();
+        }
+      }
+
+      @Override
+      public void received(String streamId, Event event) {
+        for (Subscription s : subscriptions) {
+          if (s.accepts(streamId)) {
+            s.listener.received(streamId, event);
+          }
+        }
+      }
+
+      @Override
+      public void connectionClosed() {
+        for (Subscription s : subscriptions) {
+          s.listener.connectionClosed();
+        }
+      }
+    });
+  }
+
+  /**
+   * Connects to the VM service at the given WebSocket URL.
+   */
+  @NotNull
+  public static VmServiceConnection connect(@NotNull String url) throws IOException {
+    final VmService vmService = VmService.connect(url);
+
+    VmOpenSourceLocationListener openSourceLocationListener = null;
+    final WebSocket socket = findWebSocket(vmService);
+    if (socket != null) {
+      VmServiceRequestTimer.install(vmService, socket, VmServiceMetrics.getInstance());
+      openSourceLocationListener = VmOpenSourceLocationListener.attach(socket);
+    }
+    if (openSourceLocationListener == null) {
+      LOG.info("unable to share the VM service socket; falling back to a second connection for openSourceLocation");
+      try {
+        openSourceLocationListener = VmOpenSourceLocationListener.connect(url);
+      }
+      catch (IOException e) {
+        vmService.disconnect();
+        throw e;
+      }
+    }
+
+    return new VmServiceConnection(vmService, openSourceLocationListener);
+  }
+
+  @NotNull
+  public VmService getVmService() {
+    return vmService;
+  }
+
+  @NotNull
+  public VmOpenSourceLocationListener getOpenSourceLocationListener() {
+    return openSourceLocationListener;
+  }
+
+  /**
+   * Subscribes a listener to the given streams.
+   *
+   * <p>The listener will receive events only for these streams, plus connection callbacks.
+   * The VM is asked to start sending a stream when its first subscriber is added and to stop
+   * when its last subscriber is disposed.
+   *
+   * @return a handle that unsubscribes the listener when disposed.
+   */
+  @NotNull
+  public Disposable listen(@NotNull VmServiceListener listener, @NotNull String... streamIds) {
+    final Set<String> streams = new HashSet<>(Arrays.asList(streamIds));
+    final Subscription subscription = new Subscription(listener, streams);
+    subscriptions.add(subscription);
+    for (String streamId : streams) {
+      retainStream(streamId);
+    }
+    return subscription;
+  }
+
+  /**
+   * Adds a listener that receives events from every stream without subscribing to any.
+   *
+   * <p>Used by the debugger, whose streams are subscribed by the Dart plugin's VmServiceWrapper.
+   * Call {@link #adoptStreams} to record those subscriptions here.
+   */
+  @NotNull
+  public Disposable addPassiveListener(@NotNull VmServiceListener listener) {
+    final Subscription subscription = new Subscription(listener, null);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /**
+   * Records that some other client of the VmService already subscribed to these streams,
+   * so that they aren't subscribed twice and are never cancelled from here.
+   */
+  public void adoptStreams(@NotNull String... streamIds) {
+    synchronized (streamCounts) {
+      for (String streamId : streamIds) {
+        // The extra count is never released.
+        streamCounts.merge(streamId, 1, Integer::sum);
+      }
+    }
+  }
+
+  private void retainStream(@NotNull String streamId) {
+    synchronized (streamCounts) {
+      final int count = streamCounts.merge(streamId, 1, Integer::sum);
+      if (count > 1 || disposed) {
+        return;
+      }
+    }
+    vmService.streamListen(streamId, new StreamConsumer("streamListen", streamId));
+  }
+
+  private void releaseStream(@NotNull String streamId) {
+    synchronized (streamCounts) {
+      final Integer count = streamCounts.get(streamId);
+      if (count == null) return;
+      if (count > 1) {
+        streamCounts.put(streamId, count - 1);
+        return;
+      }
+      streamCounts.remove(streamId);
+      if (disposed) {
+        return;
+      }
+    }
+    vmService.streamCancel(streamId, new StreamConsumer("streamCancel", streamId));
+  }
+
+  @Override
+  public void dispose() {
+    if (disposed) return;
+    disposed = true;
+    subscriptions.clear();
+    synchronized (streamCounts) {
+      streamCounts.clear();
+    }
+    openSourceLocationListener.disconnect();
+    vmService.disconnect();
+  }
+
+  /**
+   * Looks for the WebSocket that the VmService uses, so other protocols can share it.
+   *
+   * <p>The vm service library doesn't expose it, so we search the VmService's fields
+   * (and the fields of its request sink) by type. Returns null, with a warning, if the
+   * library's layout has changed so that no open socket is found; the caller then opens
+   * its own connection.
+   */
+  @Nullable
+  private static WebSocket findWebSocket(@NotNull VmService vmService) {
+    try {
+      for (Class<?> c = vmService.getClass(); c != null; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) continue;
+          field.setAccessible(true);
+          final Object value = field.get(vmService);
+          if (value instanceof WebSocket) {
+            return (WebSocket)value;
+          }
+          if (value != null && field.getName().toLowerCase().contains("sink")) {
+            final WebSocket socket = findWebSocketField(value);
+            if (socket != null) {
+              return socket;
+            }
+          }
+        }
+      }
+    }
+    catch (IllegalAccessException | RuntimeException e) {
+      LOG.warn("unable to read the VM service socket from " + vmService.getClass().getName(), e);
+      return null;
+    }
+    LOG.warn("no WebSocket found in " + vmService.getClass().getName() + "; the vm service library may have changed");
+    return null;
+  }
+
+  @Nullable
+  private static WebSocket findWebSocketField(@NotNull Object sink) throws IllegalAccessException {
+    for (Class<?> c = sink.getClass(); c != null; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers()) || !WebSocket.class.isAssignableFrom(field.getType())) continue;
+        field.setAccessible(true);
+        final Object value = field.get(sink);
+        if (value != null) {
+          return (WebSocket)value;
+        }
+      }
+    }
+    return null;
+  }
+
+  private class Subscription implements Disposable {
+    @NotNull final VmServiceListener listener;
+
+    /**
+     * The streams delivered to this listener, or null for all of them.
+     */
+    @Nullable final Set<String> streamIds;
+
+    private boolean released;
+
+    Subscription(@NotNull VmServiceListener listener, @Nullable Set<String> streamIds) {
+      this.listener = listener;
+      this.streamIds = streamIds;
+    }
+
+    boolean accepts(String streamId) {
+      return streamIds == null || streamIds.contains(streamId);
+    }
+
+    @Override
+    public void dispose() {
+      synchronized (this) {
+        if (released) return;
+        released = true;
+      }
+      subscriptions.remove(this);
+      if (streamIds != null) {
+        for (String streamId : streamIds) {
+          releaseStream(streamId);
+        }
+      }
+    }
+  }
+
+  private static class StreamConsumer implements SuccessConsumer {
+    private final String method;
+    private final String streamId;
+
+    StreamConsumer(String method, String streamId) {
+      this.method = method;
+      this.streamId = streamId;
+    }
+
+    @Override
+    public void received(Success response) {
+    }
+
+    @Override
+    public void onError(RPCError error) {
+      LOG.info(method + "(" + streamId + ") failed: " + error.getMessage());
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.vmService;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records how long VM service requests and debugger lookups take.
+ *
+ * <p>Samples go into a fixed-size ring buffer without locking; when it's full, the oldest
+ * samples are overwritten. Recording is off by default, and when it's off, {@link #start}
+ * and {@link #record} return immediately.
+ *
+ * <p>The samples can be exported in the Chrome trace event format, so they can be viewed
+ * as a timeline in chrome://tracing.
+ */
+public class VmServiceMetrics {
+  private static final int DEFAULT_CAPACITY = 8192;
+
+  private static final VmServiceMetrics instance = new VmServiceMetrics(DEFAULT_CAPACITY);
+
+  public enum Kind {
+    /**
+     * A request sent to the VM, timed until its response arrived.
+     */
+    REQUEST,
+
+    /**
+     * A lookup that was answered from a cache.
+     */
+    CACHE_HIT,
+
+    /**
+     * A lookup that had to go to the VM (or do other expensive work).
+     */
+    CACHE_MISS
+  }
+
+  /**
+   * One timed operation.
+   */
+  public static class Sample {
+    @NotNull public final Kind kind;
+    @NotNull public final String method;
+    @Nullable public final String isolateId;
+
+    /**
+     * The size of the request in chars, or 0 if unknown.
+     */
+    public final int requestSize;
+
+    /**
+     * When the operation started, in milliseconds since the epoch.
+     */
+    public final long startMillis;
+
+    public final long durationNanos;
+
+    Sample(@NotNull Kind kind,
+           @NotNull String method,
+           @Nullable String isolateId,
+           int requestSize,
+           long startMillis,
+           long durationNanos) {
+      this.kind = kind;
+      this.method = method;
+      this.isolateId = isolateId;
+      this.requestSize = requestSize;
+      this.startMillis = startMillis;
+      this.durationNanos = durationNanos;
+    }
+  }
+
+  private final AtomicReferenceArray<Sample> ring;
+  private final AtomicLong nextSlot = new AtomicLong();
+  private volatile boolean enabled;
+
+  VmServiceMetrics(int capacity) {
+    ring = new AtomicReferenceArray<>(capacity);
+  }
+
+  @NotNull
+  public static VmServiceMetrics getInstance() {
+    return instance;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Returns a start time to pass to {@link #record}, or 0 if recording is off.
+   */
+  public long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records an operation that started at the given time (as returned by {@link #start}).
+   *
+   * <p>Does nothing if recording was off when the operation started.
+   */
+  public void record(@NotNull Kind kind, @NotNull String method, @Nullable String isolateId, int requestSize, long startNanos) {
+    if (startNanos == 0 || !enabled) return;
+
+    final long duration = System.nanoTime() - startNanos;
+    final long startMillis = System.currentTimeMillis() - duration / 1000000;
+    final Sample sample = new Sample(kind, method, isolateId, requestSize, startMillis, duration);
+
+    final int slot = (int)(nextSlot.getAndIncrement() % ring.length());
+    ring.set(slot, sample);
+  }
+
+  /**
+   * Returns the recorded samples, oldest first.
+   */
+  @NotNull
+  public List<Sample> getSamples() {
+    final long end = nextSlot.get();
+    final long begin = Math.max(0, end - ring.length());
+    final List<Sample> result = new ArrayList<>();
+    for (long i = begin; i < end; i++) {
+      final Sample sample = ring.get((int)(i % ring.length()));
+      if (sample != null) {
+        result.add(sample);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if anything was recorded since the last {@link #clear}.
+   *
+   * <p>Cheap enough to call from an action's update().
+   */
+  public boolean hasSamples() {
+    return nextSlot.get() > 0;
+  }
+
+  public void clear() {
+    nextSlot.set(0);
+    for (int i = 0; i < ring.length(); i++) {
+      ring.set(i, null);
+    }
+  }
+
+  /**
+   * Returns the samples in the Chrome trace event format.
+   *
+   * <p>Each isolate gets its own row; operations without an isolate are shown on row 0.
+   */
+  @NotNull
+  public String toTraceJson() {
+    final List<Sample> samples = getSamples();
+    final List<String> isolates = new ArrayList<>();
+
+    final JsonArray events = new JsonArray();
+    for (Sample sample : samples) {
+      int row = 0;
+      if (sample.isolateId != null) {
+        if (!isolates.contains(sample.isolateId)) {
+          isolates.add(sample.isolateId);
+        }
+        row = isolates.indexOf(sample.isolateId) + 1;
+      }
+
+      final JsonObject event = new JsonObject();
+      event.addProperty("name", sample.method);
+      event.addProperty("cat", sample.kind.name());
+      event.addProperty("ph", "X");
+      event.addProperty("ts", sample.startMillis * 1000);
+      event.addProperty("dur", sample.durationNanos / 1000);
+      event.addProperty("pid", 1);
+      event.addProperty("tid", row);
+
+      final JsonObject args = new JsonObject();
+      if (sample.isolateId != null) {
+        args.addProperty("isolateId", sample.isolateId);
+      }
+      args.addProperty("requestSize", sample.requestSize);
+      event.add("args", args);
+      events.add(event);
+    }
+
+    final JsonObject trace = new JsonObject();
+    trace.add("traceEvents", events);
+    return trace.toString();
+  }
+}
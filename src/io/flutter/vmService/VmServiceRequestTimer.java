@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.vmService;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.intellij.openapi.diagnostic.Logger;
+import de.roderick.weberknecht.WebSocket;
+import de.roderick.weberknecht.WebSocketEventHandler;
+import de.roderick.weberknecht.WebSocketMessage;
+import org.dartlang.vm.service.VmService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times every request a VmService sends, including the ones made by the Dart plugin, and
+ * reports them to {@link VmServiceMetrics}.
+ *
+ * <p>The vm service library has no hook for this, so we wrap its request sink (to see requests
+ * go out) and the socket's event handler (to see responses come back).
+ */
+class VmServiceRequestTimer {
+  private static final Logger LOG = Logger.getInstance(VmServiceRequestTimer.class);
+
+  @NotNull private final VmServiceMetrics metrics;
+
+  /**
+   * Requests that haven't been answered yet, by request id.
+   */
+  private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+  private VmServiceRequestTimer(@NotNull VmServiceMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Starts timing the requests of a VmService that communicates over the given socket.
+   *
+   * <p>Does nothing if the VmService's request sink can't be found.
+   */
+  static void install(@NotNull VmService vmService, @NotNull WebSocket socket, @NotNull VmServiceMetrics metrics) {
+    final Field field = findRequestSinkField(vmService);
+    if (field == null) {
+      LOG.info("unable to find the VM service request sink; requests won't be timed");
+      return;
+    }
+
+    final VmServiceRequestTimer timer = new VmServiceRequestTimer(metrics);
+    try {
+      final Object sink = field.get(vmService);
+      final Object proxy = Proxy.newProxyInstance(field.getType().getClassLoader(), new Class[]{field.getType()}, (p, method, args) -> {
+        if (metrics.isEnabled() && "add".equals(method.getName()) && args != null && args.length == 1 && args[0] instanceof JsonObject) {
+          timer.onSend((JsonObject)args[0]);
+        }
+        try {
+          return method.invoke(sink, args);
+        }
+        catch (InvocationTargetException e) {
+          throw e.getCause();
+        }
+      });
+      field.set(vmService, proxy);
+    }
+    catch (IllegalAccessException | RuntimeException e) {
+      LOG.info("unable to time VM service requests", e);
+      return;
+    }
+
+    final WebSocketEventHandler delegate = socket.getEventHandler();
+    socket.setEventHandler(new WebSocketEventHandler() {
+      @Override
+      public void onOpen() {
+        delegate.onOpen();
+      }
+
+      @Override
+      public void onMessage(WebSocketMessage message) {
+        timer.onReceive(message.getText());
+        delegate.onMessage(message);
+      }
+
+      @Override
+      public void onClose() {
+        timer.pending.clear();
+        delegate.onClose();
+      }
+
+      @Override
+      public void onPing() {
+        delegate.onPing();
+      }
+
+      @Override
+      public void onPong() {
+        delegate.onPong();
+      }
+    });
+  }
+
+  private void onSend(@NotNull JsonObject request) {
+    final JsonElement id = request.get("id");
+    final JsonElement method = request.get("method");
+    if (id == null || !id.isJsonPrimitive() || method == null || !method.isJsonPrimitive()) return;
+
+    String isolateId = null;
+    final JsonElement params = request.get("params");
+    if (params != null && params.isJsonObject()) {
+      final JsonElement isolate = params.getAsJsonObject().get("isolateId");
+      if (isolate != null && isolate.isJsonPrimitive()) {
+        isolateId = isolate.getAsString();
+      }
+    }
+
+    pending.put(id.getAsString(), new Pending(method.getAsString(), isolateId, request.toString().length(), metrics.start()));
+  }
+
+  private void onReceive(@NotNull String text) {
+    // Only parse responses while there is something to time.
+    if (pending.isEmpty()) return;
+
+    final JsonElement id;
+    try {
+      final JsonElement json = new JsonParser().parse(text);
+      if (!json.isJsonObject()) return;
+      id = json.getAsJsonObject().get("id");
+    }
+    catch (RuntimeException e) {
+      return;
+    }
+    if (id == null || !id.isJsonPrimitive()) return;
+
+    final Pending request = pending.remove(id.getAsString());
+    if (request != null) {
+      metrics.record(VmServiceMetrics.Kind.REQUEST, request.method, request.isolateId, request.size, request.startNanos);
+    }
+  }
+
+  @Nullable
+  private static Field findRequestSinkField(@NotNull VmService vmService) {
+    for (Class<?> c = vmService.getClass(); c != null; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if (field.getType().isInterface() && field.getName().toLowerCase().contains("sink")) {
+          field.setAccessible(true);
+          return field;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static class Pending {
+    @NotNull final String method;
+    @Nullable final String isolateId;
+    final int size;
+    final long startNanos;
+
+    Pending(@NotNull String method, @Nullable String isolateId, int size, long startNanos) {
+      this.method = method;
+      this.isolateId = isolateId;
+      this.size = size;
+      this.startNanos = startNanos;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.analytics;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that analytics hits are batched and kept until the server accepts them, using a local stub server.
+ */
+public class BatchingTransportTest {
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private HttpServer server;
+  private String url;
+  private volatile int status = 200;
+  private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", (exchange) -> {
+      final ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try (InputStream in = exchange.getRequestBody()) {
+        final byte[] buffer = new byte[1024];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+          body.write(buffer, 0, n);
+        }
+      }
+      requests.add(exchange.getRequestURI().getPath() + "\n" + new String(body.toByteArray(), StandardCharsets.UTF_8));
+      exchange.sendResponseHeaders(status, -1);
+      exchange.close();
+    });
+    server.start();
+    url = "http://localhost:" + server.getAddress().getPort() + "/collect";
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldSendHitsInBatches() {
+    final BatchingTransport transport = new BatchingTransport(null, executor, 60000);
+    for (int i = 0; i < 25; i++) {
+      transport.send(url, ImmutableMap.of("t", "event", "ea", "action " + i));
+    }
+    assertTrue(requests.isEmpty());
+
+    transport.flush();
+    assertEquals(2, requests.size());
+
+    final String[] first = requests.get(0).split("\n");
+    assertEquals("/batch", first[0]);
+    assertEquals(1 + BatchingTransport.MAX_HITS_PER_BATCH, first.length);
+    assertTrue(first[1], first[1].startsWith("t=event&ea=action+0&qt="));
+    assertEquals(1 + 5, requests.get(1).split("\n").length);
+
+    transport.flush();
+    assertEquals(2, requests.size());
+  }
+
+  @Test
+  public void shouldKeepHitsUntilServerAcceptsThem() throws Exception {
+    final File queueFile = new File(tmp.getRoot(), "queue.txt");
+    status = 503;
+
+    final BatchingTransport offline = new BatchingTransport(queueFile, executor, 60000);
+    offline.send(url, ImmutableMap.of("t", "event", "ea", "first"));
+    offline.send(url, ImmutableMap.of("t", "event", "ea", "second"));
+    offline.flush();
+    assertEquals(1, requests.size());
+    assertTrue(queueFile.isFile());
+
+    // A new session sends the saved hits along with its own.
+    status = 200;
+    requests.clear();
+    final BatchingTransport restarted = new BatchingTransport(queueFile, executor, 60000);
+    restarted.send(url, ImmutableMap.of("t", "event", "ea", "third"));
+    restarted.flush();
+
+    assertEquals(1, requests.size());
+    final String[] lines = requests.get(0).split("\n");
+    assertEquals(4, lines.length);
+    assertTrue(lines[1].contains("ea=first"));
+    assertTrue(lines[2].contains("ea=second"));
+    assertTrue(lines[3].contains("ea=third"));
+    assertFalse(queueFile.exists());
+  }
+
+  @Test
+  public void shouldDropHitsWhenDisabled() {
+    final File queueFile = new File(tmp.getRoot(), "queue.txt");
+    status = 503;
+
+    final BatchingTransport transport = new BatchingTransport(queueFile, executor, 60000);
+    transport.send(url, ImmutableMap.of("t", "event", "ea", "first"));
+    transport.flush();
+    assertTrue(queueFile.isFile());
+
+    status = 200;
+    requests.clear();
+    transport.setEnabled(false);
+    assertFalse(queueFile.exists());
+
+    transport.send(url, ImmutableMap.of("t", "event", "ea", "second"));
+    transport.flush();
+    assertTrue(requests.isEmpty());
+  }
+
+  @Test
+  public void shouldNotSendSavedHitsWhileDisabled() {
+    final File queueFile = new File(tmp.getRoot(), "queue.txt");
+    status = 503;
+
+    final BatchingTransport offline = new BatchingTransport(queueFile, executor, 60000);
+    offline.send(url, ImmutableMap.of("t", "event", "ea", "first"));
+    offline.flush();
+    assertTrue(queueFile.isFile());
+
+    // The next session starts out opted out.
+    status = 200;
+    requests.clear();
+    final BatchingTransport restarted = new BatchingTransport(queueFile, executor, 60000);
+    restarted.setEnabled(false);
+    restarted.flush();
+
+    assertTrue(requests.isEmpty());
+    assertFalse(queueFile.exists());
+  }
+}
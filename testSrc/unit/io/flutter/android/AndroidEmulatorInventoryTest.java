@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.android;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AndroidEmulatorInventoryTest {
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void shouldReadAvdsFromIniFiles() throws Exception {
+    final File avdHome = tmp.newFolder("avd");
+    final File elsewhere = tmp.newFolder("elsewhere", "Nexus_5X.avd");
+
+    writeAvd(avdHome, "Pixel_2_API_27", "path=" + new File(avdHome, "Pixel_2_API_27.avd"));
+    writeIni(avdHome, "Nexus_5X", "path=" + elsewhere + "\ntarget=android-25");
+    writeAvd(avdHome, "moved", "path=/no/such/dir\npath.rel=avd/moved.avd");
+    writeIni(avdHome, "deleted", "path=/no/such/dir");
+    Files.write(new File(avdHome, "notes.txt").toPath(), "hello".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(ImmutableList.of("moved", "Nexus_5X", "Pixel_2_API_27"), AndroidEmulatorInventory.readAvdNames(avdHome));
+  }
+
+  @Test
+  public void shouldReturnNullWithoutAvdHome() {
+    assertNull(AndroidEmulatorInventory.readAvdNames(new File(tmp.getRoot(), "missing")));
+  }
+
+  private static void writeAvd(File avdHome, String name, String ini) throws IOException {
+    writeIni(avdHome, name, ini);
+    Files.createDirectory(new File(avdHome, name + ".avd").toPath());
+  }
+
+  private static void writeIni(File avdHome, String name, String ini) throws IOException {
+    Files.write(new File(avdHome, name + ".ini").toPath(), ini.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -12,7 +12,7 @@ import io.flutter.testing.Testing;
 import org.junit.Rule;
 import org.junit.Test;
 
-import static org.junit.Assert.assertNull;
+import static org.junit.Assert.*;
 
 public class PluginConfigTest {
 
@@ -35,4 +35,14 @@ public class PluginConfigTest {
     final PluginConfig result = PluginConfig.load(config);
     assertNull(result);
   }
+
+  @Test
+  public void shouldMatchAnyDirectoryPattern() throws Exception {
+    final VirtualFile config = dir.writeFile("config.json", "{\"directoryPatterns\": [\"^apps/\", \"(?i)/FLUTTER_\"]}");
+    final PluginConfig result = PluginConfig.load(config);
+    assertNotNull(result);
+    assertTrue(result.withinFlutterDirectory("apps/hello"));
+    assertTrue(result.withinFlutterDirectory("lib/flutter_widgets"));
+    assertFalse(result.withinFlutterDirectory("lib/apps/hello"));
+  }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.bazel;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import io.flutter.testing.ProjectFixture;
+import io.flutter.testing.TestDir;
+import io.flutter.testing.Testing;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SharedWorkspaceCacheTest {
+
+  @Rule
+  public final ProjectFixture fixture = Testing.makeEmptyModule();
+
+  @Rule
+  public final TestDir tmp = new TestDir();
+
+  private final SharedWorkspaceCache cache = new SharedWorkspaceCache();
+
+  private VirtualFile root;
+
+  @Before
+  public void setUp() throws Exception {
+    root = tmp.ensureDir("abc");
+    tmp.writeFile("abc/WORKSPACE", "");
+    tmp.ensureDir("abc/dart/config/intellij-plugins");
+  }
+
+  @Test
+  public void shouldShareOneLoadBetweenSubscribers() {
+    // The first project loads the workspace and subscribes.
+    final Workspace first = cache.get(root);
+    final Runnable unsubscribeFirst = cache.subscribe(root, first, () -> {});
+
+    // The second project gets the same instance without loading it again.
+    final Workspace second = cache.get(root);
+    assertSame(first, second);
+    final Runnable unsubscribeSecond = cache.subscribe(root, second, () -> {});
+    assertSame(first, cache.get(root));
+
+    unsubscribeFirst.run();
+    assertSame(first, cache.get(root));
+
+    // Once nobody is subscribed, nothing is cached.
+    unsubscribeSecond.run();
+    assertNotSame(first, cache.get(root));
+  }
+
+  @Test
+  public void shouldReloadWhenConfigChanges() throws Exception {
+    final Workspace loaded = cache.get(root);
+    assertFalse(loaded.hasPluginConfig());
+
+    final AtomicInteger firstCalls = new AtomicInteger();
+    final AtomicInteger secondCalls = new AtomicInteger();
+    final Runnable unsubscribeFirst = cache.subscribe(root, loaded, firstCalls::incrementAndGet);
+    final Runnable unsubscribeSecond = cache.subscribe(root, loaded, secondCalls::incrementAndGet);
+
+    tmp.writeFile("abc/first.sh", "");
+    tmp.writeFile("abc/dart/config/intellij-plugins/flutter.json", "{\"daemonScript\": \"first.sh\"}");
+
+    // File changes are delivered asynchronously.
+    Testing.waitFor("subscribers notified", () -> firstCalls.get() > 0 && secondCalls.get() > 0);
+
+    final Workspace reloaded = cache.get(root);
+    assertNotSame(loaded, reloaded);
+    assertEquals("first.sh", reloaded.getDaemonScript());
+    assertSame(reloaded, cache.get(root));
+
+    unsubscribeFirst.run();
+    unsubscribeSecond.run();
+  }
+}
@@ -15,6 +15,8 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.util.Objects;
+
 import static junit.framework.TestCase.assertNull;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -90,13 +92,22 @@ public class WorkspaceCacheTest {
     assertNotNull("expected a workspace but it doesn't exist", cache.getWhenReady());
   }
 
-  private void checkNoConfig() {
+  private void checkNoConfig() throws InterruptedException {
+    // File changes are delivered asynchronously, so wait for the reload.
+    Testing.waitFor("config removed", () -> {
+      final Workspace w = cache.getWhenReady();
+      return w == null || !w.hasPluginConfig();
+    });
     final Workspace w = cache.getWhenReady();
     assertNotNull("expected a workspace but it doesn't exist", w);
     assertFalse("workspace has unexpected plugin config", w.hasPluginConfig());
   }
 
-  private void checkConfigSetting(String expected) {
+  private void checkConfigSetting(String expected) throws InterruptedException {
+    Testing.waitFor("config reloaded", () -> {
+      final Workspace w = cache.getWhenReady();
+      return w != null && Objects.equals(expected, w.getDaemonScript());
+    });
     final Workspace w = cache.getWhenReady();
     assertNotNull("expected a workspace but it doesn't exist", w);
     assertEquals(expected, w.getDaemonScript());
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.console;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlutterConsoleFilterTest {
+  @Test
+  public void shouldAcceptRelativePaths() {
+    assertTrue(FlutterConsoleFilter.isPathCandidate("lib/main.dart"));
+    assertTrue(FlutterConsoleFilter.isPathCandidate("ios/Runner.xcworkspace"));
+    assertTrue(FlutterConsoleFilter.isPathCandidate("test\\widget_test.dart"));
+    assertTrue(FlutterConsoleFilter.isPathCandidate("pubspec.yaml"));
+  }
+
+  @Test
+  public void shouldRejectOtherOutput() {
+    assertFalse(FlutterConsoleFilter.isPathCandidate(""));
+    assertFalse(FlutterConsoleFilter.isPathCandidate("I/flutter ( 4242): Hello, world"));
+    assertFalse(FlutterConsoleFilter.isPathCandidate("Syncing files to device Pixel 2... 1.2s: done"));
+    assertFalse(FlutterConsoleFilter.isPathCandidate("/usr/local/bin/flutter"));
+    assertFalse(FlutterConsoleFilter.isPathCandidate("C:\\src\\flutter"));
+    assertFalse(FlutterConsoleFilter.isPathCandidate("<widget tree>"));
+    assertFalse(FlutterConsoleFilter.isPathCandidate("tab\tseparated"));
+  }
+}
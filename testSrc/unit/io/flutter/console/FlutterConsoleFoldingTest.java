@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.console;
+
+import com.google.common.collect.ImmutableList;
+import io.flutter.sdk.FlutterSdkUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FlutterConsoleFoldingTest {
+  private final FlutterConsoleFolding folding = new FlutterConsoleFolding();
+
+  @Test
+  public void shouldRecognizeIosBlockStarts() {
+    assertTrue(FlutterConsoleFolding.startsIosBlock("CoreSimulatorBridge: Requesting launch of x with options: {"));
+    assertTrue(FlutterConsoleFolding.startsIosBlock("a:  {"));
+    assertFalse(FlutterConsoleFolding.startsIosBlock("a: {"));
+    assertFalse(FlutterConsoleFolding.startsIosBlock("not a block: {"));
+    assertFalse(FlutterConsoleFolding.startsIosBlock("Bridge: options {\n {"));
+    assertFalse(FlutterConsoleFolding.startsIosBlock("Bridge: options: }"));
+  }
+
+  @Test
+  public void shouldFoldTabbedLinesAfterIosBlockStart() {
+    assertFalse(folding.shouldFoldLine("CoreSimulatorBridge: Requesting launch of x with options: {"));
+    assertTrue(folding.shouldFoldLine("\tenvironment = 1;"));
+    assertTrue(folding.shouldFoldLine("\t}"));
+    assertFalse(folding.shouldFoldLine("flutter: Hello"));
+    assertFalse(folding.shouldFoldLine("\tnot part of a block"));
+  }
+
+  @Test
+  public void shouldFoldCrashDumps() {
+    assertTrue(folding.shouldFoldLine("\t("));
+    assertTrue(folding.shouldFoldLine("\t   0   Foundation    0x0000000102c3697d __destroyPortContext + 283"));
+    assertTrue(folding.shouldFoldLine("\t)"));
+    assertEquals(" ( ... )", folding.getPlaceholderText(ImmutableList.of("\t(", "\t   0   Foundation", "\t)")));
+  }
+
+  @Test
+  public void shouldFoldFlutterCommands() {
+    final String line = "/home/me/flutter/bin/" + FlutterSdkUtil.flutterScriptName() + " --no-color packages get";
+    assertTrue(folding.shouldFoldLine(line));
+    assertEquals("flutter packages get", folding.getPlaceholderText(ImmutableList.of(line)));
+  }
+
+  @Test
+  public void shouldDescribeOtherRegions() {
+    assertEquals(" ... }", folding.getPlaceholderText(ImmutableList.of("\ta = 1;", "\t}")));
+    assertEquals(" ...", folding.getPlaceholderText(ImmutableList.of("\ta = 1;", "\tb = 2;")));
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.pub;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PubspecInfoTest {
+
+  @Test
+  public void shouldSummarizeFlutterApp() {
+    final PubspecInfo info = PubspecInfo.parse(
+      "name: hello\n" +
+      "dependencies:\n" +
+      "  flutter:\n" +
+      "    sdk: flutter\n" +
+      "  http: any\n" +
+      "flutter:\n" +
+      "  assets:\n" +
+      "    - images/a.png\n", 1);
+    assertEquals("hello", info.getName());
+    assertEquals(ImmutableSet.of("flutter", "http"), info.getDependencies());
+    assertEquals(ImmutableList.of("images/a.png"), info.getAssets());
+    assertTrue(info.declaresFlutter());
+    assertFalse(info.isFlutterPlugin());
+  }
+
+  @Test
+  public void shouldDetectPluginAndFlutterPackage() {
+    assertTrue(PubspecInfo.parse("name: foo\nflutter:\n  plugin:\n    androidPackage: foo\n", 1).isFlutterPlugin());
+    assertTrue(PubspecInfo.parse("name: flutter\n", 1).declaresFlutter());
+  }
+
+  @Test
+  public void shouldTolerateInvalidYaml() {
+    final PubspecInfo info = PubspecInfo.parse("name: [", 1);
+    assertNull(info.getName());
+    assertFalse(info.declaresFlutter());
+    assertTrue(info.getDependencies().isEmpty());
+  }
+}
@@ -6,6 +6,7 @@
 package io.flutter.run;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.intellij.openapi.roots.ModuleRootModificationUtil;
@@ -32,6 +33,8 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Verifies that we can map file locations.
@@ -92,6 +95,117 @@ public class PositionMapperTest {
     assertEquals(pos.getLine(), 9); // zero-based
   }
 
+  @Test
+  public void shouldKeepRemoteSourceRootPerIsolate() throws Exception {
+    tmp.writeFile("root/pubspec.yaml", "");
+    tmp.ensureDir("root/lib");
+    final VirtualFile main = tmp.writeFile("root/lib/main.dart", "");
+    final VirtualFile hello = tmp.writeFile("root/lib/hello.dart", "");
+
+    final PositionMapper mapper = setUpMapper(main, null);
+    mapper.onLibrariesDownloaded("1", ImmutableList.of(
+      makeLibraryRef("some/stuff/to/ignore/lib/main.dart")
+    ));
+    // A background isolate without any app libraries doesn't change the main isolate's mapping.
+    mapper.onLibrariesDownloaded("2", ImmutableList.of(
+      makeLibraryRef("dart:core")
+    ));
+    assertEquals("some/stuff/to/ignore", mapper.getRemoteSourceRoot());
+
+    scripts.addScript("1", "2", "some/stuff/to/ignore/lib/hello.dart", ImmutableList.of(new Line(10, 123, 1)));
+    final XSourcePosition pos = mapper.getSourcePosition("1", makeScriptRef("2", "some/stuff/to/ignore/lib/hello.dart"), 123);
+    assertNotNull(pos);
+    assertEquals(pos.getFile(), hello);
+
+    mapper.onIsolateExit("2");
+    assertNotNull(mapper.getSourcePosition("1", makeScriptRef("2", "some/stuff/to/ignore/lib/hello.dart"), 123));
+  }
+
+  @Test
+  public void shouldOnlyUseLoadedBreakpointUrisOnceLibrariesAreKnown() throws Exception {
+    tmp.writeFile("root/pubspec.yaml", "");
+    tmp.ensureDir("root/lib");
+    final VirtualFile main = tmp.writeFile("root/lib/main.dart", "");
+    final VirtualFile part = tmp.writeFile("root/lib/part.dart", "");
+
+    final PositionMapper mapper = setUpMapper(main, "remote:root");
+    assertTrue(mapper.getBreakpointUris(main).size() > 1);
+
+    mapper.onLibrariesDownloaded(ImmutableList.of(
+      makeLibraryRef("remote:root/lib/main.dart")
+    ));
+
+    // A loaded library only needs its own URI.
+    assertEquals(ImmutableSet.of("remote:root/lib/main.dart"), ImmutableSet.copyOf(mapper.getBreakpointUris(main)));
+
+    // A file that isn't a library keeps only the candidates under a prefix that is in use.
+    assertEquals(ImmutableSet.of("remote:root/lib/part.dart"), ImmutableSet.copyOf(mapper.getBreakpointUris(part)));
+  }
+
+  @Test
+  public void shouldForgetSharedLibrariesWhenAnIsolateExits() throws Exception {
+    tmp.writeFile("root/pubspec.yaml", "");
+    tmp.ensureDir("root/lib");
+    final VirtualFile main = tmp.writeFile("root/lib/main.dart", "");
+
+    final PositionMapper mapper = setUpMapper(main, "remote:root");
+    mapper.onLibrariesDownloaded(ImmutableList.of(
+      makeLibraryRef("remote:root/lib/main.dart")
+    ));
+    assertEquals(1, mapper.getBreakpointUris(main).size());
+
+    // After a hot restart, the old library list no longer says where the app's libraries are.
+    mapper.onIsolateExit("1");
+    assertTrue(mapper.getBreakpointUris(main).size() > 1);
+  }
+
+  @Test
+  public void shouldKeepSharedLibrariesWhileAnotherIsolateIsRunning() throws Exception {
+    tmp.writeFile("root/pubspec.yaml", "");
+    tmp.ensureDir("root/lib");
+    final VirtualFile main = tmp.writeFile("root/lib/main.dart", "");
+
+    final PositionMapper mapper = setUpMapper(main, "remote:root");
+    mapper.onLibrariesDownloaded(ImmutableList.of(
+      makeLibraryRef("remote:root/lib/main.dart")
+    ));
+    mapper.onLibrariesDownloaded("1", ImmutableList.of(
+      makeLibraryRef("remote:root/lib/main.dart")
+    ));
+    mapper.onLibrariesDownloaded("2", ImmutableList.of());
+
+    // A background isolate exiting doesn't say anything about the main isolate's libraries.
+    mapper.onIsolateExit("2");
+    assertEquals(1, mapper.getBreakpointUris(main).size());
+  }
+
+  @Test
+  public void shouldOnlyRememberRecentIsolateExits() throws Exception {
+    tmp.writeFile("root/pubspec.yaml", "");
+    tmp.ensureDir("root/lib");
+    final VirtualFile main = tmp.writeFile("root/lib/main.dart", "");
+
+    final PositionMapper mapper = setUpMapper(main, null);
+    for (int i = 0; i < PositionMapper.MAX_EXITED_ISOLATES * 2; i++) {
+      mapper.onIsolateExit("isolates/" + i);
+    }
+    assertEquals(PositionMapper.MAX_EXITED_ISOLATES, mapper.getExitedIsolateCount());
+  }
+
+  @Test
+  public void shouldIgnoreLibrariesReportedAfterIsolateExit() throws Exception {
+    tmp.writeFile("root/pubspec.yaml", "");
+    tmp.ensureDir("root/lib");
+    final VirtualFile main = tmp.writeFile("root/lib/main.dart", "");
+
+    final PositionMapper mapper = setUpMapper(main, null);
+    mapper.onIsolateExit("1");
+    mapper.onLibrariesDownloaded("1", ImmutableList.of(
+      makeLibraryRef("some/stuff/to/ignore/lib/main.dart")
+    ));
+    assertNull(mapper.getRemoteSourceRoot());
+  }
+
   @NotNull
   private PositionMapper setUpMapper(VirtualFile contextFile, String remoteBaseUri) {
     final DartUrlResolver resolver = new DartUrlResolverImpl(fixture.getProject(), contextFile);
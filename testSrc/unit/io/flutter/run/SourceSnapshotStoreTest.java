@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.run;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class SourceSnapshotStoreTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void shouldStoreIdenticalSourcesOnce() {
+    final SourceSnapshotStore store = new SourceSnapshotStore(100, 100, null);
+    final String first = store.put("main() {}");
+    final String second = store.put(new String("main() {}"));
+    assertEquals(first, second);
+    assertEquals(9, store.getCharsInMemory());
+    assertEquals("main() {}", store.get(first));
+  }
+
+  @Test
+  public void shouldDropLeastRecentlyUsedWithoutDisk() {
+    final SourceSnapshotStore store = new SourceSnapshotStore(10, 100, null);
+    final String a = store.put("aaaaaa");
+    final String b = store.put("bbbbbb");
+    assertNull(store.get(a));
+    assertEquals("bbbbbb", store.get(b));
+    assertEquals(6, store.getCharsInMemory());
+    assertFalse(store.contains(a));
+    assertTrue(store.contains(b));
+  }
+
+  @Test
+  public void shouldMoveEvictedSourcesToDisk() throws Exception {
+    final File dir = tmp.newFolder("snapshots");
+    final SourceSnapshotStore store = new SourceSnapshotStore(10, 100, dir);
+    final String a = store.put("aaaaaa");
+    store.put("bbbbbb");
+    assertEquals(6, store.getCharsInMemory());
+    assertEquals("aaaaaa", store.get(a));
+  }
+
+  @Test
+  public void shouldDeleteSourcesEvictedFromDisk() throws Exception {
+    final File dir = tmp.newFolder("snapshots");
+    final SourceSnapshotStore store = new SourceSnapshotStore(10, 10, dir);
+    final String a = store.put("aaaaaa");
+    final String b = store.put("bbbbbb");
+    store.put("cccccc");
+
+    // a was moved to disk when b arrived, and deleted when b followed it there.
+    assertNull(store.get(a));
+    assertEquals("bbbbbb", store.get(b));
+    assertEquals(6, store.getCharsOnDisk());
+    assertFalse(new File(dir, a + ".dart").exists());
+    assertTrue(new File(dir, b + ".dart").exists());
+  }
+}
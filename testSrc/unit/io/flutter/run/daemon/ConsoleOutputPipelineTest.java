@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.run.daemon;
+
+import com.intellij.execution.ui.ConsoleViewContentType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConsoleOutputPipelineTest {
+  private final List<String> printed = new ArrayList<>();
+  private long now = 0;
+
+  private final ConsoleOutputPipeline pipeline = new ConsoleOutputPipeline(
+    (text, type) -> printed.add(label(type) + text), () -> now, 20);
+
+  @Test
+  public void shouldRemoveJsonAndBatchLines() {
+    pipeline.print("\nhello\n[{\"event\":\"app.start\"}]\nthere\npart", ConsoleViewContentType.NORMAL_OUTPUT);
+    pipeline.print("ial\n", ConsoleViewContentType.NORMAL_OUTPUT);
+
+    assertEquals(2, printed.size());
+    assertEquals("out:hello\nthere\n", printed.get(0));
+    assertEquals("out:partial\n", printed.get(1));
+  }
+
+  @Test
+  public void shouldKeepOrderAcrossContentTypes() {
+    pipeline.print("one\ntw", ConsoleViewContentType.NORMAL_OUTPUT);
+    pipeline.print("oops\n", ConsoleViewContentType.ERROR_OUTPUT);
+
+    assertEquals(3, printed.size());
+    assertEquals("out:one\n", printed.get(0));
+    assertEquals("out:tw", printed.get(1));
+    assertEquals("err:oops\n", printed.get(2));
+  }
+
+  @Test
+  public void shouldSkipOutputOverTheLimit() {
+    pipeline.print("0123456789\n0123456789\n0123456789\n", ConsoleViewContentType.NORMAL_OUTPUT);
+    pipeline.print("dropped\n", ConsoleViewContentType.NORMAL_OUTPUT);
+    assertEquals(1, printed.size());
+    assertEquals("out:0123456789\n", printed.get(0));
+
+    now += 1000;
+    pipeline.print("after\n", ConsoleViewContentType.NORMAL_OUTPUT);
+    assertEquals(3, printed.size());
+    assertEquals("sys:(30 characters of output skipped)\n", printed.get(1));
+    assertEquals("out:after\n", printed.get(2));
+  }
+
+  @Test
+  public void shouldSaySkippedBeforeOtherOutput() {
+    pipeline.print("0123456789\n0123456789\n0123456789\n", ConsoleViewContentType.NORMAL_OUTPUT);
+    pipeline.print("oops\n", ConsoleViewContentType.ERROR_OUTPUT);
+
+    assertEquals(3, printed.size());
+    assertEquals("out:0123456789\n", printed.get(0));
+    assertEquals("sys:(22 characters of output skipped)\n", printed.get(1));
+    assertEquals("err:oops\n", printed.get(2));
+  }
+
+  @Test
+  public void shouldPrintRemainingOutputWhenFlushed() {
+    pipeline.print("0123456789\n0123456789\n", ConsoleViewContentType.NORMAL_OUTPUT);
+    pipeline.print("partial", ConsoleViewContentType.NORMAL_OUTPUT);
+    assertEquals(1, printed.size());
+
+    pipeline.flush();
+    assertEquals(2, printed.size());
+    assertEquals("sys:(18 characters of output skipped)\n", printed.get(1));
+
+    // Nothing is left to print.
+    pipeline.flush();
+    assertEquals(2, printed.size());
+  }
+
+  private static String label(ConsoleViewContentType type) {
+    if (type == ConsoleViewContentType.NORMAL_OUTPUT) return "out:";
+    if (type == ConsoleViewContentType.ERROR_OUTPUT) return "err:";
+    return "sys:";
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.run.daemon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TextTailTest {
+  @Test
+  public void shouldKeepLastLines() {
+    final TextTail tail = new TextTail(2, 100);
+    assertEquals("", tail.getText());
+
+    tail.append("one\ntw");
+    tail.append("o\nthree\n");
+    assertEquals("two\nthree\n", tail.getText());
+
+    // An unfinished line counts as a line.
+    tail.append("fo");
+    assertEquals("three\nfo", tail.getText());
+    tail.append("ur");
+    assertEquals("three\nfour", tail.getText());
+  }
+
+  @Test
+  public void shouldKeepLastCharsOfLongLines() {
+    final TextTail tail = new TextTail(100, 8);
+    for (int i = 0; i < 10; i++) {
+      tail.append("0123456789");
+    }
+    assertEquals("23456789", tail.getText());
+
+    tail.append("\nab");
+    assertEquals("56789\nab", tail.getText());
+  }
+}
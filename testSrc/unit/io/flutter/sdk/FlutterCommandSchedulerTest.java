@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.sdk;
+
+import io.flutter.sdk.FlutterCommandScheduler.Claim;
+import io.flutter.sdk.FlutterCommandScheduler.Lease;
+import io.flutter.testing.Testing;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class FlutterCommandSchedulerTest {
+  private final FlutterCommandScheduler scheduler = new FlutterCommandScheduler(() -> 2);
+
+  @Test
+  public void shouldRunIndependentCommandsUpToTheLimit() {
+    final Lease first = scheduler.tryAcquire(shared("/sdk", "/app1"));
+    final Lease second = scheduler.tryAcquire(shared("/sdk", "/app2"));
+    assertNotNull(first);
+    assertNotNull(second);
+    assertEquals(2, scheduler.getRunning());
+
+    assertNull(scheduler.tryAcquire(shared("/sdk", "/app3")));
+
+    first.release();
+    first.release(); // Releasing twice has no effect.
+    assertEquals(1, scheduler.getRunning());
+    assertNotNull(scheduler.tryAcquire(shared("/sdk", "/app3")));
+  }
+
+  @Test
+  public void shouldLockEachPubRoot() {
+    final Lease first = scheduler.tryAcquire(shared("/sdk", "/app"));
+    assertNotNull(first);
+    assertNull(scheduler.tryAcquire(shared("/sdk", "/app")));
+    assertNotNull(scheduler.tryAcquire(shared("/sdk", null)));
+  }
+
+  @Test
+  public void shouldRunSdkChangesAlone() {
+    final Lease doctor = scheduler.tryAcquire(shared("/sdk", null));
+    assertNotNull(doctor);
+    assertNull(scheduler.tryAcquire(exclusive("/sdk")));
+    assertNotNull(scheduler.tryAcquire(exclusive("/other-sdk")));
+  }
+
+  @Test
+  public void shouldQueueInsteadOfDropping() throws Exception {
+    final Lease doctor = scheduler.tryAcquire(shared("/sdk", null));
+    assertNotNull(doctor);
+
+    final CompletableFuture<Lease> upgrade = CompletableFuture.supplyAsync(() -> acquire(exclusive("/sdk")));
+    Testing.waitFor("upgrade to be queued", () -> scheduler.getQueueDepth() == 1);
+
+    // A waiting upgrade keeps new commands on the same SDK from starting.
+    assertNull(scheduler.tryAcquire(shared("/sdk", null)));
+    assertFalse(upgrade.isDone());
+
+    doctor.release();
+    final Lease started = upgrade.get();
+    assertNotNull(started);
+    assertEquals(0, scheduler.getQueueDepth());
+    assertTrue(scheduler.getMaxWaitMillis() > 0);
+
+    started.release();
+    assertEquals(0, scheduler.getRunning());
+  }
+
+  @Test
+  public void shouldGiveUpAfterTimeout() throws Exception {
+    final Lease upgrade = scheduler.tryAcquire(exclusive("/sdk"));
+    assertNotNull(upgrade);
+
+    assertNull(scheduler.acquire(shared("/sdk", null), 10));
+    assertEquals(0, scheduler.getQueueDepth());
+
+    upgrade.release();
+    assertNotNull(scheduler.acquire(shared("/sdk", null), 10));
+  }
+
+  private Lease acquire(Claim claim) {
+    try {
+      return scheduler.acquire(claim, 10000);
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Claim shared(String sdk, String pubRoot) {
+    return new Claim("test", sdk, false, pubRoot, false);
+  }
+
+  private static Claim exclusive(String sdk) {
+    return new Claim("upgrade", sdk, true, null, false);
+  }
+}
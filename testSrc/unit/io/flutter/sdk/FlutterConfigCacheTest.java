@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.sdk;
+
+import com.google.gson.JsonObject;
+import io.flutter.sdk.FlutterConfigCache.Snapshot;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FlutterConfigCacheTest {
+  @Test
+  public void shouldKeepStringValuesFromFlutterConfig() {
+    final JsonObject output = new JsonObject();
+    output.addProperty("android-studio-dir", "/opt/android-studio");
+    output.addProperty("enable-analytics", true);
+    output.add("nested", new JsonObject());
+
+    final Snapshot snapshot = Snapshot.fromJson("abc123", 1000, output);
+    assertEquals("/opt/android-studio", snapshot.values.get("android-studio-dir"));
+    assertEquals("true", snapshot.values.get("enable-analytics"));
+    assertFalse(snapshot.values.containsKey("nested"));
+  }
+
+  @Test
+  public void shouldRoundTripThroughSavedJson() {
+    final JsonObject output = new JsonObject();
+    output.addProperty("android-sdk", "/opt/android-sdk");
+
+    final Snapshot saved = Snapshot.fromJson("abc123", 1000, output);
+    final Snapshot loaded = Snapshot.parse(saved.toJson());
+    assertEquals("abc123", loaded.revision);
+    assertEquals(1000, loaded.savedMillis);
+    assertEquals(saved.values, loaded.values);
+  }
+
+  @Test
+  public void shouldIgnoreInvalidSavedJson() {
+    assertTrue(Snapshot.parse(null).values.isEmpty());
+    assertTrue(Snapshot.parse("not json").values.isEmpty());
+    assertTrue(Snapshot.parse("{\"values\":{}}").values.isEmpty());
+    assertFalse(Snapshot.parse(null).isFresh("", 0));
+  }
+
+  @Test
+  public void shouldBeStaleAfterUpgradeOrADay() {
+    final Snapshot snapshot = Snapshot.fromJson("abc123", 1000, new JsonObject());
+    assertTrue(snapshot.isFresh("abc123", 2000));
+    assertFalse(snapshot.isFresh("def456", 2000));
+    assertFalse(snapshot.isFresh("abc123", 1000 + 25 * 60 * 60 * 1000));
+    assertFalse(snapshot.isFresh("abc123", 0));
+  }
+
+  @Test
+  public void shouldBackOffAfterFailedRefreshes() {
+    assertEquals(0, FlutterConfigCache.getRetryDelayMillis(0));
+    assertEquals(60 * 1000, FlutterConfigCache.getRetryDelayMillis(1));
+    assertEquals(2 * 60 * 1000, FlutterConfigCache.getRetryDelayMillis(2));
+    assertEquals(60 * 60 * 1000, FlutterConfigCache.getRetryDelayMillis(10));
+    assertEquals(60 * 60 * 1000, FlutterConfigCache.getRetryDelayMillis(1000));
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.sdk;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.execution.process.ProcessOutput;
+import io.flutter.sdk.FlutterPackagesPipeline.Result;
+import io.flutter.sdk.FlutterPackagesPipeline.Status;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FlutterPackagesPipelineTest {
+  @Test
+  public void shouldSummarizeSlowestRootsFirst() {
+    final ProcessOutput failed = new ProcessOutput(65);
+
+    final String summary = FlutterPackagesPipeline.summarize("flutter packages get", ImmutableList.of(
+      new Result("/repo/fast", Status.SUCCEEDED, 1200, new ProcessOutput(0)),
+      new Result("/repo/current", Status.SKIPPED, 0, null),
+      new Result("/repo/slow", Status.SUCCEEDED, 4500, new ProcessOutput(0)),
+      new Result("/repo/broken", Status.FAILED, 2000, failed),
+      new Result("/repo/missing", Status.FAILED, 0, null)
+    ), 5000);
+
+    assertEquals("Summary of flutter packages get:\n" +
+                 "  /repo/slow: done in 4.5s\n" +
+                 "  /repo/broken: failed with exit code 65 after 2.0s\n" +
+                 "  /repo/fast: done in 1.2s\n" +
+                 "  /repo/current: skipped (packages are up to date)\n" +
+                 "  /repo/missing: failed to start\n" +
+                 "5 pub roots, 2 failed; 5.0s elapsed (7.7s of command time)\n", summary);
+  }
+}
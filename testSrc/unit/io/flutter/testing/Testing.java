@@ -14,6 +14,7 @@ import com.intellij.testFramework.fixtures.*;
 import javax.swing.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 /**
  * Test utilities.
@@ -98,6 +99,21 @@ public class Testing {
     }
   }
 
+  /**
+   * Polls until a condition becomes true, failing after a few seconds.
+   *
+   * <p>For waiting on callbacks that are delivered asynchronously.
+   */
+  public static void waitFor(String message, BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new AssertionError("timed out: " + message);
+      }
+      Thread.sleep(10);
+    }
+  }
+
   public interface RunnableThatThrows {
     void run() throws Exception;
   }
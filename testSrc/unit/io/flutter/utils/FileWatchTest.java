@@ -37,14 +37,58 @@ public class FileWatchTest {
 
     // create
     tmp.writeFile("abc/child", "");
-    assertEquals(1, eventCount.get());
+    Testing.waitFor("create event", () -> eventCount.get() == 1);
 
     // modify
     tmp.writeFile("abc/child", "hello");
-    assertEquals(2, eventCount.get());
+    Testing.waitFor("modify event", () -> eventCount.get() == 2);
 
     // delete
     tmp.deleteFile("abc/child");
+    Testing.waitFor("delete event", () -> eventCount.get() == 3);
+
+    fileWatch.unsubscribe();
+  }
+
+  @Test
+  public void shouldCoalesceBursts() throws Exception {
+    final VirtualFile dir = tmp.ensureDir("abc");
+
+    final AtomicInteger eventCount = new AtomicInteger();
+    final FileWatch fileWatch = FileWatch.subscribe(dir, ImmutableSet.of("child", "other"), eventCount::incrementAndGet);
+
+    tmp.writeFile("abc/child", "");
+    tmp.writeFile("abc/other", "");
+    tmp.writeFile("abc/unwatched", "");
+    Testing.waitFor("burst event", () -> eventCount.get() >= 1);
+
+    Thread.sleep(200);
+    assertEquals(1, eventCount.get());
+    fileWatch.unsubscribe();
+  }
+
+  @Test
+  public void shouldWatchChildrenOfDirectory() throws Exception {
+    final VirtualFile dir = tmp.ensureDir("abc");
+
+    final AtomicInteger eventCount = new AtomicInteger();
+    final FileWatch fileWatch = FileWatch.subscribeToChildren(dir, "avd", eventCount::incrementAndGet);
+
+    // The directory itself
+    tmp.ensureDir("abc/avd");
+    Testing.waitFor("directory event", () -> eventCount.get() == 1);
+
+    // A child
+    tmp.writeFile("abc/avd/Pixel.ini", "");
+    Testing.waitFor("child event", () -> eventCount.get() == 2);
+
+    // Grandchildren don't count.
+    tmp.ensureDir("abc/avd/Pixel.avd");
+    Testing.waitFor("child directory event", () -> eventCount.get() == 3);
+    tmp.writeFile("abc/avd/Pixel.avd/config.ini", "");
+    Thread.sleep(200);
     assertEquals(3, eventCount.get());
+
+    fileWatch.unsubscribe();
   }
 }
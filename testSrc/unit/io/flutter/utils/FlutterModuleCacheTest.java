@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.utils;
+
+import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.module.EmptyModuleType;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.roots.ModuleRootModificationUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import io.flutter.pub.PubRoot;
+import io.flutter.testing.ProjectFixture;
+import io.flutter.testing.TestDir;
+import io.flutter.testing.Testing;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FlutterModuleCacheTest {
+
+  @Rule
+  public final ProjectFixture fixture = Testing.makeEmptyModule();
+
+  @Rule
+  public final TestDir tmp = new TestDir();
+
+  private static final String PLAIN_PUBSPEC = "name: plain\n";
+  private static final String FLUTTER_PUBSPEC = "name: app\ndependencies:\n  flutter:\n    sdk: flutter\n";
+
+  private FlutterModuleCache cache;
+  private Module first;
+  private Module second;
+
+  @Before
+  public void setUp() throws Exception {
+    final VirtualFile firstRoot = tmp.ensureDir("first");
+    tmp.writeFile("first/pubspec.yaml", PLAIN_PUBSPEC);
+    final VirtualFile secondRoot = tmp.ensureDir("second");
+    tmp.writeFile("second/pubspec.yaml", PLAIN_PUBSPEC);
+
+    first = fixture.getModule();
+    second = Testing.computeInWriteAction(
+      () -> ModuleManager.getInstance(fixture.getProject()).newModule(tmp.pathAt("second.iml"), EmptyModuleType.EMPTY_MODULE));
+    Testing.runOnDispatchThread(() -> {
+      ModuleRootModificationUtil.addContentRoot(first, firstRoot.getPath());
+      ModuleRootModificationUtil.addContentRoot(second, secondRoot.getPath());
+    });
+
+    cache = new FlutterModuleCache(fixture.getProject());
+  }
+
+  @Test
+  public void shouldReloadOnlyTheModuleWhosePubspecChanged() throws Exception {
+    assertFalse(cache.usesFlutter(first));
+    final ImmutableList<PubRoot> secondRoots = cache.getPubRoots().get(second);
+    assertEquals(1, secondRoots.size());
+
+    tmp.writeFile("first/pubspec.yaml", FLUTTER_PUBSPEC);
+
+    Testing.waitFor("first module reloaded", () -> cache.isUpToDate());
+    assertTrue(cache.usesFlutter(first));
+    assertTrue(cache.usesFlutter());
+    assertSame(secondRoots, cache.getPubRoots().get(second));
+  }
+
+  @Test
+  public void shouldReloadOnlyTheModuleWhoseRootsChanged() throws Exception {
+    final ImmutableList<PubRoot> secondRoots = cache.getPubRoots().get(second);
+    assertEquals(1, cache.getPubRoots().get(first).size());
+
+    final VirtualFile extraRoot = tmp.ensureDir("extra");
+    tmp.writeFile("extra/pubspec.yaml", FLUTTER_PUBSPEC);
+    Testing.runOnDispatchThread(() -> ModuleRootModificationUtil.addContentRoot(first, extraRoot.getPath()));
+
+    Testing.waitFor("first module reloaded", () -> cache.isUpToDate());
+    assertEquals(2, cache.getPubRoots().get(first).size());
+    assertTrue(cache.usesFlutter(first));
+    assertSame(secondRoots, cache.getPubRoots().get(second));
+  }
+}
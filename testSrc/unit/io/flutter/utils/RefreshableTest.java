@@ -263,6 +263,46 @@ public class RefreshableTest {
              "IDLE: first");
   }
 
+  @Test
+  public void refreshShouldMergeRequestsWithinDebouncePeriod() throws Exception {
+    value.setDebounceMillis(100);
+    for (int i = 0; i < 5; i++) {
+      final String next = "value " + i;
+      value.refresh(() -> {
+        log("created " + next);
+        return next;
+      });
+      Thread.sleep(10);
+    }
+
+    assertEquals("value 4", value.getWhenReady());
+    checkLog("BUSY: null",
+             "created value 4",
+             "BUSY: value 4",
+             "IDLE: value 4");
+
+    final RefreshableStats stats = value.getStats();
+    assertEquals(5, stats.getRequests());
+    assertEquals(4, stats.getMerged());
+    assertEquals(1, stats.getCallbackTime().getCount());
+    assertEquals(1, stats.getPublished());
+  }
+
+  @Test
+  public void refreshShouldDebounceRequestsMadeWhileBusy() throws Exception {
+    value.setDebounceMillis(100);
+    final Semaphore finish = startRefresh("first");
+    value.refresh(() -> {
+      log("created second");
+      return "second";
+    });
+    finish.release();
+
+    assertEquals("second", value.getWhenReady());
+    assertTrue(getLogEntries().contains("created second"));
+    assertEquals(2, value.getStats().getCallbackTime().getCount());
+  }
+
   @Test
   public void shouldNotPublishWhenClosedDuringRefreshCallback() throws Exception {
     final Semaphore finish = startRefresh("first");
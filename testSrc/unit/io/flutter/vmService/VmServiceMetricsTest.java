@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 The Chromium Authors. All rights reserved.
+ * Use of this source code is governed by a BSD-style license that can be
+ * found in the LICENSE file.
+ */
+package io.flutter.vmService;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VmServiceMetricsTest {
+
+  @Test
+  public void shouldNotRecordWhenDisabled() {
+    final VmServiceMetrics metrics = new VmServiceMetrics(4);
+    assertEquals(0, metrics.start());
+    metrics.record(VmServiceMetrics.Kind.REQUEST, "getIsolate", "isolates/1", 10, System.nanoTime());
+    assertTrue(metrics.getSamples().isEmpty());
+  }
+
+  @Test
+  public void shouldKeepNewestSamplesWhenFull() {
+    final VmServiceMetrics metrics = new VmServiceMetrics(2);
+    metrics.setEnabled(true);
+    metrics.record(VmServiceMetrics.Kind.REQUEST, "a", null, 0, metrics.start());
+    metrics.record(VmServiceMetrics.Kind.CACHE_HIT, "b", null, 0, metrics.start());
+    metrics.record(VmServiceMetrics.Kind.CACHE_MISS, "c", null, 0, metrics.start());
+
+    final List<VmServiceMetrics.Sample> samples = metrics.getSamples();
+    assertEquals(2, samples.size());
+    assertEquals("b", samples.get(0).method);
+    assertEquals("c", samples.get(1).method);
+
+    assertTrue(metrics.hasSamples());
+    metrics.clear();
+    assertFalse(metrics.hasSamples());
+    assertTrue(metrics.getSamples().isEmpty());
+
+    // Recording starts over at the beginning of the ring.
+    metrics.record(VmServiceMetrics.Kind.REQUEST, "d", null, 0, metrics.start());
+    assertEquals(1, metrics.getSamples().size());
+    assertEquals("d", metrics.getSamples().get(0).method);
+  }
+
+  @Test
+  public void shouldExportOneRowPerIsolate() {
+    final VmServiceMetrics metrics = new VmServiceMetrics(8);
+    metrics.setEnabled(true);
+    metrics.record(VmServiceMetrics.Kind.REQUEST, "getStack", "isolates/1", 40, metrics.start());
+    metrics.record(VmServiceMetrics.Kind.REQUEST, "getStack", "isolates/2", 40, metrics.start());
+    metrics.record(VmServiceMetrics.Kind.CACHE_HIT, "getBreakpointUris", null, 0, metrics.start());
+
+    final JsonObject trace = new JsonParser().parse(metrics.toTraceJson()).getAsJsonObject();
+    assertEquals(3, trace.getAsJsonArray("traceEvents").size());
+    assertEquals(1, trace.getAsJsonArray("traceEvents").get(0).getAsJsonObject().get("tid").getAsInt());
+    assertEquals(2, trace.getAsJsonArray("traceEvents").get(1).getAsJsonObject().get("tid").getAsInt());
+    assertEquals(0, trace.getAsJsonArray("traceEvents").get(2).getAsJsonObject().get("tid").getAsInt());
+    assertEquals("CACHE_HIT", trace.getAsJsonArray("traceEvents").get(2).getAsJsonObject().get("cat").getAsString());
+  }
+}
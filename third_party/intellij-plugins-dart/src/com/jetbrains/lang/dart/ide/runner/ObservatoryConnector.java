@@ -3,6 +3,8 @@ package com.jetbrains.lang.dart.ide.runner;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Provides connection settings to an observatory-based debugger, plus a couple of callbacks.
  */
@@ -13,6 +15,13 @@ public interface ObservatoryConnector {
    */
   @Nullable String getWebSocketUrl();
 
+  /**
+   * Returns a future that completes with the WebSocket URL as soon as the app reports it.
+   *
+   * <p>The future is cancelled if the app stops before reporting a URL.
+   */
+  @NotNull CompletableFuture<String> getWebSocketUrlFuture();
+
   /**
    * Returns the http URL to open a browser session, if available.
    */
@@ -5,6 +5,7 @@ import com.intellij.execution.filters.OpenFileHyperlinkInfo;
 import com.intellij.execution.runners.ExecutionEnvironment;
 import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
@@ -13,7 +14,7 @@ import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.WindowManager;
 import com.intellij.util.BitUtil;
-import com.intellij.util.TimeoutUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.xdebugger.XDebugSession;
 import com.intellij.xdebugger.XDebugSessionListener;
 import com.intellij.xdebugger.XDebuggerBundle;
@@ -30,8 +31,12 @@ import com.jetbrains.lang.dart.util.DartUrlResolver;
 import gnu.trove.THashSet;
 import io.flutter.FlutterBundle;
 import io.flutter.run.FlutterLaunchMode;
+import io.flutter.utils.VmServiceListenerAdapter;
+import io.flutter.vmService.VmServiceConnection;
 import org.dartlang.vm.service.VmService;
+import org.dartlang.vm.service.consumer.GetIsolateConsumer;
 import org.dartlang.vm.service.consumer.GetObjectConsumer;
+import org.dartlang.vm.service.consumer.VMConsumer;
 import org.dartlang.vm.service.element.*;
 import org.dartlang.vm.service.logging.Logging;
 import org.jetbrains.annotations.NotNull;
@@ -45,6 +50,8 @@ import java.awt.event.WindowListener;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * TODO(messick) Add ObservatoryConnector parameter to superclass then delete this class.
@@ -60,6 +67,14 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
   private final IsolatesInfo myIsolatesInfo;
   private VmServiceWrapper myVmServiceWrapper;
   private VmOpenSourceLocationListener myVmOpenSourceLocationListener;
+  private VmServiceConnection myConnection;
+  private Disposable myIsolateTracking;
+
+  /**
+   * The isolate that runs the app's main(), as far as we can tell: the first one the VM listed when we
+   * connected, or after that exited (on hot restart), the next one to start.
+   */
+  private final AtomicReference<String> myMainIsolateId = new AtomicReference<>();
 
   @NotNull private final Set<String> mySuspendedIsolateIds = Collections.synchronizedSet(new THashSet<String>());
   private String myLatestCurrentIsolateId;
@@ -133,10 +148,26 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
     return myVmServiceWrapper;
   }
 
+  /**
+   * Returns the shared connection to the VM service, or null if not connected yet.
+   */
+  @Nullable
+  public VmServiceConnection getVmServiceConnection() {
+    return myConnection;
+  }
+
   public Collection<IsolatesInfo.IsolateInfo> getIsolateInfos() {
     return myIsolatesInfo.getIsolateInfos();
   }
 
+  /**
+   * Returns the id of the app's main isolate, or null if not known yet.
+   */
+  @Nullable
+  public String getMainIsolateId() {
+    return myMainIsolateId.get();
+  }
+
   private void setLogger() {
     Logging.setLogger(new org.dartlang.vm.service.logging.Logger() {
       @Override
@@ -189,37 +220,25 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
   }
 
   public void scheduleConnectNew() {
-    ApplicationManager.getApplication().executeOnPooledThread(() -> {
-      // Allow 10 minutes for flutter run to start; the user can cancel manually in the interim.
-      final long timeout = (long)10 * 60 * 1000;
-      final long startTime = System.currentTimeMillis();
-
-      // Wait for "flutter run" to give us a websocket.
-      String url = myConnector.getWebSocketUrl();
-      while (url == null) {
-        if (getSession().isStopped()) return;
+    // Connect as soon as "flutter run" reports the websocket; the user can cancel manually in the interim.
+    myConnector.getWebSocketUrlFuture().whenCompleteAsync((url, error) -> {
+      if (getSession().isStopped()) {
+        return;
+      }
 
-        if (System.currentTimeMillis() > startTime + timeout) {
+      if (url == null) {
+        // A cancelled future means the app stopped before it reported a debug port.
+        if (!(error instanceof CancellationException)) {
           onConnectFailed("Observatory connection never became ready.");
-          return;
         }
-        else {
-          TimeoutUtil.sleep(50);
-        }
-        url = myConnector.getWebSocketUrl();
-      }
-
-      if (getSession().isStopped()) {
         return;
       }
 
       // "Flutter run" has given us a websocket; we can assume it's ready immediately,
       // because "flutter run" has already connected to it.
-      final VmService vmService;
-      final VmOpenSourceLocationListener vmOpenSourceLocationListener;
+      final VmServiceConnection connection;
       try {
-        vmService = VmService.connect(url);
-        vmOpenSourceLocationListener = VmOpenSourceLocationListener.connect(url);
+        connection = VmServiceConnection.connect(url);
       }
       catch (IOException e) {
         onConnectFailed("Failed to connect to the VM observatory service at: " + url + "\n"
@@ -227,8 +246,8 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
                         formatStackTraces(e));
         return;
       }
-      onConnectSucceeded(vmService, vmOpenSourceLocationListener);
-    });
+      onConnectSucceeded(connection);
+    }, AppExecutorUtil.getAppExecutorService());
   }
 
   @NotNull
@@ -250,13 +269,14 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
     getSession().stop();
   }
 
-  private void onConnectSucceeded(VmService vmService,
-                                  VmOpenSourceLocationListener vmOpenSourceLocationListener) {
+  private void onConnectSucceeded(@NotNull VmServiceConnection connection) {
     final DartVmServiceListener vmServiceListener =
       new DartVmServiceListener(this, (DartVmServiceBreakpointHandler)myBreakpointHandlers[0]);
     final DartVmServiceBreakpointHandler breakpointHandler = (DartVmServiceBreakpointHandler)myBreakpointHandlers[0];
 
-    myVmOpenSourceLocationListener = vmOpenSourceLocationListener;
+    final VmService vmService = connection.getVmService();
+    myConnection = connection;
+    myVmOpenSourceLocationListener = connection.getOpenSourceLocationListener();
     myVmServiceWrapper = new VmServiceWrapper(this, vmService, vmServiceListener, myIsolatesInfo, breakpointHandler);
 
     final ScriptProvider provider =
@@ -271,19 +291,93 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
     final FlutterLaunchMode launchMode = FlutterLaunchMode.getMode(executionEnvironment);
     if (launchMode.supportsDebugging()) {
       myVmServiceWrapper.handleDebuggerConnected();
+      // The wrapper subscribed to these itself; make sure nobody subscribes or cancels them again.
+      connection.adoptStreams(VmService.DEBUG_STREAM_ID, VmService.ISOLATE_STREAM_ID);
     }
 
     // We re-enable the remote debug flag so that the service wrapper will call our guessRemoteProjectRoot()
     // method with the list of loaded libraries for the isolate.
     remoteDebug = true;
 
-    vmService.addVmServiceListener(vmServiceListener);
+    connection.addPassiveListener(vmServiceListener);
+    trackIsolates(connection);
     myVmOpenSourceLocationListener.addListener(
       this::onOpenSourceLocationRequest);
 
     myVmConnected = true;
     getSession().rebuildViews();
-    onVmConnected(vmService);
+    onVmConnected(connection);
+  }
+
+  /**
+   * Keeps the position mapper's per-isolate state up to date as isolates start, reload and exit.
+   * <p>
+   * Each isolate's libraries are downloaded and processed in the background, independently of
+   * the others, so a new background isolate doesn't hold up the main isolate.
+   */
+  private void trackIsolates(@NotNull VmServiceConnection connection) {
+    final VmService vmService = connection.getVmService();
+    myIsolateTracking = connection.listen(new VmServiceListenerAdapter() {
+      @Override
+      public void received(String streamId, Event event) {
+        final IsolateRef isolate = event.getIsolate();
+        if (isolate == null) return;
+
+        switch (event.getKind()) {
+          case IsolateRunnable:
+            myMainIsolateId.compareAndSet(null, isolate.getId());
+            downloadLibraries(vmService, isolate.getId());
+            break;
+          case IsolateReload:
+            downloadLibraries(vmService, isolate.getId());
+            break;
+          case IsolateExit:
+            myMainIsolateId.compareAndSet(isolate.getId(), null);
+            mapper.onIsolateExit(isolate.getId());
+            break;
+          default:
+        }
+      }
+    }, VmService.ISOLATE_STREAM_ID);
+
+    // Pick up the isolates that were already running when we connected.
+    vmService.getVM(new VMConsumer() {
+      @Override
+      public void received(VM vm) {
+        // The VM lists the root isolate first.
+        final Iterator<IsolateRef> it = vm.getIsolates().iterator();
+        if (it.hasNext()) {
+          myMainIsolateId.compareAndSet(null, it.next().getId());
+        }
+        for (IsolateRef isolate : vm.getIsolates()) {
+          downloadLibraries(vmService, isolate.getId());
+        }
+      }
+
+      @Override
+      public void onError(RPCError error) {
+        LOG.info("unable to list isolates: " + error.getMessage());
+      }
+    });
+  }
+
+  private void downloadLibraries(@NotNull VmService vmService, @NotNull String isolateId) {
+    vmService.getIsolate(isolateId, new GetIsolateConsumer() {
+      @Override
+      public void received(Isolate isolate) {
+        AppExecutorUtil.getAppExecutorService().submit(() -> mapper.onLibrariesDownloaded(isolateId, isolate.getLibraries()));
+      }
+
+      @Override
+      public void received(Sentinel sentinel) {
+        // The isolate is gone.
+      }
+
+      @Override
+      public void onError(RPCError error) {
+        LOG.info("unable to get libraries for isolate " + isolateId + ": " + error.getMessage());
+      }
+    });
   }
 
   private void onOpenSourceLocationRequest(@NotNull String isolateId, @NotNull String scriptId, int tokenPos) {
@@ -372,7 +466,7 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
   /**
    * Callback for subclass.
    */
-  protected void onVmConnected(@NotNull VmService vmService) {}
+  protected void onVmConnected(@NotNull VmServiceConnection connection) {}
 
   @NotNull
   @Override
@@ -388,7 +482,8 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
 
   public void guessRemoteProjectRoot(@NotNull final ElementList<LibraryRef> libraries) {
     // After connecting (with remote debugging enabled), this is called once per isolate.
-    // TODO(skybrian) do we need to handle multiple isolates?
+    // Since we aren't told which isolate it's for, the result is shared; per-isolate state
+    // comes from trackIsolates().
     mapper.onLibrariesDownloaded(libraries);
   }
 
@@ -426,9 +521,17 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
     myVmConnected = false;
     mapper.shutdown();
 
+    if (myIsolateTracking != null) {
+      Disposer.dispose(myIsolateTracking);
+    }
+
     if (myVmServiceWrapper != null) {
       Disposer.dispose(myVmServiceWrapper);
     }
+
+    if (myConnection != null) {
+      Disposer.dispose(myConnection);
+    }
   }
 
   @Override
@@ -531,12 +634,23 @@ public class DartVmServiceDebugProcessZ extends DartVmServiceDebugProcess {
   public interface PositionMapper {
     void onConnect(ScriptProvider provider, String remoteBaseUrl);
 
-    // TODO(skybrian) this is called once per isolate. Should we pass in the isolate id?
     /**
      * Just after connecting, the debugger downloads the list of Dart libraries from Observatory and reports it here.
+     * <p>
+     * This is called once per isolate, but without the isolate id.
      */
     void onLibrariesDownloaded(Iterable<LibraryRef> libraries);
 
+    /**
+     * Reports the libraries loaded by a particular isolate, when it becomes runnable or is reloaded.
+     */
+    void onLibrariesDownloaded(String isolateId, Iterable<LibraryRef> libraries);
+
+    /**
+     * Called when an isolate exits, so that any state kept for it can be dropped.
+     */
+    void onIsolateExit(String isolateId);
+
     /**
      * Returns all possible Observatory URI's corresponding to a local file.
      *
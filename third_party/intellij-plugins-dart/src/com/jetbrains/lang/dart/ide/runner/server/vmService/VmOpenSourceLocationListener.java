@@ -126,6 +126,98 @@ public class VmOpenSourceLocationListener {
     return listener;
   }
 
+  /**
+   * Registers the openSourceLocation service on a WebSocket that is already connected and owned
+   * by another client (normally the VmService), so that no second connection is needed.
+   *
+   * <p>Messages that aren't addressed to this service are passed on to the socket's existing handler.
+   *
+   * @return the listener, or null if the socket has no handler to delegate to.
+   */
+  public static VmOpenSourceLocationListener attach(@NotNull final WebSocket webSocket) {
+    final WebSocketEventHandler delegate = webSocket.getEventHandler();
+    if (delegate == null) {
+      return null;
+    }
+
+    final VmOpenSourceLocationListener listener = new VmOpenSourceLocationListener(new MessageSender() {
+      @Override
+      public void sendMessage(JsonObject message) {
+        try {
+          webSocket.send(message.toString());
+        }
+        catch (WebSocketException e) {
+          LOG.warn(e);
+        }
+      }
+
+      @Override
+      public void close() {
+        // The socket belongs to the delegate.
+      }
+    });
+
+    webSocket.setEventHandler(new WebSocketEventHandler() {
+      final JsonParser parser = new JsonParser();
+
+      @Override
+      public void onClose() {
+        delegate.onClose();
+      }
+
+      @Override
+      public void onMessage(WebSocketMessage message) {
+        final String text = message.getText();
+        // Most messages are for the delegate; don't parse them twice. (REGISTER_ID contains the service name too.)
+        if (text == null || !text.contains(SERVICE_NAME)) {
+          delegate.onMessage(message);
+          return;
+        }
+
+        final JsonObject json;
+        try {
+          json = parser.parse(text).getAsJsonObject();
+        }
+        catch (RuntimeException e) {
+          delegate.onMessage(message);
+          return;
+        }
+        if (!listener.accepts(json)) {
+          delegate.onMessage(message);
+          return;
+        }
+        listener.onMessage(json);
+      }
+
+      @Override
+      public void onOpen() {
+        delegate.onOpen();
+      }
+
+      @Override
+      public void onPing() {
+        delegate.onPing();
+      }
+
+      @Override
+      public void onPong() {
+        delegate.onPong();
+      }
+    });
+
+    // The socket is already open, so register right away.
+    listener.onOpen();
+    return listener;
+  }
+
+  private static final String SERVICE_NAME = "openSourceLocation";
+
+  /**
+   * The id we use for the registration request, so that its response isn't mistaken for
+   * a response to the VmService when the socket is shared.
+   */
+  private static final String REGISTER_ID = SERVICE_NAME + "-register";
+
   final MessageSender sender;
   final List<Listener> listeners = new ArrayList<>();
 
@@ -145,6 +237,18 @@ public class VmOpenSourceLocationListener {
     sender.close();
   }
 
+  /**
+   * Returns true if the message is a request for this service or the response to our registration.
+   */
+  private boolean accepts(@NotNull final JsonObject message) {
+    final JsonElement id = message.get("id");
+    if (id != null && id.isJsonPrimitive() && REGISTER_ID.equals(id.getAsString())) {
+      return true;
+    }
+    final JsonElement method = message.get("method");
+    return method != null && method.isJsonPrimitive() && SERVICE_NAME.equals(method.getAsString());
+  }
+
   private void onMessage(@NotNull final JsonObject message) {
     final JsonElement id = message.get("id");
     final String isolateId;
@@ -155,6 +259,11 @@ public class VmOpenSourceLocationListener {
         return;
       }
 
+      if (id != null && REGISTER_ID.equals(id.getAsString())) {
+        // The response to our registration.
+        return;
+      }
+
       final String jsonrpc = message.get("jsonrpc").getAsString();
       if (!"2.0".equals(jsonrpc)) {
         return;
@@ -204,6 +313,7 @@ public class VmOpenSourceLocationListener {
   private void onOpen() {
     final JsonObject message = new JsonObject();
     message.addProperty("jsonrpc", "2.0");
+    message.addProperty("id", REGISTER_ID);
     message.addProperty("method", "_registerService");
     final JsonObject params = new JsonObject();
     params.addProperty("service", "openSourceLocation");